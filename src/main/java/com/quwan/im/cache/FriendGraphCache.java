@@ -0,0 +1,72 @@
+package com.quwan.im.cache;
+
+import com.quwan.im.mapper.FriendMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 好友关系缓存
+ * 按用户缓存好友ID邻接集合（排序后的String数组，二分查找判断好友关系），按用户做LRU淘汰，
+ * 缓存的用户数上限即内存上限。好友ID在加载时驻留（intern），同一用户ID在各邻接集合中共享一个String实例。
+ *
+ * 首次访问某用户时加载其邻接集合；好友关系变更（接受请求、删除好友）时以 invalidate(userId, friendId) 一次失效双方
+ */
+@Component
+public class FriendGraphCache extends InvalidatingLruCache<String[]> {
+
+    private static final String[] EMPTY = new String[0];
+
+    @Autowired
+    private FriendMapper friendMapper;
+
+    public FriendGraphCache(@Value("${im.cache.friends.max-users:100000}") int maxUsers) {
+        super("friends", maxUsers);
+    }
+
+    /**
+     * 是否为好友（任一方向存在有效的好友关系即可，与原SQL的OR条件一致）
+     * 好友关系按双向写入，通常查第一方即可命中；只有非好友时才会再查另一方
+     */
+    public boolean isFriend(String userId, String friendId) {
+        if (userId == null || friendId == null) {
+            return false;
+        }
+        return Arrays.binarySearch(getOrLoad(userId), friendId) >= 0
+                || Arrays.binarySearch(getOrLoad(friendId), userId) >= 0;
+    }
+
+    /**
+     * 获取用户的好友ID列表（只读）
+     */
+    public List<String> getFriendIds(String userId) {
+        return Collections.unmodifiableList(Arrays.asList(getOrLoad(userId)));
+    }
+
+    @Override
+    protected String[] load(String userId) {
+        List<String> friendIds = friendMapper.selectFriendIds(userId);
+        String[] friends = friendIds.isEmpty() ? EMPTY : new String[friendIds.size()];
+        for (int i = 0; i < friends.length; i++) {
+            friends[i] = friendIds.get(i).intern();
+        }
+        Arrays.sort(friends);
+        return friends;
+    }
+
+    @Override
+    protected void collectStats(Map<String, Object> stats, Collection<String[]> values) {
+        long edges = 0;
+        for (String[] friends : values) {
+            edges += friends.length;
+        }
+        stats.put("maxUsers", getMaxSize());
+        stats.put("edges", edges);
+    }
+}
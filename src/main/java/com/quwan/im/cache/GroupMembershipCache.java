@@ -0,0 +1,57 @@
+package com.quwan.im.cache;
+
+import com.quwan.im.mapper.GroupMemberMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 群成员缓存
+ * 按群缓存成员ID集合（排序后的String数组，二分查找判断成员身份），按群做LRU淘汰
+ * 成员变更（加群、移除、退群）时失效对应群
+ */
+@Component
+public class GroupMembershipCache extends InvalidatingLruCache<String[]> {
+
+    @Autowired
+    private GroupMemberMapper groupMemberMapper;
+
+    public GroupMembershipCache(@Value("${im.cache.group-members.max-groups:10000}") int maxGroups) {
+        super("groupMembers", maxGroups);
+    }
+
+    /**
+     * 是否为群成员
+     */
+    public boolean isMember(String groupId, String userId) {
+        if (userId == null) {
+            return false;
+        }
+        return Arrays.binarySearch(getOrLoad(groupId), userId) >= 0;
+    }
+
+    /**
+     * 获取群成员ID列表（只读）
+     */
+    public List<String> getMemberIds(String groupId) {
+        return Collections.unmodifiableList(Arrays.asList(getOrLoad(groupId)));
+    }
+
+    @Override
+    protected String[] load(String groupId) {
+        String[] members = groupMemberMapper.selectMemberIdsByGroupId(groupId).toArray(new String[0]);
+        Arrays.sort(members);
+        return members;
+    }
+
+    @Override
+    protected void collectStats(Map<String, Object> stats, Collection<String[]> values) {
+        stats.put("maxGroups", getMaxSize());
+    }
+}
@@ -0,0 +1,327 @@
+package com.quwan.im.cache;
+
+import com.quwan.im.cluster.ClusterRouter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 可失效的LRU缓存基类
+ * 按键缓存加载结果，超过容量上限时淘汰最久未访问的键；未命中时由子类的 load / loadAll 从数据库加载。
+ *
+ * 同一个键同时只有一个加载（single-flight）：正在加载的键登记一个future，并发未命中的调用方等待该加载的结果，不重复查询。
+ * 加载期间若该键被失效，登记随之移除，加载结果不写入缓存，防止旧数据覆盖；之后的未命中重新加载。
+ * 登记按键区分，失效一个键不会丢弃其他键的并发加载结果。
+ * 失效时先清除本节点，处于事务中时提交后再清除一次，避免缓存未提交前的旧数据；
+ * 提交后（无事务时立即）经ClusterRouter通知其他节点失效，一次失效的多个键合并为一条广播
+ *
+ * @param <V> 缓存值类型，不能为null（需要缓存"不存在"时由子类包装）
+ */
+public abstract class InvalidatingLruCache<V> {
+
+    @Autowired
+    private ClusterRouter clusterRouter;
+
+    // 集群失效广播中的缓存名称
+    private final String cacheName;
+
+    private final int maxSize;
+
+    // accessOrder=true 的LinkedHashMap即LRU，访问需加锁
+    private final LinkedHashMap<String, V> cache;
+
+    // 正在加载的键 -> 加载结果，与cache共用一把锁；加载结束或键被失效时移除
+    private final Map<String, CompletableFuture<V>> loading = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    protected InvalidatingLruCache(String cacheName, int maxSize) {
+        this.cacheName = cacheName;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                if (size() > InvalidatingLruCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void subscribeInvalidation() {
+        clusterRouter.onInvalidate(cacheName, this::evict);
+    }
+
+    /**
+     * 失效指定键的缓存
+     * 处于事务中时，提交后再失效一次；提交后（无事务时立即）通知其他节点
+     */
+    public void invalidate(String... keys) {
+        List<String> keyList = Arrays.asList(keys);
+        evict(keyList);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(keyList);
+                    clusterRouter.broadcastInvalidation(cacheName, keyList);
+                }
+            });
+        } else {
+            clusterRouter.broadcastInvalidation(cacheName, keyList);
+        }
+    }
+
+    /**
+     * 缓存统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + missCount;
+        synchronized (cache) {
+            stats.put("size", cache.size());
+            collectStats(stats, cache.values());
+        }
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", total == 0 ? 0 : Math.round(hitCount * 10000.0 / total) / 100.0);
+        stats.put("coalesced", coalesced.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    protected int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 加载单个键
+     * @return 加载结果，不能为null
+     */
+    protected abstract V load(String key);
+
+    /**
+     * 批量加载，默认逐个调用 load
+     * @return 键 -> 加载结果，需包含传入的每个键
+     */
+    protected Map<String, V> loadAll(List<String> keys) {
+        Map<String, V> loaded = new HashMap<>();
+        for (String key : keys) {
+            loaded.put(key, load(key));
+        }
+        return loaded;
+    }
+
+    /**
+     * 条目是否仍然有效，无效的条目移除并按未命中重新加载；默认永不过期
+     * 在缓存锁内调用
+     */
+    protected boolean isFresh(V value, long now) {
+        return true;
+    }
+
+    /**
+     * 命中时的回调，供子类细分命中统计
+     */
+    protected void onHit(V value) {
+    }
+
+    /**
+     * 追加子类的统计项，在缓存锁内调用
+     */
+    protected void collectStats(Map<String, Object> stats, Collection<V> values) {
+    }
+
+    /**
+     * 获取键对应的值，未命中或已过期时加载；该键正在加载时等待同一个加载的结果
+     */
+    protected V getOrLoad(String key) {
+        CompletableFuture<V> load;
+        boolean owner = false;
+        synchronized (cache) {
+            V value = lookup(key, System.nanoTime());
+            if (value != null) {
+                return value;
+            }
+            load = loading.get(key);
+            if (load == null) {
+                load = new CompletableFuture<>();
+                loading.put(key, load);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            coalesced.increment();
+            return await(load);
+        }
+        misses.increment();
+
+        V loaded;
+        try {
+            loaded = load(key);
+        } catch (RuntimeException | Error e) {
+            fail(key, load, e);
+            throw e;
+        }
+        complete(key, load, loaded);
+        return loaded;
+    }
+
+    /**
+     * 批量获取，未命中的部分按 batchSize 分批交给 loadAll 加载；其他调用方正在加载的键等待其结果
+     * @return 键 -> 值，按传入顺序
+     */
+    protected Map<String, V> getOrLoadAll(List<String> keys, int batchSize) {
+        Map<String, V> found = new HashMap<>();
+        // 由本次调用加载的键，与其他调用方正在加载、需要等待的键
+        Map<String, CompletableFuture<V>> owned = new LinkedHashMap<>();
+        Map<String, CompletableFuture<V>> joined = new HashMap<>();
+        long now = System.nanoTime();
+        synchronized (cache) {
+            for (String key : keys) {
+                if (found.containsKey(key) || owned.containsKey(key) || joined.containsKey(key)) {
+                    continue;
+                }
+                V value = lookup(key, now);
+                if (value != null) {
+                    found.put(key, value);
+                    continue;
+                }
+                CompletableFuture<V> load = loading.get(key);
+                if (load != null) {
+                    joined.put(key, load);
+                } else {
+                    load = new CompletableFuture<>();
+                    loading.put(key, load);
+                    owned.put(key, load);
+                }
+            }
+        }
+
+        List<String> missing = new ArrayList<>(owned.keySet());
+        int from = 0;
+        try {
+            for (; from < missing.size(); from += batchSize) {
+                List<String> batch = missing.subList(from, Math.min(from + batchSize, missing.size()));
+                misses.add(batch.size());
+
+                Map<String, V> loaded = loadAll(batch);
+                for (String key : batch) {
+                    V value = loaded.get(key);
+                    complete(key, owned.get(key), value);
+                    if (value != null) {
+                        found.put(key, value);
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            // 失败批次及其后的键都未加载，唤醒等待这些键的调用方
+            for (String key : missing.subList(from, missing.size())) {
+                fail(key, owned.get(key), e);
+            }
+            throw e;
+        }
+
+        coalesced.add(joined.size());
+        for (Map.Entry<String, CompletableFuture<V>> entry : joined.entrySet()) {
+            V value = await(entry.getValue());
+            if (value != null) {
+                found.put(entry.getKey(), value);
+            }
+        }
+
+        Map<String, V> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            V value = found.get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    // 持有缓存锁
+    private V lookup(String key, long now) {
+        V value = cache.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (isFresh(value, now)) {
+            hits.increment();
+            onHit(value);
+            return value;
+        }
+        cache.remove(key);
+        expirations.increment();
+        return null;
+    }
+
+    /**
+     * 加载完成：登记仍在（加载期间未被失效）时写入缓存，并把结果交给等待的调用方
+     */
+    private void complete(String key, CompletableFuture<V> load, V value) {
+        synchronized (cache) {
+            if (loading.remove(key, load) && value != null) {
+                cache.put(key, value);
+            }
+        }
+        load.complete(value);
+    }
+
+    private void fail(String key, CompletableFuture<V> load, Throwable cause) {
+        synchronized (cache) {
+            loading.remove(key, load);
+        }
+        load.completeExceptionally(cause);
+    }
+
+    private static <T> T await(CompletableFuture<T> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 移除缓存条目与正在进行的加载登记：已在等待的调用方仍得到该加载的结果，但结果不写入缓存
+     */
+    private void evict(Collection<String> keys) {
+        synchronized (cache) {
+            for (String key : keys) {
+                cache.remove(key);
+                loading.remove(key);
+            }
+        }
+    }
+}
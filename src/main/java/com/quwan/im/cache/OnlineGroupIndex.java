@@ -0,0 +1,118 @@
+package com.quwan.im.cache;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 群在线成员索引
+ * 维护 群ID -> 在线成员ID 的映射，群发时只遍历在线成员，成本与在线人数成正比而非群总人数
+ * 由登录/登出/断线（上下线）与加群/退群/移除成员（成员变更）共同维护
+ */
+@Component
+public class OnlineGroupIndex {
+
+    // 群ID -> 在线成员ID
+    private final ConcurrentHashMap<String, Set<String>> groupOnlineMembers = new ConcurrentHashMap<>();
+
+    // 在线用户ID -> 所在群ID（用于下线时清理）
+    private final ConcurrentHashMap<String, Set<String>> userGroups = new ConcurrentHashMap<>();
+
+    /**
+     * 用户上线
+     * @param userId 用户ID
+     * @param groupIds 用户加入的全部群
+     */
+    public void userOnline(String userId, Collection<String> groupIds) {
+        Set<String> groups = ConcurrentHashMap.newKeySet();
+        groups.addAll(groupIds);
+        Set<String> previous = userGroups.put(userId, groups);
+        if (previous != null) {
+            // 重复登录：清理旧登录时记录、但已不再所属的群
+            for (String groupId : previous) {
+                if (!groups.contains(groupId)) {
+                    removeOnlineMember(groupId, userId);
+                }
+            }
+        }
+        for (String groupId : groups) {
+            addOnlineMember(groupId, userId);
+        }
+    }
+
+    /**
+     * 用户下线
+     */
+    public void userOffline(String userId) {
+        Set<String> groups = userGroups.remove(userId);
+        if (groups == null) {
+            return;
+        }
+        for (String groupId : groups) {
+            removeOnlineMember(groupId, userId);
+        }
+    }
+
+    /**
+     * 成员加入群组（用户不在线时忽略，上线时会重新加载）
+     */
+    public void memberJoined(String groupId, String userId) {
+        Set<String> groups = userGroups.get(userId);
+        if (groups != null) {
+            groups.add(groupId);
+            addOnlineMember(groupId, userId);
+        }
+    }
+
+    /**
+     * 成员离开群组（退群或被移除）
+     */
+    public void memberLeft(String groupId, String userId) {
+        Set<String> groups = userGroups.get(userId);
+        if (groups != null) {
+            groups.remove(groupId);
+        }
+        removeOnlineMember(groupId, userId);
+    }
+
+    /**
+     * 获取群内在线成员ID（只读视图，遍历期间可能有成员上下线）
+     */
+    public Set<String> getOnlineMembers(String groupId) {
+        Set<String> members = groupOnlineMembers.get(groupId);
+        return members != null ? Collections.unmodifiableSet(members) : Collections.emptySet();
+    }
+
+    /**
+     * 索引统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("onlineUsers", userGroups.size());
+        stats.put("activeGroups", groupOnlineMembers.size());
+        return stats;
+    }
+
+    private void addOnlineMember(String groupId, String userId) {
+        groupOnlineMembers.compute(groupId, (key, members) -> {
+            if (members == null) {
+                members = ConcurrentHashMap.newKeySet();
+            }
+            members.add(userId);
+            return members;
+        });
+    }
+
+    private void removeOnlineMember(String groupId, String userId) {
+        // 群内无在线成员时移除整个条目，避免索引随历史群数量增长
+        groupOnlineMembers.computeIfPresent(groupId, (key, members) -> {
+            members.remove(userId);
+            return members.isEmpty() ? null : members;
+        });
+    }
+}
@@ -0,0 +1,141 @@
+package com.quwan.im.cache;
+
+import com.quwan.im.entity.UserEntity;
+import com.quwan.im.mapper.UserMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 用户信息缓存
+ * 按用户ID缓存用户实体，按用户做LRU淘汰，条目超过TTL后重新加载；
+ * 不存在的用户同样缓存（负缓存，TTL较短），避免不存在的接收方ID反复查询数据库。
+ *
+ * 注册、资料或状态变更时失效对应用户。缓存中的实体由调用方共享，只读使用
+ */
+@Component
+public class UserCache extends InvalidatingLruCache<UserCache.Entry> {
+
+    // 批量加载时单条IN查询的最大ID数
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private final LongAdder negativeHits = new LongAdder();
+
+    public UserCache(@Value("${im.cache.users.max-users:100000}") int maxUsers,
+                     @Value("${im.cache.users.ttl-seconds:600}") long ttlSeconds,
+                     @Value("${im.cache.users.negative-ttl-seconds:30}") long negativeTtlSeconds) {
+        super("users", maxUsers);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+    }
+
+    /**
+     * 获取用户
+     * @return 用户实体（只读），不存在返回null
+     */
+    public UserEntity get(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        return getOrLoad(userId).user;
+    }
+
+    /**
+     * 批量获取用户，未命中的部分按IN列表批量加载（每批最多 LOAD_BATCH_SIZE 个ID）
+     * @return 用户ID -> 用户实体（只读），按传入顺序，不包含不存在的用户
+     */
+    public Map<String, UserEntity> getAll(List<String> userIds) {
+        Map<String, UserEntity> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Entry> entry : getOrLoadAll(userIds, LOAD_BATCH_SIZE).entrySet()) {
+            if (entry.getValue().user != null) {
+                result.put(entry.getKey(), entry.getValue().user);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用户是否存在
+     */
+    public boolean exists(String userId) {
+        return get(userId) != null;
+    }
+
+    @Override
+    protected Entry load(String userId) {
+        return entry(userMapper.selectById(userId), System.nanoTime());
+    }
+
+    @Override
+    protected Map<String, Entry> loadAll(List<String> userIds) {
+        Map<String, UserEntity> users = new HashMap<>();
+        for (UserEntity user : userMapper.selectBatchIds(userIds)) {
+            users.put(user.getUserId(), user);
+        }
+        long loadedAt = System.nanoTime();
+        Map<String, Entry> loaded = new HashMap<>();
+        for (String userId : userIds) {
+            loaded.put(userId, entry(users.get(userId), loadedAt));
+        }
+        return loaded;
+    }
+
+    @Override
+    protected boolean isFresh(Entry entry, long now) {
+        return now - entry.expiresAt < 0;
+    }
+
+    @Override
+    protected void onHit(Entry entry) {
+        if (entry.user == null) {
+            negativeHits.increment();
+        }
+    }
+
+    /**
+     * hits 包含负缓存命中，negativeHits 为其中不存在用户的命中数
+     */
+    @Override
+    protected void collectStats(Map<String, Object> stats, Collection<Entry> values) {
+        int negative = 0;
+        for (Entry entry : values) {
+            if (entry.user == null) {
+                negative++;
+            }
+        }
+        stats.put("negativeEntries", negative);
+        stats.put("maxUsers", getMaxSize());
+        stats.put("negativeHits", negativeHits.sum());
+    }
+
+    private Entry entry(UserEntity user, long loadedAt) {
+        return new Entry(user, loadedAt + (user != null ? ttlNanos : negativeTtlNanos));
+    }
+
+    /**
+     * 缓存条目，user为null表示用户不存在
+     */
+    static final class Entry {
+        private final UserEntity user;
+        private final long expiresAt;
+
+        Entry(UserEntity user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
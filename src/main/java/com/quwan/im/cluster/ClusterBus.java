@@ -0,0 +1,34 @@
+package com.quwan.im.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * 节点间消息总线
+ * 每个节点订阅发往自己的批次与广播批次；批次内容由ClusterRouter编码，总线只负责投递字节
+ */
+public interface ClusterBus {
+
+    // 广播目标：投递给所有节点（包括发送方自己，由接收方按来源节点过滤）
+    String BROADCAST = "*";
+
+    /**
+     * 订阅发往指定节点的批次（同时订阅广播）
+     */
+    void subscribe(String nodeId, Consumer<byte[]> receiver);
+
+    /**
+     * 取消订阅
+     */
+    void unsubscribe(String nodeId);
+
+    /**
+     * 发布一个批次
+     * @param nodeId 目标节点ID，或 BROADCAST
+     */
+    void publish(String nodeId, byte[] batch);
+
+    /**
+     * 关闭总线，释放连接
+     */
+    void close();
+}
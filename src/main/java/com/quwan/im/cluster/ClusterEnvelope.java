@@ -0,0 +1,40 @@
+package com.quwan.im.cluster;
+
+import com.quwan.im.model.IMMessage;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 节点间转发的一帧消息
+ * groupId不为空时投递给目标节点上该群的在线成员，to不为空时投递给其中在目标节点上的用户，
+ * 两者都为空时为节点级广播，由接收节点按消息类型处理（如在线状态变化通知）；
+ * cache不为空时为缓存失效广播，不投递给用户，由接收节点失效本地缓存中的keys；
+ * kick为true时通知目标节点断开to中用户的连接（用户已在其他节点重新登录，data为新登录的设备）
+ */
+@Data
+public class ClusterEnvelope {
+
+    // 群ID，群广播时使用
+    private String groupId;
+
+    // 目标用户（单发）
+    private List<String> to;
+
+    // 不投递的用户（如群消息发送者本人），可为null
+    private String exclude;
+
+    // 协议消息类型
+    private byte type;
+
+    // 消息内容：二选一
+    private IMMessage message;
+    private String data;
+
+    // 踢下线：用户已在其他节点登录
+    private boolean kick;
+
+    // 缓存失效广播：缓存名称与失效的键
+    private String cache;
+    private List<String> keys;
+}
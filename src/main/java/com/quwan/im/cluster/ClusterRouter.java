@@ -0,0 +1,438 @@
+package com.quwan.im.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quwan.im.model.MessageType;
+import com.quwan.im.model.ProtocolMessage;
+import lombok.Data;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 集群消息路由
+ * 用户上线、下线时维护会话目录（userId -> nodeId）；接收方不在本节点时，按会话目录找到所在节点，
+ * 经ClusterBus转发。群消息不逐个查询成员所在节点，而是广播给所有节点，由各节点按本地的群在线成员索引投递。
+ *
+ * 转发先进入有界队列，由单个发送线程按数量或时间阈值取出一批，按目标节点合并为一个批次发布，
+ * 队列满时丢弃（消息已持久化，接收方通过SYNC补齐）。未开启集群模式（im.cluster.enabled=false）时所有方法均不做任何事。
+ *
+ * 节点每 heartbeat-interval 上报一次存活，每 session-refresh-interval 续期本节点用户的登记；
+ * 节点宕机后其存活键过期，会话目录不再返回该节点上的用户，这些用户的单发计入 unrouted。
+ *
+ * 本地缓存（用户、好友关系、群成员）变更后经 broadcastInvalidation 通知其他节点失效，
+ * 接收节点交给 onInvalidate 注册的回调处理。
+ */
+@Component
+public class ClusterRouter {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterRouter.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final SessionDirectory sessionDirectory;
+    private final ClusterBus clusterBus;
+    private final boolean enabled;
+    private final String nodeId;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<Outbound> queue;
+    private final long heartbeatIntervalMillis;
+    private final long sessionRefreshIntervalMillis;
+
+    // 在本节点登记的用户，用于定期续期
+    private final Set<String> localUsers = ConcurrentHashMap.newKeySet();
+
+    // 收到其他节点转发的消息后的本地投递（由IMMessageHandler设置）
+    private volatile Consumer<ClusterEnvelope> receiver;
+
+    // 缓存名称 -> 收到其他节点的失效广播后的本地失效
+    private final Map<String, Consumer<List<String>>> invalidationListeners = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private Thread sender;
+    private ScheduledExecutorService heartbeat;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder kicks = new LongAdder();
+    private final LongAdder unrouted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public ClusterRouter(SessionDirectory sessionDirectory,
+                         ClusterBus clusterBus,
+                         @Value("${im.cluster.enabled:false}") boolean enabled,
+                         @Value("${im.cluster.node-id:node-${im.id.worker-id:0}}") String nodeId,
+                         @Value("${im.cluster.queue-capacity:10000}") int capacity,
+                         @Value("${im.cluster.batch-size:200}") int batchSize,
+                         @Value("${im.cluster.flush-interval-ms:2}") long flushIntervalMillis,
+                         @Value("${im.cluster.heartbeat-interval-ms:5000}") long heartbeatIntervalMillis,
+                         @Value("${im.cluster.session-refresh-interval-ms:3600000}") long sessionRefreshIntervalMillis) {
+        this.sessionDirectory = sessionDirectory;
+        this.clusterBus = clusterBus;
+        this.enabled = enabled;
+        this.nodeId = nodeId;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+        this.sessionRefreshIntervalMillis = sessionRefreshIntervalMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        sessionDirectory.nodeAlive(nodeId);
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleWithFixedDelay(this::reportAlive, heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+        heartbeat.scheduleWithFixedDelay(this::refreshSessions, sessionRefreshIntervalMillis, sessionRefreshIntervalMillis, TimeUnit.MILLISECONDS);
+        clusterBus.subscribe(nodeId, this::onBatch);
+        sender = new Thread(this::runSender, "cluster-router");
+        sender.start();
+        logger.info("集群模式已开启，节点ID: {}", nodeId);
+    }
+
+    /**
+     * 停止接收新的转发，把队列中剩余的转发发布后取消订阅
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        if (sender != null) {
+            sender.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+        clusterBus.unsubscribe(nodeId);
+        sessionDirectory.nodeDown(nodeId);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 设置本地投递回调，在总线的接收线程上调用
+     */
+    public void setReceiver(Consumer<ClusterEnvelope> receiver) {
+        this.receiver = receiver;
+    }
+
+    /**
+     * 注册缓存失效回调，在总线的接收线程上调用
+     * @param cache 缓存名称
+     * @param listener 失效的键
+     */
+    public void onInvalidate(String cache, Consumer<List<String>> listener) {
+        invalidationListeners.put(cache, listener);
+    }
+
+    /**
+     * 通知其他节点失效本地缓存（应在事务提交后调用，避免其他节点重新加载到未提交前的数据）
+     */
+    public void broadcastInvalidation(String cache, List<String> keys) {
+        if (!enabled) {
+            return;
+        }
+        ClusterEnvelope envelope = new ClusterEnvelope();
+        envelope.setCache(cache);
+        envelope.setKeys(keys);
+        broadcasts.increment();
+        enqueue(ClusterBus.BROADCAST, envelope);
+    }
+
+    /**
+     * 用户在本节点上线（可能访问Redis，不要在EventLoop上调用）
+     * 用户原先登记在其他节点时，通知该节点断开用户的旧连接
+     * @param deviceId 本次登录的设备，随通知带给旧节点
+     */
+    public void userOnline(String userId, String deviceId) {
+        if (!enabled) {
+            return;
+        }
+        localUsers.add(userId);
+        String previousNode = sessionDirectory.register(userId, nodeId);
+        if (previousNode != null && !nodeId.equals(previousNode)) {
+            ClusterEnvelope envelope = new ClusterEnvelope();
+            envelope.setType(MessageType.SYSTEM_NOTIFY.getCode());
+            envelope.setTo(Collections.singletonList(userId));
+            envelope.setData(deviceId);
+            envelope.setKick(true);
+            kicks.increment();
+            enqueue(previousNode, envelope);
+        }
+    }
+
+    /**
+     * 用户从本节点下线，已在其他节点重新登录时不影响新的登记（可能访问Redis，不要在EventLoop上调用）
+     */
+    public void userOffline(String userId) {
+        if (enabled) {
+            localUsers.remove(userId);
+            sessionDirectory.unregister(userId, nodeId);
+        }
+    }
+
+    /**
+     * 转发给不在本节点的用户（查询会话目录，可能访问Redis，不要在EventLoop上调用）
+     * 未登记或登记在本节点（目录中的过期记录）的用户不转发
+     */
+    public void sendToUsers(Collection<String> userIds, ProtocolMessage message) {
+        if (!enabled || userIds.isEmpty()) {
+            return;
+        }
+        Map<String, List<String>> usersByNode = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : sessionDirectory.lookup(userIds).entrySet()) {
+            if (!nodeId.equals(entry.getValue())) {
+                usersByNode.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        int routed = 0;
+        for (Map.Entry<String, List<String>> entry : usersByNode.entrySet()) {
+            ClusterEnvelope envelope = envelope(message);
+            envelope.setTo(entry.getValue());
+            enqueue(entry.getKey(), envelope);
+            routed += entry.getValue().size();
+        }
+        unrouted.add(userIds.size() - routed);
+    }
+
+    /**
+     * 广播给其他节点上该群的在线成员
+     * @param excludeUserId 不投递的用户（如发送者本人），可为null
+     */
+    public void broadcastToGroup(String groupId, String excludeUserId, ProtocolMessage message) {
+        if (!enabled) {
+            return;
+        }
+        ClusterEnvelope envelope = envelope(message);
+        envelope.setGroupId(groupId);
+        envelope.setExclude(excludeUserId);
+        broadcasts.increment();
+        enqueue(ClusterBus.BROADCAST, envelope);
+    }
+
+    /**
+     * 广播给其他所有节点，由接收节点按消息类型自行决定投递对象
+     */
+    public void broadcast(ProtocolMessage message) {
+        if (!enabled) {
+            return;
+        }
+        broadcasts.increment();
+        enqueue(ClusterBus.BROADCAST, envelope(message));
+    }
+
+    /**
+     * 路由统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("nodeId", nodeId);
+        stats.put("localUsers", localUsers.size());
+        stats.put("queued", queue.size());
+        stats.put("forwarded", forwarded.sum());
+        stats.put("broadcasts", broadcasts.sum());
+        stats.put("batches", batches.sum());
+        stats.put("received", received.sum());
+        stats.put("invalidations", invalidations.sum());
+        stats.put("kicks", kicks.sum());
+        stats.put("unrouted", unrouted.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    private void reportAlive() {
+        try {
+            sessionDirectory.nodeAlive(nodeId);
+        } catch (Exception e) {
+            logger.error("节点[{}]上报存活失败", nodeId, e);
+        }
+    }
+
+    private void refreshSessions() {
+        try {
+            sessionDirectory.refresh(new ArrayList<>(localUsers), nodeId);
+        } catch (Exception e) {
+            logger.error("节点[{}]续期{}个用户登记失败", nodeId, localUsers.size(), e);
+        }
+    }
+
+    private static ClusterEnvelope envelope(ProtocolMessage message) {
+        ClusterEnvelope envelope = new ClusterEnvelope();
+        envelope.setType(message.getType());
+        if (message.getImMessage() != null) {
+            envelope.setMessage(message.getImMessage());
+        } else {
+            envelope.setData(message.getData());
+        }
+        return envelope;
+    }
+
+    private void enqueue(String targetNode, ClusterEnvelope envelope) {
+        if (!running || !queue.offer(new Outbound(targetNode, envelope))) {
+            rejected.increment();
+            logger.warn("集群转发队列已满（{}），丢弃发往节点[{}]的消息", queue.size(), targetNode);
+            return;
+        }
+        forwarded.increment();
+    }
+
+    private void runSender() {
+        List<Outbound> batch = new ArrayList<>(batchSize);
+        // 停止后继续执行，直到队列清空
+        while (running || !queue.isEmpty()) {
+            try {
+                collect(batch);
+                if (!batch.isEmpty()) {
+                    publish(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable e) {
+                logger.error("集群消息发布异常", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 取出一批转发：凑满batchSize，或自第一条起超过flushInterval
+     */
+    private void collect(List<Outbound> batch) throws InterruptedException {
+        Outbound first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                break;
+            }
+            Outbound next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * 按目标节点合并，每个节点发布一次
+     */
+    private void publish(List<Outbound> batch) {
+        Map<String, List<ClusterEnvelope>> envelopesByNode = new LinkedHashMap<>();
+        for (Outbound outbound : batch) {
+            envelopesByNode.computeIfAbsent(outbound.targetNode, k -> new ArrayList<>()).add(outbound.envelope);
+        }
+        for (Map.Entry<String, List<ClusterEnvelope>> entry : envelopesByNode.entrySet()) {
+            ClusterBatch clusterBatch = new ClusterBatch();
+            clusterBatch.setOrigin(nodeId);
+            clusterBatch.setEnvelopes(entry.getValue());
+            try {
+                clusterBus.publish(entry.getKey(), objectMapper.writeValueAsBytes(clusterBatch));
+                batches.increment();
+            } catch (Exception e) {
+                failed.add(entry.getValue().size());
+                logger.error("向节点[{}]发布{}条消息失败", entry.getKey(), entry.getValue().size(), e);
+            }
+        }
+    }
+
+    /**
+     * 收到批次：跳过本节点发出的广播，逐条交给本地投递
+     */
+    private void onBatch(byte[] bytes) {
+        ClusterBatch batch;
+        try {
+            batch = objectMapper.readValue(bytes, ClusterBatch.class);
+        } catch (Exception e) {
+            logger.error("集群消息批次解析失败，长度: {}", bytes.length, e);
+            return;
+        }
+        Consumer<ClusterEnvelope> localReceiver = receiver;
+        if (nodeId.equals(batch.getOrigin()) || batch.getEnvelopes() == null) {
+            return;
+        }
+        for (ClusterEnvelope envelope : batch.getEnvelopes()) {
+            try {
+                if (envelope.getCache() != null) {
+                    invalidations.increment();
+                    Consumer<List<String>> listener = invalidationListeners.get(envelope.getCache());
+                    if (listener != null && envelope.getKeys() != null) {
+                        listener.accept(envelope.getKeys());
+                    }
+                } else if (localReceiver != null) {
+                    received.increment();
+                    localReceiver.accept(envelope);
+                }
+            } catch (Exception e) {
+                logger.error("集群消息本地投递异常", e);
+            }
+        }
+    }
+
+    /**
+     * 待发布的转发
+     */
+    private static final class Outbound {
+        private final String targetNode;
+        private final ClusterEnvelope envelope;
+
+        Outbound(String targetNode, ClusterEnvelope envelope) {
+            this.targetNode = targetNode;
+            this.envelope = envelope;
+        }
+    }
+
+    /**
+     * 节点间发布的批次（JSON）
+     */
+    @Data
+    public static class ClusterBatch {
+        private String origin;
+        private List<ClusterEnvelope> envelopes;
+    }
+}
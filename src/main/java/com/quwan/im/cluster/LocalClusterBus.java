@@ -0,0 +1,44 @@
+package com.quwan.im.cluster;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * JVM内消息总线
+ * 单节点部署与本地多节点测试使用：发布时在发布线程上同步回调目标节点的订阅者，
+ * 同一实例在多个ClusterRouter之间共享即模拟一个集群
+ */
+public class LocalClusterBus implements ClusterBus {
+
+    private final Map<String, Consumer<byte[]>> subscribers = new ConcurrentHashMap<>();
+
+    @Override
+    public void subscribe(String nodeId, Consumer<byte[]> receiver) {
+        subscribers.put(nodeId, receiver);
+    }
+
+    @Override
+    public void unsubscribe(String nodeId) {
+        subscribers.remove(nodeId);
+    }
+
+    @Override
+    public void publish(String nodeId, byte[] batch) {
+        if (BROADCAST.equals(nodeId)) {
+            for (Consumer<byte[]> receiver : subscribers.values()) {
+                receiver.accept(batch);
+            }
+            return;
+        }
+        Consumer<byte[]> receiver = subscribers.get(nodeId);
+        if (receiver != null) {
+            receiver.accept(batch);
+        }
+    }
+
+    @Override
+    public void close() {
+        subscribers.clear();
+    }
+}
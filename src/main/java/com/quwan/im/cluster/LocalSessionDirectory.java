@@ -0,0 +1,55 @@
+package com.quwan.im.cluster;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM内会话目录
+ * 单节点部署与本地多节点测试使用：同一实例在多个ClusterRouter之间共享即模拟一个集群。
+ * 登记不过期；调用过 nodeDown 且之后未再上报存活的节点上的登记不返回。
+ */
+public class LocalSessionDirectory implements SessionDirectory {
+
+    private final Map<String, String> sessions = new ConcurrentHashMap<>();
+    private final Set<String> downNodes = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public String register(String userId, String nodeId) {
+        return sessions.put(userId, nodeId);
+    }
+
+    @Override
+    public void unregister(String userId, String nodeId) {
+        sessions.remove(userId, nodeId);
+    }
+
+    @Override
+    public void refresh(Collection<String> userIds, String nodeId) {
+        // 登记不过期，无需续期
+    }
+
+    @Override
+    public void nodeAlive(String nodeId) {
+        downNodes.remove(nodeId);
+    }
+
+    @Override
+    public void nodeDown(String nodeId) {
+        downNodes.add(nodeId);
+    }
+
+    @Override
+    public Map<String, String> lookup(Collection<String> userIds) {
+        Map<String, String> nodes = new HashMap<>();
+        for (String userId : userIds) {
+            String nodeId = sessions.get(userId);
+            if (nodeId != null && !downNodes.contains(nodeId)) {
+                nodes.put(userId, nodeId);
+            }
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,68 @@
+package com.quwan.im.cluster;
+
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 基于Redis发布订阅的消息总线
+ * 每个节点订阅频道 im:cluster:node:{nodeId} 与广播频道 im:cluster:broadcast；
+ * 发布不落盘，节点不在线时批次丢失（消息已持久化，客户端通过SYNC补齐）
+ */
+public class RedisClusterBus implements ClusterBus {
+
+    private static final String NODE_CHANNEL_PREFIX = "im:cluster:node:";
+    private static final String BROADCAST_CHANNEL = "im:cluster:broadcast";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer container;
+    private final Map<String, MessageListener> listeners = new ConcurrentHashMap<>();
+
+    public RedisClusterBus(RedisConnectionFactory connectionFactory, StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+        this.container = new RedisMessageListenerContainer();
+        this.container.setConnectionFactory(connectionFactory);
+        this.container.afterPropertiesSet();
+        this.container.start();
+    }
+
+    @Override
+    public void subscribe(String nodeId, Consumer<byte[]> receiver) {
+        MessageListener listener = (message, pattern) -> receiver.accept(message.getBody());
+        listeners.put(nodeId, listener);
+        container.addMessageListener(listener, Arrays.asList(new ChannelTopic(NODE_CHANNEL_PREFIX + nodeId), new ChannelTopic(BROADCAST_CHANNEL)));
+    }
+
+    @Override
+    public void unsubscribe(String nodeId) {
+        MessageListener listener = listeners.remove(nodeId);
+        if (listener != null) {
+            container.removeMessageListener(listener);
+        }
+    }
+
+    @Override
+    public void publish(String nodeId, byte[] batch) {
+        String channel = BROADCAST.equals(nodeId) ? BROADCAST_CHANNEL : NODE_CHANNEL_PREFIX + nodeId;
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(channelBytes, batch));
+    }
+
+    @Override
+    public void close() {
+        try {
+            container.destroy();
+        } catch (Exception e) {
+            throw new IllegalStateException("关闭Redis订阅失败", e);
+        }
+    }
+}
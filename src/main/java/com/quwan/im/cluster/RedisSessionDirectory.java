@@ -0,0 +1,139 @@
+package com.quwan.im.cluster;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于Redis的会话目录
+ * 每个在线用户一个键 im:session:{userId}，值为节点ID，带过期时间，由所在节点定期续期；批量查询使用MGET，一次往返。
+ * 每个节点一个存活键 im:node:{nodeId}，节点定期续期：查询时再MGET一次涉及节点的存活键，
+ * 存活键已过期（节点宕机）的登记视为不在线，宕机节点遗留的登记在过期时间后自动清除。
+ */
+public class RedisSessionDirectory implements SessionDirectory {
+
+    private static final String KEY_PREFIX = "im:session:";
+    private static final String NODE_KEY_PREFIX = "im:node:";
+
+    // 仅当值仍为本节点时删除，避免用户在其他节点重新登录后被旧节点的下线注销
+    private static final RedisScript<Long> UNREGISTER_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    // 登记并返回旧值（SET ... GET 需要Redis 6.2，这里用脚本兼容旧版本）
+    private static final RedisScript<String> REGISTER_SCRIPT = new DefaultRedisScript<>(
+            "local old = redis.call('get', KEYS[1]); redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2]); return old",
+            String.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final long nodeTtlSeconds;
+    private final long sessionTtlSeconds;
+
+    /**
+     * @param nodeTtlSeconds 节点存活键的过期时间，需为节点上报间隔的数倍
+     * @param sessionTtlSeconds 用户登记的过期时间，需为节点续期间隔的数倍
+     */
+    public RedisSessionDirectory(StringRedisTemplate redisTemplate, long nodeTtlSeconds, long sessionTtlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.nodeTtlSeconds = nodeTtlSeconds;
+        this.sessionTtlSeconds = sessionTtlSeconds;
+    }
+
+    @Override
+    public String register(String userId, String nodeId) {
+        return redisTemplate.execute(REGISTER_SCRIPT, Collections.singletonList(KEY_PREFIX + userId),
+                nodeId, String.valueOf(sessionTtlSeconds));
+    }
+
+    @Override
+    public void unregister(String userId, String nodeId) {
+        redisTemplate.execute(UNREGISTER_SCRIPT, Collections.singletonList(KEY_PREFIX + userId), nodeId);
+    }
+
+    @Override
+    public void refresh(Collection<String> userIds, String nodeId) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String userId : userIds) {
+                connection.expire(bytes(KEY_PREFIX + userId), sessionTtlSeconds);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void nodeAlive(String nodeId) {
+        redisTemplate.opsForValue().set(NODE_KEY_PREFIX + nodeId, "1", nodeTtlSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void nodeDown(String nodeId) {
+        redisTemplate.delete(NODE_KEY_PREFIX + nodeId);
+    }
+
+    @Override
+    public Map<String, String> lookup(Collection<String> userIds) {
+        List<String> ids = new ArrayList<>(userIds);
+        List<String> keys = new ArrayList<>(ids.size());
+        for (String userId : ids) {
+            keys.add(KEY_PREFIX + userId);
+        }
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+        Map<String, String> nodes = new HashMap<>();
+        if (values == null) {
+            return nodes;
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            String nodeId = values.get(i);
+            if (nodeId != null) {
+                nodes.put(ids.get(i), nodeId);
+            }
+        }
+        Set<String> liveNodes = liveNodes(nodes.values());
+        nodes.values().removeIf(nodeId -> !liveNodes.contains(nodeId));
+        return nodes;
+    }
+
+    /**
+     * 存活键仍存在的节点
+     */
+    private Set<String> liveNodes(Collection<String> nodeIds) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(nodeIds));
+        Set<String> live = new LinkedHashSet<>();
+        if (distinct.isEmpty()) {
+            return live;
+        }
+        List<String> keys = new ArrayList<>(distinct.size());
+        for (String nodeId : distinct) {
+            keys.add(NODE_KEY_PREFIX + nodeId);
+        }
+        List<String> values = redisTemplate.opsForValue().multiGet(keys);
+        if (values == null) {
+            return live;
+        }
+        for (int i = 0; i < distinct.size(); i++) {
+            if (values.get(i) != null) {
+                live.add(distinct.get(i));
+            }
+        }
+        return live;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
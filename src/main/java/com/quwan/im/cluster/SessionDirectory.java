@@ -0,0 +1,44 @@
+package com.quwan.im.cluster;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 会话目录：记录在线用户所在的节点（userId -> nodeId）
+ * 集群模式下由ClusterRouter在用户上线、下线时维护，转发消息前查询接收方所在节点。
+ * 节点定期上报存活（nodeAlive），查询时不返回已失联节点上的登记，避免节点宕机后其用户的消息一直转发到失效节点。
+ */
+public interface SessionDirectory {
+
+    /**
+     * 登记用户所在节点（覆盖旧的登记）
+     * @return 被覆盖的旧登记所在节点，没有旧登记时为null
+     */
+    String register(String userId, String nodeId);
+
+    /**
+     * 注销用户，仅当登记仍指向该节点时生效（用户已在其他节点重新登录时保留新的登记）
+     */
+    void unregister(String userId, String nodeId);
+
+    /**
+     * 续期本节点用户的登记，由节点定期调用（登记带过期时间的实现使用）
+     */
+    void refresh(Collection<String> userIds, String nodeId);
+
+    /**
+     * 上报节点存活
+     */
+    void nodeAlive(String nodeId);
+
+    /**
+     * 节点正常下线，其上的登记立即失效
+     */
+    void nodeDown(String nodeId);
+
+    /**
+     * 批量查询用户所在节点
+     * @return 用户ID -> 节点ID，不包含未登记或登记在已失联节点上的用户
+     */
+    Map<String, String> lookup(Collection<String> userIds);
+}
@@ -1,5 +1,7 @@
 package com.quwan.im.config;
 
+import com.quwan.im.util.KeyedExecutor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
@@ -12,36 +14,37 @@ import java.util.concurrent.ThreadPoolExecutor;
 @EnableAsync
 public class AsyncConfig {
 
-    @Bean("messageTaskExecutor")
-    public Executor messageTaskExecutor() {
-        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        // 核心线程数
-        executor.setCorePoolSize(20);
-        // 最大线程数
-        executor.setMaxPoolSize(100);
-        // 队列容量
-        executor.setQueueCapacity(1000);
-        // 线程名前缀
-        executor.setThreadNamePrefix("message-");
-        // 线程空闲时间
-        executor.setKeepAliveSeconds(60);
-        // 拒绝策略：由调用线程处理
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
-        // 等待所有任务结束后再关闭线程池
-        executor.setWaitForTasksToCompleteOnShutdown(true);
-        executor.initialize();
-        return executor;
+    /**
+     * 消息处理执行器（消息存储、状态更新、群消息转发、未读推送等）
+     * 按用户ID或群ID映射到固定通道：同一用户/群的任务按提交顺序执行，
+     * 避免消息保存与随后的已送达/已读状态更新乱序
+     * @param lanes 通道数量，0表示CPU核数的2倍（任务以数据库IO为主）
+     * @param queueCapacity 每个通道的队列容量
+     */
+    @Bean(name = "messageKeyedExecutor", destroyMethod = "shutdown")
+    public KeyedExecutor messageKeyedExecutor(@Value("${im.executor.message.lanes:0}") int lanes,
+                                              @Value("${im.executor.message.queue-capacity:2000}") int queueCapacity) {
+        if (lanes <= 0) {
+            lanes = Runtime.getRuntime().availableProcessors() * 2;
+        }
+        return new KeyedExecutor("message", lanes, queueCapacity);
     }
 
-    @Bean("dbTaskExecutor")
-    public Executor dbTaskExecutor() {
+    /**
+     * 阻塞消息处理器线程池
+     * 由MessageDispatcher使用，执行需要访问数据库的消息处理，避免占用Netty的EventLoop
+     */
+    @Bean("handlerTaskExecutor")
+    public Executor handlerTaskExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(10);
-        executor.setMaxPoolSize(50);
-        executor.setQueueCapacity(500);
-        executor.setThreadNamePrefix("db-");
+        executor.setCorePoolSize(32);
+        executor.setMaxPoolSize(64);
+        executor.setQueueCapacity(2000);
+        executor.setThreadNamePrefix("handler-");
         executor.setKeepAliveSeconds(60);
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        // 队列满时拒绝，不能由提交线程（可能是EventLoop）执行；
+        // MessageDispatcher 在EventLoop上稍后重新提交，并按连接排队数暂停读取形成背压
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
         executor.setWaitForTasksToCompleteOnShutdown(true);
         executor.initialize();
         return executor;
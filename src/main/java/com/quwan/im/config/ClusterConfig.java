@@ -0,0 +1,79 @@
+package com.quwan.im.config;
+
+import com.quwan.im.cluster.ClusterBus;
+import com.quwan.im.cluster.LocalClusterBus;
+import com.quwan.im.cluster.LocalSessionDirectory;
+import com.quwan.im.cluster.RedisClusterBus;
+import com.quwan.im.cluster.RedisSessionDirectory;
+import com.quwan.im.cluster.SessionDirectory;
+import com.quwan.im.mapper.MessageMapper;
+import com.quwan.im.persistence.LocalSequenceStore;
+import com.quwan.im.persistence.RedisSequenceStore;
+import com.quwan.im.persistence.SequenceStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+@Configuration
+public class ClusterConfig {
+
+    /**
+     * 会话目录
+     * @param type redis（多节点部署）| local（JVM内，单节点或本地测试）
+     * @param nodeTtlSeconds 节点存活键过期时间，需为 im.cluster.heartbeat-interval-ms 的数倍
+     * @param sessionTtlSeconds 用户登记过期时间，需为 im.cluster.session-refresh-interval-ms 的数倍
+     */
+    @Bean
+    public SessionDirectory sessionDirectory(@Value("${im.cluster.type:local}") String type,
+                                             @Value("${im.cluster.node-ttl-seconds:20}") long nodeTtlSeconds,
+                                             @Value("${im.cluster.session-ttl-seconds:86400}") long sessionTtlSeconds,
+                                             ObjectProvider<StringRedisTemplate> redisTemplate) {
+        switch (type.trim().toLowerCase()) {
+            case "redis":
+                return new RedisSessionDirectory(redisTemplate.getObject(), nodeTtlSeconds, sessionTtlSeconds);
+            case "local":
+                return new LocalSessionDirectory();
+            default:
+                throw new IllegalArgumentException("不支持的集群类型: " + type + "（可选 redis | local）");
+        }
+    }
+
+    /**
+     * 节点间消息总线
+     * @param type redis（Redis发布订阅）| local（JVM内，单节点或本地测试）
+     */
+    @Bean
+    public ClusterBus clusterBus(@Value("${im.cluster.type:local}") String type,
+                                 ObjectProvider<RedisConnectionFactory> connectionFactory,
+                                 ObjectProvider<StringRedisTemplate> redisTemplate) {
+        switch (type.trim().toLowerCase()) {
+            case "redis":
+                return new RedisClusterBus(connectionFactory.getObject(), redisTemplate.getObject());
+            case "local":
+                return new LocalClusterBus();
+            default:
+                throw new IllegalArgumentException("不支持的集群类型: " + type + "（可选 redis | local）");
+        }
+    }
+
+    /**
+     * 会话序号存储
+     * 集群模式且 type=redis 时所有节点共享Redis计数器，否则为JVM内计数器（多节点会分配出重复序号）
+     */
+    @Bean
+    public SequenceStore sequenceStore(@Value("${im.cluster.enabled:false}") boolean enabled,
+                                       @Value("${im.cluster.type:local}") String type,
+                                       @Value("${im.sequence.local.max-conversations:100000}") int maxConversations,
+                                       @Value("${im.sequence.local.min-idle-seconds:300}") long minIdleSeconds,
+                                       @Value("${im.sequence.redis.ttl-seconds:604800}") long ttlSeconds,
+                                       MessageMapper messageMapper,
+                                       ObjectProvider<StringRedisTemplate> redisTemplate) {
+        if (enabled && "redis".equals(type.trim().toLowerCase())) {
+            return new RedisSequenceStore(redisTemplate.getObject(), messageMapper, ttlSeconds);
+        }
+        return new LocalSequenceStore(messageMapper, maxConversations, minIdleSeconds);
+    }
+}
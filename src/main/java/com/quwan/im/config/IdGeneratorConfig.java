@@ -0,0 +1,19 @@
+package com.quwan.im.config;
+
+import com.quwan.im.util.SnowflakeIdGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IdGeneratorConfig {
+
+    /**
+     * 消息ID生成器
+     * @param workerId 工作节点ID（0 ~ 1023），多节点部署时每个节点必须配置不同的值
+     */
+    @Bean
+    public SnowflakeIdGenerator messageIdGenerator(@Value("${im.id.worker-id:0}") long workerId) {
+        return new SnowflakeIdGenerator(workerId);
+    }
+}
@@ -0,0 +1,45 @@
+package com.quwan.im.config;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class NettyAllocatorConfig {
+
+    /**
+     * 服务端Channel使用的ByteBuf分配器（编解码、群发预编码帧都从这里分配）
+     * @param type pooled | unpooled
+     * @param preferDirect 是否优先分配直接内存（写Socket时免去一次堆内到堆外的拷贝）
+     * @param directArenas 直接内存arena数量，0表示Netty默认（2倍CPU核数，受最大直接内存限制）
+     * @param heapArenas 堆内存arena数量，0表示Netty默认
+     * @param maxOrder chunk大小为 pageSize(8KB) << maxOrder，默认9即4MB
+     * @param cacheForAllThreads 非EventLoop线程（消息执行通道、处理器线程池）是否也使用线程本地缓存
+     */
+    @Bean
+    public ByteBufAllocator nettyAllocator(@Value("${im.server.allocator.type:pooled}") String type,
+                                           @Value("${im.server.allocator.prefer-direct:true}") boolean preferDirect,
+                                           @Value("${im.server.allocator.direct-arenas:0}") int directArenas,
+                                           @Value("${im.server.allocator.heap-arenas:0}") int heapArenas,
+                                           @Value("${im.server.allocator.max-order:9}") int maxOrder,
+                                           @Value("${im.server.allocator.cache-for-all-threads:false}") boolean cacheForAllThreads) {
+        switch (type.trim().toLowerCase()) {
+            case "pooled":
+                return new PooledByteBufAllocator(preferDirect,
+                        heapArenas > 0 ? heapArenas : PooledByteBufAllocator.defaultNumHeapArena(),
+                        directArenas > 0 ? directArenas : PooledByteBufAllocator.defaultNumDirectArena(),
+                        PooledByteBufAllocator.defaultPageSize(),
+                        maxOrder,
+                        PooledByteBufAllocator.defaultSmallCacheSize(),
+                        PooledByteBufAllocator.defaultNormalCacheSize(),
+                        cacheForAllThreads);
+            case "unpooled":
+                return new UnpooledByteBufAllocator(preferDirect);
+            default:
+                throw new IllegalArgumentException("不支持的分配器类型: " + type + "（可选 pooled | unpooled）");
+        }
+    }
+}
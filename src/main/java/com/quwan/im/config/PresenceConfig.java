@@ -0,0 +1,35 @@
+package com.quwan.im.config;
+
+import com.quwan.im.presence.LocalPresenceStore;
+import com.quwan.im.presence.PresenceStore;
+import com.quwan.im.presence.RedisPresenceStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class PresenceConfig {
+
+    /**
+     * 在线租约存储
+     * @param type redis（多节点共享）| local（JVM内，单节点或本地测试）
+     * @param leaseSeconds 租约时长，Redis键的过期时间按其两倍设置
+     */
+    @Bean
+    public PresenceStore presenceStore(@Value("${im.presence.type:local}") String type,
+                                       @Value("${im.presence.lease-seconds:60}") long leaseSeconds,
+                                       ObjectProvider<StringRedisTemplate> redisTemplate) {
+        switch (type.trim().toLowerCase()) {
+            case "redis":
+                return new RedisPresenceStore(redisTemplate.getObject(), TimeUnit.SECONDS.toMillis(leaseSeconds));
+            case "local":
+                return new LocalPresenceStore();
+            default:
+                throw new IllegalArgumentException("不支持的在线状态存储类型: " + type + "（可选 redis | local）");
+        }
+    }
+}
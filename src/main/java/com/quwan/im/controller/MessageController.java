@@ -0,0 +1,66 @@
+package com.quwan.im.controller;
+
+
+import com.quwan.im.entity.MessageEntity;
+import com.quwan.im.model.Result;
+import com.quwan.im.service.MessageService;
+import com.quwan.im.service.ReadCursorService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息相关接口（版本：v1）
+ * 提供：单聊/群聊历史消息查询（按会话序号游标分页）、会话未读数
+ * 路由前缀：/im/v1/messages
+ */
+@RestController
+@RequestMapping("/im/v1/messages")
+public class MessageController {
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    /**
+     * 查询与好友的历史消息
+     * @param userId 用户ID
+     * @param friendId 好友ID
+     * @param beforeSeq 游标（可选）：返回序号小于该值的消息，不传则从最新一条开始
+     * @param limit 返回数量，最多100
+     */
+    @GetMapping("/history")
+    public Result<List<MessageEntity>> history(@RequestParam String userId,
+                                               @RequestParam String friendId,
+                                               @RequestParam(required = false) Long beforeSeq,
+                                               @RequestParam(required = false, defaultValue = "20") int limit) {
+        return Result.success(messageService.getHistoryMessages(userId, friendId, beforeSeq, limit));
+    }
+
+    /**
+     * 查询用户各会话的未读数（会话最新序号 - 已读序号）
+     * @param userId 用户ID
+     * @return 会话ID -> 未读数，仅包含有未读的会话
+     */
+    @GetMapping("/unread")
+    public Result<Map<String, Long>> unreadCounts(@RequestParam String userId) {
+        return Result.success(readCursorService.getUnreadCounts(userId));
+    }
+
+    /**
+     * 查询群组历史消息
+     * @param groupId 群组ID
+     * @param beforeSeq 游标（可选）：返回序号小于该值的消息，不传则从最新一条开始
+     * @param limit 返回数量，最多100
+     */
+    @GetMapping("/groups/{groupId}/history")
+    public Result<List<MessageEntity>> groupHistory(@PathVariable String groupId,
+                                                    @RequestParam(required = false) Long beforeSeq,
+                                                    @RequestParam(required = false, defaultValue = "20") int limit) {
+        return Result.success(messageService.getGroupHistoryMessages(groupId, beforeSeq, limit));
+    }
+}
@@ -0,0 +1,197 @@
+package com.quwan.im.controller;
+
+
+import com.quwan.im.cache.FriendGraphCache;
+import com.quwan.im.cache.GroupMembershipCache;
+import com.quwan.im.cache.OnlineGroupIndex;
+import com.quwan.im.cache.UserCache;
+import com.quwan.im.cluster.ClusterRouter;
+import com.quwan.im.presence.PresenceService;
+import com.quwan.im.model.Result;
+import com.quwan.im.netty.IMChannelInitializer;
+import com.quwan.im.netty.IMMessageHandler;
+import com.quwan.im.netty.IMNettyServer;
+import com.quwan.im.netty.MessageDispatcher;
+import com.quwan.im.netty.SlowConsumerGuard;
+import com.quwan.im.persistence.MessageWriteBehind;
+import com.quwan.im.persistence.ReadCursorWriteBehind;
+import com.quwan.im.util.KeyedExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运行指标接口（版本：v1）
+ * 提供：TCP服务端运行时统计，用于容量评估与问题排查
+ * 路由前缀：/im/v1/metrics
+ */
+@RestController
+@RequestMapping("/im/v1/metrics")
+public class MetricsController {
+
+    @Autowired
+    private IMNettyServer imNettyServer;
+
+    @Autowired
+    private IMChannelInitializer imChannelInitializer;
+
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+
+    @Autowired
+    private GroupMembershipCache groupMembershipCache;
+
+    @Autowired
+    private FriendGraphCache friendGraphCache;
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private ClusterRouter clusterRouter;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired
+    private OnlineGroupIndex onlineGroupIndex;
+
+    @Autowired
+    private MessageDispatcher messageDispatcher;
+
+    @Autowired
+    private KeyedExecutor messageKeyedExecutor;
+
+    @Autowired
+    private MessageWriteBehind messageWriteBehind;
+
+    @Autowired
+    private ReadCursorWriteBehind readCursorWriteBehind;
+
+    /**
+     * ByteBuf分配器内存统计（各直接内存arena的活跃字节、平均每连接直接内存）
+     */
+    @GetMapping("/allocator")
+    public Result<Map<String, Object>> allocator() {
+        return Result.success(imNettyServer.getAllocatorStats(IMMessageHandler.getOnlineChannels().size()));
+    }
+
+    /**
+     * 各acceptor的接入统计
+     * acceptRate 为距上次调用以来的每秒接入数
+     */
+    @GetMapping("/acceptors")
+    public Result<List<Map<String, Object>>> acceptors() {
+        return Result.success(imNettyServer.getAcceptorStats());
+    }
+
+    /**
+     * 出站写出统计：socketFlushes 约等于写系统调用次数，framesPerFlush 为每次系统调用写出的平均帧数
+     */
+    @GetMapping("/flush")
+    public Result<Map<String, Object>> flush() {
+        return Result.success(imChannelInitializer.getFlushStats());
+    }
+
+    /**
+     * 连接出站缓冲统计：慢连接策略的丢弃/断开/补同步次数，以及出站缓冲积压最多的连接
+     * @param top 返回的连接数
+     */
+    @GetMapping("/connections")
+    public Result<Map<String, Object>> connections(@RequestParam(defaultValue = "20") int top) {
+        return Result.success(slowConsumerGuard.getStats(top));
+    }
+
+    /**
+     * 群成员缓存命中统计
+     */
+    @GetMapping("/cache/group-members")
+    public Result<Map<String, Object>> groupMemberCache() {
+        return Result.success(groupMembershipCache.getStats());
+    }
+
+    /**
+     * 好友关系缓存统计
+     */
+    @GetMapping("/cache/friends")
+    public Result<Map<String, Object>> friendCache() {
+        return Result.success(friendGraphCache.getStats());
+    }
+
+    /**
+     * 用户信息缓存统计
+     */
+    @GetMapping("/cache/users")
+    public Result<Map<String, Object>> userCache() {
+        return Result.success(userCache.getStats());
+    }
+
+    /**
+     * 集群路由统计
+     */
+    @GetMapping("/cluster")
+    public Result<Map<String, Object>> cluster() {
+        return Result.success(clusterRouter.getStats());
+    }
+
+    /**
+     * 在线状态统计（本节点持有的租约与写入次数）
+     */
+    @GetMapping("/presence")
+    public Result<Map<String, Object>> presence() {
+        return Result.success(presenceService.getStats());
+    }
+
+    /**
+     * 群在线成员索引统计
+     */
+    @GetMapping("/online-groups")
+    public Result<Map<String, Object>> onlineGroups() {
+        return Result.success(onlineGroupIndex.getStats());
+    }
+
+    /**
+     * 各消息类型的分发统计（处理方式、排队耗时与执行耗时）
+     */
+    @GetMapping("/dispatch")
+    public Result<List<Map<String, Object>>> dispatch() {
+        return Result.success(messageDispatcher.getStats());
+    }
+
+    /**
+     * 分发背压统计（读取暂停次数、线程池拒绝后的重新提交次数）
+     */
+    @GetMapping("/dispatch/backpressure")
+    public Result<Map<String, Object>> dispatchBackpressure() {
+        return Result.success(messageDispatcher.getBackpressureStats());
+    }
+
+    /**
+     * 消息处理执行器各通道的排队与完成统计
+     */
+    @GetMapping("/executor/message")
+    public Result<Map<String, Object>> messageExecutor() {
+        return Result.success(messageKeyedExecutor.getStats());
+    }
+
+    /**
+     * 消息异步批量写入统计（队列长度、写入数、背压拒绝数）
+     */
+    @GetMapping("/message-writer")
+    public Result<Map<String, Object>> messageWriter() {
+        return Result.success(messageWriteBehind.getStats());
+    }
+
+    /**
+     * 已读游标异步批量写入统计（待写游标数、合并前的推进次数、UPSERT语句数）
+     */
+    @GetMapping("/read-cursor-writer")
+    public Result<Map<String, Object>> readCursorWriter() {
+        return Result.success(readCursorWriteBehind.getStats());
+    }
+}
@@ -3,6 +3,8 @@ package com.quwan.im.entity;
 import com.baomidou.mybatisplus.annotation.IdType;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 
 import java.time.LocalDateTime;
@@ -11,12 +13,15 @@ import java.time.LocalDateTime;
 @TableName("im_message")
 public class MessageEntity {
     @TableId(type = IdType.INPUT)
-    private String messageId;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long messageId;        // 消息ID（SnowflakeIdGenerator生成，时间有序），JSON中按字符串输出，避免客户端丢失精度
     private String fromUser;
     private String toUser;
     private String content;
     private String type;
     private String groupId;
+    private String conversationId; // 会话ID：单聊为双方用户ID，群聊为群ID（见ConversationSequencer）
+    private Long seq;              // 会话内序号，单调递增，用于游标分页
     private String status; // SENT, DELIVERED, READ
     private LocalDateTime timestamp;
     private LocalDateTime createTime;
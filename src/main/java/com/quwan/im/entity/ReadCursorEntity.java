@@ -0,0 +1,19 @@
+package com.quwan.im.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@TableName("im_read_cursor")
+public class ReadCursorEntity {
+    @TableId(type = IdType.AUTO)
+    private Long id;
+    private String userId;
+    private String conversationId; // 会话ID（见ConversationSequencer）
+    private Long lastReadSeq;      // 已读到的会话序号
+    private LocalDateTime updateTime;
+}
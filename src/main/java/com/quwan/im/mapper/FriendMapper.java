@@ -10,6 +10,7 @@ import java.util.List;
 @Mapper
 public interface FriendMapper extends BaseMapper<FriendEntity> {
     List<FriendEntity> selectFriendsByUserId(@Param("userId") String userId);
+    List<String> selectFriendIds(@Param("userId") String userId);
     List<FriendEntity> selectPendingRequests(@Param("userId") String userId);
     boolean isFriend(@Param("userId") String userId, @Param("friendId") String friendId);
 }
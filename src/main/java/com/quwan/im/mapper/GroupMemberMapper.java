@@ -10,6 +10,8 @@ import java.util.List;
 @Mapper
 public interface GroupMemberMapper extends BaseMapper<GroupMemberEntity> {
     List<GroupMemberEntity> selectMembersByGroupId(@Param("groupId") String groupId);
+    List<String> selectMemberIdsByGroupId(@Param("groupId") String groupId);
     List<GroupMemberEntity> selectGroupsByUserId(@Param("userId") String userId);
+    List<String> selectGroupIdsByUserId(@Param("userId") String userId);
    boolean isGroupMember(@Param("groupId")String groupId,@Param("userId")String userId);
 }
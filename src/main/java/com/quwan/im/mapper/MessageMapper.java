@@ -10,7 +10,21 @@ import java.util.List;
 @Mapper
 public interface MessageMapper extends BaseMapper<MessageEntity> {
     List<MessageEntity> selectUnreadMessages(@Param("userId") String userId);
-    int updateStatus(@Param("messageId") String messageId, @Param("status") String status);
+    int updateStatus(@Param("messageId") Long messageId, @Param("status") String status);
 
-    int batchUpdateStatus(@Param("messageIds") List<String> messageIds,  @Param("status")String status);
+    int batchUpdateStatus(@Param("messageIds") List<Long> messageIds,  @Param("status")String status);
+
+    int batchInsert(@Param("messages") List<MessageEntity> messages);
+
+    Long selectMaxSeq(@Param("conversationId") String conversationId);
+
+    List<MessageEntity> selectMaxSeqs(@Param("conversationIds") List<String> conversationIds);
+
+    List<MessageEntity> selectHistoryBefore(@Param("conversationId") String conversationId,
+                                            @Param("beforeSeq") Long beforeSeq,
+                                            @Param("limit") int limit);
+
+    List<MessageEntity> selectAfter(@Param("conversationId") String conversationId,
+                                    @Param("afterSeq") long afterSeq,
+                                    @Param("limit") int limit);
 }
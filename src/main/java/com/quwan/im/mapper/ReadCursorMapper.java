@@ -0,0 +1,16 @@
+package com.quwan.im.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.quwan.im.entity.ReadCursorEntity;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface ReadCursorMapper extends BaseMapper<ReadCursorEntity> {
+    int upsertCursor(@Param("userId") String userId, @Param("conversationId") String conversationId, @Param("seq") long seq);
+    int batchUpsertCursors(@Param("cursors") List<ReadCursorEntity> cursors);
+    Long selectReadSeq(@Param("userId") String userId, @Param("conversationId") String conversationId);
+    List<ReadCursorEntity> selectByUserId(@Param("userId") String userId);
+}
@@ -1,5 +1,7 @@
 package com.quwan.im.model;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 import java.io.Serializable;
 
@@ -7,7 +9,10 @@ import java.io.Serializable;
 public class IMMessage implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private String id;
+    // 消息ID（SnowflakeIdGenerator生成，时间有序），0表示未分配；
+    // 超过2^53，JSON中按字符串输出，避免JavaScript等按double解析的客户端丢失精度（读取时数字与字符串均可）
+    @JsonSerialize(using = ToStringSerializer.class)
+    private long id;
     private String from;
     private String to;
     private String content;
@@ -15,4 +20,5 @@ public class IMMessage implements Serializable {
     private long timestamp;
     private String groupId; // 群组ID，群消息时使用
     private String extra;   // 额外信息
+    private long seq;       // 会话内序号（服务端分配，单聊按双方、群聊按群递增），0表示未分配
 }
@@ -10,6 +10,8 @@ public enum MessageType {
     PONG((byte) 5, "服务端心跳响应"),
     SYSTEM_NOTIFY((byte) 6, "系统通知消息"),
     ERROR_RESPONSE((byte) 7, "错误响应消息"),
+    SYNC((byte) 8, "客户端增量同步请求"),
+    SYNC_RESPONSE((byte) 9, "服务端增量同步响应（分页）"),
 
     // 单聊消息（10-19）
     SINGLE_CHAT((byte) 10, "单聊文本消息"),
@@ -43,11 +45,29 @@ public enum MessageType {
     GROUP_MEMBER_QUERY((byte) 46, "查询群成员列表"),
     GROUP_MEMBER_RESPONSE((byte) 47, "群成员列表响应"),
     GROUP_LIST_QUERY((byte) 48, "查询加入的群组列表"),
-    GROUP_LIST_RESPONSE((byte) 49, "群组列表响应");  // 补充缺失的code
+    GROUP_LIST_RESPONSE((byte) 49, "群组列表响应"),  // 补充缺失的code
+
+    // 在线状态（50-59）
+    PRESENCE_QUERY((byte) 50, "批量查询在线状态"),
+    PRESENCE_RESPONSE((byte) 51, "在线状态查询结果"),
+    PRESENCE_WATCH((byte) 52, "订阅在线状态变化"),
+    PRESENCE_NOTIFY((byte) 53, "在线状态变化通知");
 
     private final byte code;       // 消息类型编码（byte类型，范围-128~127）
     private final String desc;     // 消息类型描述
 
+    // 编码（按无符号 0~255）-> 消息类型，未定义的编码为null；避免每次查找调用values()复制数组
+    private static final MessageType[] BY_CODE = new MessageType[256];
+
+    static {
+        for (MessageType type : values()) {
+            if (BY_CODE[type.code & 0xFF] != null) {
+                throw new IllegalStateException("消息类型编码重复: " + type.code);
+            }
+            BY_CODE[type.code & 0xFF] = type;
+        }
+    }
+
     MessageType(byte code, String desc) {
         this.code = code;
         this.desc = desc;
@@ -75,11 +95,19 @@ public enum MessageType {
      * @return 对应的MessageType，若编码无效则抛出IllegalArgumentException
      */
     public static MessageType fromCode(byte code) {
-        for (MessageType type : values()) {
-            if (type.code == code) {
-                return type;
-            }
+        MessageType type = BY_CODE[code & 0xFF];
+        if (type == null) {
+            throw new IllegalArgumentException("无效的消息类型编码: " + code);
         }
-        throw new IllegalArgumentException("无效的消息类型编码: " + code);
+        return type;
+    }
+
+    /**
+     * 根据编码获取消息类型，未定义的编码（如扩展消息类型）返回null
+     * @param code 消息编码
+     * @return 对应的MessageType或null
+     */
+    public static MessageType findByCode(byte code) {
+        return BY_CODE[code & 0xFF];
     }
 }
@@ -1,5 +1,9 @@
 package com.quwan.im.model;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
 import lombok.Data;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
@@ -7,16 +11,38 @@ import java.nio.charset.StandardCharsets;
 /**
  * 自定义协议消息
  * 格式：魔数(4字节) + 版本(1字节) + 消息类型(1字节) + 数据长度(4字节) + 数据内容
+ * 版本2起数据内容首字节为负载格式标识（FORMAT_TEXT / FORMAT_IM_MESSAGE），解码器无需再探测格式
+ * 版本3起IMMessage的消息ID为定长8字节整数
+ *
+ * 数据内容可以是String，也可以是原始帧负载的ByteBuf切片（引用计数）。
+ * 携带ByteBuf时本对象的引用计数委托给该ByteBuf：解码后由SimpleChannelInboundHandler自动释放，
+ * 写出后由编码器释放；需要跨线程使用或转发时先调用 retain()。
  */
 @Data
-public class ProtocolMessage implements Serializable {
+public class ProtocolMessage implements Serializable, ReferenceCounted {
     private static final long serialVersionUID = 1L;
+    private static final ObjectMapper objectMapper = new ObjectMapper();
 
     // 魔数：用于验证消息合法性
     public static final int MAGIC_NUMBER = 0x12345678;
 
+    // 版本1：无格式标识，负载格式由解码器探测（兼容旧客户端）
+    public static final byte VERSION_LEGACY = 1;
+
+    // 版本2：负载首字节为格式标识
+    public static final byte VERSION_FORMAT_FLAG = 2;
+
+    // 版本3：IMMessage的消息ID为8字节整数（版本1、2为长度+十进制字符串）
+    public static final byte VERSION_LONG_ID = 3;
+
+    // 负载格式：UTF-8文本（JSON或普通字符串）
+    public static final byte FORMAT_TEXT = 0;
+
+    // 负载格式：IMMessage二进制
+    public static final byte FORMAT_IM_MESSAGE = 1;
+
     // 协议版本
-    private byte version = 1;
+    private byte version = VERSION_LONG_ID;
 
     // 消息类型
     private byte type;
@@ -27,6 +53,12 @@ public class ProtocolMessage implements Serializable {
     // 数据长度（用于解码）
     private int dataLength;
 
+    // 原始负载（帧切片，不参与序列化），存在时data按需解码
+    private transient ByteBuf payload;
+
+    // 二进制格式负载解码出的消息对象，存在时data按需序列化为JSON
+    private IMMessage imMessage;
+
     public ProtocolMessage() {}
 
     public ProtocolMessage(byte type, String data) {
@@ -35,4 +67,93 @@ public class ProtocolMessage implements Serializable {
         this.dataLength = data != null ? data.getBytes(StandardCharsets.UTF_8).length : 0;
     }
 
+    /**
+     * 以ByteBuf负载构造消息，所有权转移给本对象
+     */
+    public ProtocolMessage(byte type, ByteBuf payload) {
+        this.type = type;
+        this.payload = payload;
+        this.dataLength = payload != null ? payload.readableBytes() : 0;
+    }
+
+    /**
+     * 以IMMessage构造消息，由编码器按二进制格式写出
+     */
+    public ProtocolMessage(byte type, IMMessage imMessage) {
+        this.type = type;
+        this.imMessage = imMessage;
+    }
+
+    /**
+     * 获取数据内容
+     * 仅携带ByteBuf负载或IMMessage时，才在首次调用时转换为String（兼容按JSON读取的调用方）
+     */
+    public String getData() {
+        if (data == null && payload != null) {
+            data = payload.toString(payload.readerIndex(), payload.readableBytes(), StandardCharsets.UTF_8);
+        } else if (data == null && imMessage != null) {
+            try {
+                data = objectMapper.writeValueAsString(imMessage);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("IMMessage序列化失败", e);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * 是否携带原始负载（尚未或无需转换为String）
+     */
+    public boolean hasPayload() {
+        return payload != null;
+    }
+
+    // ------------------------------ 引用计数（委托给payload） ------------------------------
+
+    @Override
+    public int refCnt() {
+        return payload != null ? payload.refCnt() : 1;
+    }
+
+    @Override
+    public ProtocolMessage retain() {
+        if (payload != null) {
+            payload.retain();
+        }
+        return this;
+    }
+
+    @Override
+    public ProtocolMessage retain(int increment) {
+        if (payload != null) {
+            payload.retain(increment);
+        }
+        return this;
+    }
+
+    @Override
+    public ProtocolMessage touch() {
+        if (payload != null) {
+            payload.touch();
+        }
+        return this;
+    }
+
+    @Override
+    public ProtocolMessage touch(Object hint) {
+        if (payload != null) {
+            payload.touch(hint);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean release() {
+        return payload != null && payload.release();
+    }
+
+    @Override
+    public boolean release(int decrement) {
+        return payload != null && payload.release(decrement);
+    }
 }
@@ -0,0 +1,56 @@
+package com.quwan.im.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 接入统计处理器
+ * 挂在服务端Channel上（每个acceptor一个实例），统计该acceptor接收的连接数与接入速率
+ * 用于确认SO_REUSEPORT下内核是否将连接均匀分摊到各acceptor
+ */
+public class AcceptorMetricsHandler extends ChannelInboundHandlerAdapter {
+
+    private final int index;
+
+    private final LongAdder accepted = new LongAdder();
+
+    // 上一次采样时的累计值与时间，用于计算区间速率
+    private long lastCount;
+    private long lastSampleNanos = System.nanoTime();
+
+    public AcceptorMetricsHandler(int index) {
+        this.index = index;
+    }
+
+    /**
+     * 服务端Channel读到的每个对象都是一个新接入的子Channel
+     */
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        accepted.increment();
+        ctx.fireChannelRead(msg);
+    }
+
+    /**
+     * 采样当前统计
+     * acceptRate 为距上次采样以来的每秒接入数
+     */
+    public synchronized Map<String, Object> snapshot() {
+        long now = System.nanoTime();
+        long total = accepted.sum();
+        double seconds = (now - lastSampleNanos) / 1_000_000_000.0;
+        double rate = seconds > 0 ? (total - lastCount) / seconds : 0;
+        lastCount = total;
+        lastSampleNanos = now;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("acceptor", index);
+        stats.put("accepted", total);
+        stats.put("acceptRate", Math.round(rate * 100) / 100.0);
+        return stats;
+    }
+}
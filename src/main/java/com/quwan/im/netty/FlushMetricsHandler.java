@@ -0,0 +1,61 @@
+package com.quwan.im.netty;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 出站写出统计处理器
+ * 所有连接共享一个实例，统计经过该位置的write与flush次数。
+ * 放在FlushConsolidationHandler两侧：业务侧统计请求的flush次数，传输侧统计真正到达Socket的flush次数（约等于写系统调用次数）
+ */
+@ChannelHandler.Sharable
+public class FlushMetricsHandler extends ChannelOutboundHandlerAdapter {
+
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        writes.increment();
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        flushes.increment();
+        ctx.flush();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * 合并前后的写出统计
+     * @param requested 业务侧（合并前）的统计
+     * @param socket 传输侧（合并后）的统计
+     */
+    public static Map<String, Object> snapshot(FlushMetricsHandler requested, FlushMetricsHandler socket) {
+        long frames = socket.getWrites();
+        long requestedFlushes = requested.getFlushes();
+        long socketFlushes = socket.getFlushes();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("frames", frames);
+        stats.put("requestedFlushes", requestedFlushes);
+        stats.put("socketFlushes", socketFlushes);
+        stats.put("consolidatedFlushes", Math.max(0, requestedFlushes - socketFlushes));
+        stats.put("framesPerFlush", socketFlushes > 0 ? Math.round(frames * 100.0 / socketFlushes) / 100.0 : 0);
+        return stats;
+    }
+}
@@ -6,10 +6,13 @@ import com.quwan.im.protocol.BinaryMessageEncoder;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Component
@@ -25,6 +28,23 @@ public class IMChannelInitializer extends ChannelInitializer<SocketChannel> {
     @Autowired
     private HeartbeatHandler   heartbeatHandler;
 
+    // 合并flush：开启后同一连接上连续的多次flush合并为一次写系统调用
+    @Value("${im.server.flush.consolidation.enabled:true}")
+    private boolean flushConsolidationEnabled;
+
+    // 连续多少次flush请求后强制真正flush一次，避免长时间读取期间数据迟迟不发出
+    // 按flush次数计，不是待写帧数：只write不flush的帧不计入，一次flush前写入多少帧都只算一次
+    @Value("${im.server.flush.consolidation.explicit-after-flushes:256}")
+    private int explicitFlushAfterFlushes;
+
+    // 非读取期间（业务线程写出）的flush也合并：提交一个flush任务到EventLoop，任务执行前的flush都并入其中
+    @Value("${im.server.flush.consolidation.when-no-read:true}")
+    private boolean consolidateWhenNoReadInProgress;
+
+    // flush合并前后的写出统计，所有连接共享
+    private final FlushMetricsHandler requestedFlushMetrics = new FlushMetricsHandler();
+    private final FlushMetricsHandler socketFlushMetrics = new FlushMetricsHandler();
+
     /**
      * 初始化通道，配置处理器流水线
      */
@@ -33,6 +53,9 @@ public class IMChannelInitializer extends ChannelInitializer<SocketChannel> {
 
         ChannelPipeline pipeline = ch.pipeline();
 
+        // 0. 出站flush合并（靠近传输层，业务处理器与编码器的flush都经过它），两侧各挂一个统计处理器
+        addFlushHandlers(pipeline);
+
         // 1. 自定义二进制消息编解码器（同时负责帧粘/拆包与消息体解析）
         pipeline.addLast("messageDecoder", new BinaryMessageDecoder());
         pipeline.addLast("messageEncoder", new BinaryMessageEncoder());
@@ -53,6 +76,26 @@ public class IMChannelInitializer extends ChannelInitializer<SocketChannel> {
         pipeline.addLast("exceptionHandler", new ChannelExceptionHandler(exceptionHandler));
     }
 
+    /**
+     * 添加flush合并处理器及其两侧的统计处理器
+     */
+    void addFlushHandlers(ChannelPipeline pipeline) {
+        pipeline.addLast("socketFlushMetrics", socketFlushMetrics);
+        if (flushConsolidationEnabled) {
+            pipeline.addLast("flushConsolidation", new FlushConsolidationHandler(explicitFlushAfterFlushes, consolidateWhenNoReadInProgress));
+        }
+        pipeline.addLast("requestedFlushMetrics", requestedFlushMetrics);
+    }
+
+    /**
+     * 出站写出统计：帧数、业务请求的flush次数与真正到达Socket的flush次数
+     */
+    public Map<String, Object> getFlushStats() {
+        Map<String, Object> stats = FlushMetricsHandler.snapshot(requestedFlushMetrics, socketFlushMetrics);
+        stats.put("consolidation", flushConsolidationEnabled);
+        return stats;
+    }
+
     /**
      * 通道异常处理器（内部类）
      * 用于捕获通道中的异常并委托给全局异常处理器
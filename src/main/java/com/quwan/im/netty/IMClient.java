@@ -6,6 +6,7 @@ import com.quwan.im.protocol.BinaryMessageEncoder;
 import com.quwan.im.model.IMMessage;
 import com.quwan.im.model.MessageType;
 import com.quwan.im.model.ProtocolMessage;
+import com.quwan.im.persistence.ConversationSequencer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
@@ -15,6 +16,7 @@ import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -22,9 +24,10 @@ import org.springframework.util.DigestUtils;
 
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -54,6 +57,9 @@ public class IMClient {
     private boolean isShutdown = false;
     private String userId;
 
+    // 各会话已收到的最大序号，登录后随SYNC请求发送，服务端只补发之后的消息
+    private final Map<String, Long> receivedSeqs = new ConcurrentHashMap<>();
+
     // 重连配置
     private int reconnectDelay = 1; // 初始重连延迟（秒）
     private static final int MAX_RECONNECT_DELAY = 60; // 最大重连延迟
@@ -238,8 +244,25 @@ public class IMClient {
     }
 
     /**
-     * 发送单聊消息
+     * 发送增量同步请求（登录成功后），携带各会话已收到的最大序号
+     */
+    private void sendSyncRequest(ChannelHandlerContext ctx) throws Exception {
+        Map<String, Object> syncData = new HashMap<>();
+        syncData.put("seqs", new HashMap<>(receivedSeqs));
+        ctx.writeAndFlush(new ProtocolMessage(MessageType.SYNC.getCode(), objectMapper.writeValueAsString(syncData)));
+    }
+
+    /**
+     * 记录会话已收到的最大序号
      */
+    private void recordReceived(IMMessage message) {
+        if (message.getSeq() > 0) {
+            receivedSeqs.merge(ConversationSequencer.conversationIdOf(message), message.getSeq(), Math::max);
+        }
+    }
+
+    /**
+     * 发送单聊消息
     public void sendChatMessage(String toUserId, String content) {
         if (!isLoginSuccess) {
             logger.error("发送失败：未登录");
@@ -248,7 +271,6 @@ public class IMClient {
 
         try {
             IMMessage message = new IMMessage();
-            message.setId(UUID.randomUUID().toString());
             message.setFrom(userId);
             message.setTo(toUserId);
             message.setContent(content);
@@ -256,7 +278,7 @@ public class IMClient {
 
             ProtocolMessage protocolMsg = new ProtocolMessage(
                     MessageType.SINGLE_CHAT.getCode(),
-                    objectMapper.writeValueAsString(message)
+                    message
             );
             logger.info("send ProtocolMessage :{}",protocolMsg);
 
@@ -281,7 +303,6 @@ public class IMClient {
 
         try {
             IMMessage message = new IMMessage();
-            message.setId(UUID.randomUUID().toString());
             message.setFrom(userId);
             message.setGroupId(groupId);
             message.setContent(content);
@@ -289,7 +310,7 @@ public class IMClient {
 
             ProtocolMessage protocolMsg = new ProtocolMessage(
                     MessageType.GROUP_CHAT.getCode(),
-                    objectMapper.writeValueAsString(message)
+                    message
             );
 
             channel.writeAndFlush(protocolMsg).addListener((ChannelFutureListener) f -> {
@@ -369,6 +390,9 @@ public class IMClient {
                     handleProtocolMessage(ctx, protocolMsg);
                 } catch (Exception e) {
                     logger.error("处理消息异常", e);
+                } finally {
+                    // 释放解码器挂载的负载切片
+                    ReferenceCountUtil.release(protocolMsg);
                 }
             }
         }
@@ -397,6 +421,9 @@ public class IMClient {
                 case GROUP_CHAT:
                     handleGroupChat(data);
                     break;
+                case SYNC_RESPONSE:
+                    handleSyncResponse(ctx, data);
+                    break;
                 case PONG:
                     logger.debug("收到服务器心跳响应");
                     break;
@@ -430,6 +457,8 @@ public class IMClient {
                 isLoginSuccess = true;
                 reconnectDelay = 1; // 重置重连延迟
                 logger.info("登录成功，用户ID：{}", userId);
+                // 离线消息不随登录推送，由客户端发送SYNC分页拉取
+                sendSyncRequest(ctx);
             } else {
                 String errorMsg = response.get("content");
                 logger.error("登录失败：{}", errorMsg);
@@ -440,11 +469,45 @@ public class IMClient {
             }
         }
 
+        /**
+         * 处理增量同步响应
+         * 普通页：{"conversationId", "truncated", "hasMore", "messages": [...]}，单聊消息逐条回复ACK；
+         * 结束页：{"done": true, "messages": 本次同步的总条数}
+         */
+        private void handleSyncResponse(ChannelHandlerContext ctx, String data) throws Exception {
+            Map<String, Object> page = objectMapper.readValue(data, Map.class);
+            if (Boolean.TRUE.equals(page.get("done"))) {
+                logger.info("离线消息同步完成，共{}条", page.get("messages"));
+                return;
+            }
+            if (Boolean.TRUE.equals(page.get("truncated"))) {
+                logger.info("会话[{}]离线消息过多，只同步最近的部分，更早的消息请按历史接口拉取", page.get("conversationId"));
+            }
+            List<Object> messages = (List<Object>) page.get("messages");
+            for (Object item : messages) {
+                IMMessage message = objectMapper.convertValue(item, IMMessage.class);
+                recordReceived(message);
+                if (message.getGroupId() != null && !message.getGroupId().isEmpty()) {
+                    logger.info("\n[离线] 群组[{}]中[{}]的消息：{}", message.getGroupId(), message.getFrom(), message.getContent());
+                } else {
+                    logger.info("\n[离线] 来自[{}]的消息：{}", message.getFrom(), message.getContent());
+                    // 单聊消息回复送达确认（消息ID按字符串发送，避免超过2^53的ID丢失精度）
+                    if (userId.equals(message.getTo())) {
+                        Map<String, Object> ack = new HashMap<>();
+                        ack.put("messageId", String.valueOf(message.getId()));
+                        ctx.write(new ProtocolMessage(MessageType.SINGLE_CHAT_ACK.getCode(), objectMapper.writeValueAsString(ack)));
+                    }
+                }
+            }
+            ctx.flush();
+        }
+
         /**
          * 处理单聊消息
          */
         private void handleSingleChat(String data) throws Exception {
             IMMessage message = objectMapper.readValue(data, IMMessage.class);
+            recordReceived(message);
             logger.info("\n收到来自[{}]的消息：{}", message.getFrom(), message.getContent());
         }
 
@@ -461,6 +524,7 @@ public class IMClient {
          */
         private void handleGroupChat(String data) throws Exception {
             IMMessage message = objectMapper.readValue(data, IMMessage.class);
+            recordReceived(message);
             logger.info("\n收到群组[{}]中[{}]的消息：{}",
                     message.getGroupId(), message.getFrom(), message.getContent());
         }
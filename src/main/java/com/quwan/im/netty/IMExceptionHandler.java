@@ -1,13 +1,14 @@
 package com.quwan.im.netty;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.quwan.im.exception.IMBusinessException;
 import com.quwan.im.exception.IMNettyException;
 import com.quwan.im.model.*;
+import com.quwan.im.util.SnowflakeIdGenerator;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -27,6 +28,9 @@ import java.util.concurrent.TimeoutException;
 public class IMExceptionHandler {
     private static final Logger logger = LoggerFactory.getLogger(IMExceptionHandler.class);
 
+    @Autowired
+    private SnowflakeIdGenerator messageIdGenerator;
+
     /**
      * 处理自定义业务异常
      */
@@ -122,13 +126,13 @@ public class IMExceptionHandler {
                         : "服务器处理消息异常";
 
                 IMMessage errorMessage = new IMMessage();
-                errorMessage.setId(java.util.UUID.randomUUID().toString());
+                errorMessage.setId(messageIdGenerator.nextId());
                 errorMessage.setType(MessageType.ERROR_RESPONSE.getCode());
                 errorMessage.setFrom("system");
                 errorMessage.setContent(errorMsg);
                 ProtocolMessage protocolMessage = new ProtocolMessage(
                         MessageType.ERROR_RESPONSE.getCode(),
-                        new ObjectMapper().writeValueAsString(errorMessage)
+                        errorMessage
                 );
                 ctx.writeAndFlush(protocolMessage);
             }
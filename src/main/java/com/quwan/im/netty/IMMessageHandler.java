@@ -1,6 +1,9 @@
 package com.quwan.im.netty;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quwan.im.cache.OnlineGroupIndex;
+import com.quwan.im.cluster.ClusterEnvelope;
+import com.quwan.im.cluster.ClusterRouter;
 import com.quwan.im.entity.GroupEntity;
 import com.quwan.im.entity.GroupMemberEntity;
 import com.quwan.im.entity.MessageEntity;
@@ -8,10 +11,19 @@ import com.quwan.im.entity.UserEntity;
 import com.quwan.im.model.IMMessage;
 import com.quwan.im.model.MessageType;
 import com.quwan.im.model.ProtocolMessage;
+import com.quwan.im.persistence.ConversationSequencer;
+import com.quwan.im.presence.Presence;
+import com.quwan.im.presence.PresenceService;
+import com.quwan.im.protocol.BinaryMessageEncoder;
 import com.quwan.im.service.FriendService;
 import com.quwan.im.service.GroupService;
 import com.quwan.im.service.MessageService;
+import com.quwan.im.service.ReadCursorService;
 import com.quwan.im.service.UserService;
+import com.quwan.im.util.KeyedExecutor;
+import com.quwan.im.util.SnowflakeIdGenerator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -20,16 +32,22 @@ import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 /**
@@ -49,6 +67,13 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     // 存储用户ID的属性键
     public static final AttributeKey<String> USER_ID_ATTRIBUTE = AttributeKey.newInstance("userId");
 
+    // 存储登录设备ID的属性键（登录请求未携带device时为DEFAULT_DEVICE）
+    public static final AttributeKey<String> DEVICE_ID_ATTRIBUTE = AttributeKey.newInstance("deviceId");
+    private static final String DEFAULT_DEVICE = "default";
+
+    // 最近一次按入站消息检查在线租约的时间（只在Channel所属EventLoop上访问）
+    private static final AttributeKey<Long> PRESENCE_CHECKED_ATTRIBUTE = AttributeKey.newInstance("presenceChecked");
+
     @Autowired
     private UserService userService;
 
@@ -61,108 +86,139 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     @Autowired
     private GroupService groupService;
 
-//    @Autowired
-//    private RedisTemplate<String, Object> redisTemplate;
+    @Autowired
+    private OnlineGroupIndex onlineGroupIndex;
+
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private OfflineSyncService offlineSyncService;
+
+    @Autowired
+    private SnowflakeIdGenerator messageIdGenerator;
+
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+
+    // 同一用户/群的任务固定在同一通道按序执行（单聊按接收方、群聊按群）
+    @Autowired
+    private KeyedExecutor messageKeyedExecutor;
+
+    @Autowired
+    private MessageDispatcher messageDispatcher;
+
+    @Autowired
+    private MessageHandlerRegistry messageHandlerRegistry;
 
     @Autowired
-    private Executor messageTaskExecutor;
+    private ClusterRouter clusterRouter;
 
     @Autowired
-    private Executor dbTaskExecutor;
+    private PresenceService presenceService;
+
+    // 入站消息检查在线租约的最小间隔
+    @Value("${im.presence.renew-check-ms:5000}")
+    private long presenceRenewCheckMillis;
+
+    // 好友列表每页最大数量
+    @Value("${im.friend.list.page-size:500}")
+    private int friendListPageSize;
+
+    /**
+     * 注册内置消息类型的处理器
+     * blocking 为 true 的类型处理过程中访问数据库，由MessageDispatcher在线程池中执行
+     */
+    @PostConstruct
+    public void registerHandlers() {
+
+        messageHandlerRegistry.register(MessageType.LOGIN, true, (ctx, userId, msg) -> handleLogin(ctx, msg.getData()));
+        messageHandlerRegistry.register(MessageType.LOGOUT, false, (ctx, userId, msg) -> handleLogout(ctx, userId));
+        messageHandlerRegistry.register(MessageType.PING, false, (ctx, userId, msg) -> handlePing(ctx, userId));
+        messageHandlerRegistry.register(MessageType.SYNC, true, (ctx, userId, msg) -> handleSync(ctx, userId, msg.getData()));
+
+        // 单聊消息处理
+        messageHandlerRegistry.register(MessageType.SINGLE_CHAT, true, (ctx, userId, msg) -> handleSingleChat(userId, msg));
+        messageHandlerRegistry.register(MessageType.SINGLE_CHAT_ACK, false, (ctx, userId, msg) -> handleSingleChatAck(userId, msg.getData()));
+        messageHandlerRegistry.register(MessageType.SINGLE_CHAT_READ, false, (ctx, userId, msg) -> handleSingleChatRead(userId, msg.getData()));
+        messageHandlerRegistry.register(MessageType.SINGLE_CHAT_RECALL, true, (ctx, userId, msg) -> handleSingleChatRecall(userId, msg.getData()));
+
+        // 群聊消息处理
+        messageHandlerRegistry.register(MessageType.GROUP_CHAT, true, (ctx, userId, msg) -> handleGroupChat(userId, msg));
+        messageHandlerRegistry.register(MessageType.GROUP_CHAT_ACK, false, (ctx, userId, msg) -> handleGroupChatAck(userId, msg.getData()));
+        messageHandlerRegistry.register(MessageType.GROUP_CHAT_READ, false, (ctx, userId, msg) -> handleGroupChatRead(userId, msg.getData()));
+        messageHandlerRegistry.register(MessageType.GROUP_CHAT_RECALL, true, (ctx, userId, msg) -> handleGroupChatRecall(userId, msg.getData()));
+
+        // 好友关系处理
+        messageHandlerRegistry.register(MessageType.FRIEND_REQUEST_SEND, true, (ctx, userId, msg) -> handleFriendRequestSend(userId, msg.getData()));
+        messageHandlerRegistry.register(MessageType.FRIEND_REQUEST_RESPONSE, true, (ctx, userId, msg) -> handleFriendRequestResponse(userId, msg.getData()));
+        messageHandlerRegistry.register(MessageType.FRIEND_LIST_QUERY, true, (ctx, userId, msg) -> handleFriendListQuery(userId, msg.getData(), ctx));
+        messageHandlerRegistry.register(MessageType.FRIEND_DELETE, true, (ctx, userId, msg) -> handleFriendDelete(userId, msg.getData()));
+
+        // 群组管理处理
+        messageHandlerRegistry.register(MessageType.GROUP_CREATE, true, (ctx, userId, msg) -> handleGroupCreate(userId, msg.getData(), ctx));
+        messageHandlerRegistry.register(MessageType.GROUP_JOIN, true, (ctx, userId, msg) -> handleGroupJoin(userId, msg.getData(), ctx));
+        messageHandlerRegistry.register(MessageType.GROUP_QUIT, true, (ctx, userId, msg) -> handleGroupQuit(userId, msg.getData(), ctx));
+        messageHandlerRegistry.register(MessageType.GROUP_MEMBER_QUERY, true, (ctx, userId, msg) -> handleGroupMemberQuery(msg.getData(), ctx));
+        messageHandlerRegistry.register(MessageType.GROUP_LIST_QUERY, true, (ctx, userId, msg) -> handleGroupListQuery(userId, ctx));
+
+        // 在线状态
+        messageHandlerRegistry.register(MessageType.PRESENCE_QUERY, true, (ctx, userId, msg) -> handlePresenceQuery(userId, msg.getData(), ctx));
+        messageHandlerRegistry.register(MessageType.PRESENCE_WATCH, true, (ctx, userId, msg) -> handlePresenceWatch(userId, msg.getData(), ctx));
+
+        // 其他节点转发来的消息投递给本节点的用户
+        clusterRouter.setReceiver(this::deliverFromCluster);
+        // 本节点用户上线、下线时通知订阅者
+        presenceService.addListener(this::onPresenceChanged);
+    }
 
     /**
-     * 核心消息分发方法，与MessageType枚举一一对应
+     * 核心消息入口：按编码取注册的处理器后交给MessageDispatcher，阻塞类型在线程池中处理
      */
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ProtocolMessage protocolMessage) throws Exception {
 
         try {
-            String userId = getUserIdFromChannel(ctx.channel());
-            String data = protocolMessage.getData();
-
-            // 根据消息编码获取对应的MessageType
-            MessageType messageType = MessageType.fromCode(protocolMessage.getType());
-            logger.info("用户[{}]接收消息 - 类型: {}({}), 内容: {}", userId, messageType.name(), messageType.getCode(), data);
-
-            // 严格按照MessageType枚举进行分发
-            switch (messageType) {
-                case LOGIN:
-                    logger.info("login request,data:{}", data);
-                    handleLogin(ctx, data);
-                    break;
-                case LOGOUT:
-                    handleLogout(ctx, userId);
-                    break;
-                case PING:
-                    handlePing(ctx);
-                    break;
-
-                // 单聊消息处理
-                case SINGLE_CHAT:
-                    handleSingleChat(userId, data);
-                    break;
-                case SINGLE_CHAT_ACK:
-                    handleSingleChatAck(data);
-                    break;
-                case SINGLE_CHAT_READ:
-                    handleSingleChatRead(data);
-                    break;
-                case SINGLE_CHAT_RECALL:
-                    handleSingleChatRecall(userId, data);
-                    break;
-
-                // 群聊消息处理
-                case GROUP_CHAT:
-                    handleGroupChat(userId, data);
-                    break;
-                case GROUP_CHAT_ACK:
-                    handleGroupChatAck(data);
-                    break;
-                case GROUP_CHAT_READ:
-                    handleGroupChatRead(data);
-                    break;
-                case GROUP_CHAT_RECALL:
-                    handleGroupChatRecall(userId, data);
-                    break;
-
-                // 好友关系处理
-                case FRIEND_REQUEST_SEND:
-                    handleFriendRequestSend(userId, data);
-                    break;
-                case FRIEND_REQUEST_RESPONSE:
-                    handleFriendRequestResponse(userId, data);
-                    break;
-                case FRIEND_LIST_QUERY:
-                    handleFriendListQuery(userId, ctx);
-                    break;
-                case FRIEND_DELETE:
-                    handleFriendDelete(userId, data);
-                    break;
-
-                // 群组管理处理
-                case GROUP_CREATE:
-                    handleGroupCreate(userId, data, ctx);
-                    break;
-                case GROUP_JOIN:
-                    handleGroupJoin(userId, data, ctx);
-                    break;
-                case GROUP_QUIT:
-                    handleGroupQuit(userId, data, ctx);
-                    break;
-                case GROUP_MEMBER_QUERY:
-                    handleGroupMemberQuery(data, ctx);
-                    break;
-                case GROUP_LIST_QUERY:
-                    handleGroupListQuery(userId, ctx);
-                    break;
-
-                default:
-                    logger.warn("未实现的消息类型: {}", messageType);
-                    sendErrorResponse(ctx, "未实现的消息类型: " + messageType.name());
+            renewPresence(ctx.channel());
+
+            // 按编码直接索引处理器，不在此处读取data：携带原始负载的消息只在需要时才转换为String
+            MessageHandlerRegistry.Registration registration = messageHandlerRegistry.get(protocolMessage.getType());
+            if (registration == null) {
+                logger.warn("未实现的消息类型: {}", protocolMessage.getType());
+                sendErrorResponse(ctx, "未实现的消息类型: " + protocolMessage.getType());
+                return;
             }
+            if (logger.isDebugEnabled()) {
+                logger.debug("用户[{}]接收消息 - 类型: {}({}), 长度: {}", getUserIdFromChannel(ctx.channel()), registration.getName(), registration.getCode(), protocolMessage.getDataLength());
+            }
+            messageDispatcher.dispatch(ctx, registration, protocolMessage);
         } catch (Exception e) {
-            e.printStackTrace();
-            logger.error("message channel read0 error;{}", e.getMessage());
+            logger.error("message channel read0 error;{}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 任何入站消息都视为心跳：距上次检查超过 renew-check-ms 时续期在线租约，
+     * 不依赖客户端单独发送PING（在EventLoop上执行，与channelInactive串行）
+     */
+    private void renewPresence(Channel channel) {
+
+        String deviceId = channel.attr(DEVICE_ID_ATTRIBUTE).get();
+        if (deviceId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long checked = channel.attr(PRESENCE_CHECKED_ATTRIBUTE).get();
+        if (checked != null && now - checked < presenceRenewCheckMillis) {
+            return;
+        }
+        channel.attr(PRESENCE_CHECKED_ATTRIBUTE).set(now);
+
+        // 只为仍绑定在映射中的连接续期，已登出或被新连接替换的不再获得租约
+        String userId = getUserIdFromChannel(channel);
+        if (userId != null && userChannelMap.get(userId) == channel && presenceService.heartbeat(userId, deviceId)) {
+            // 租约到期后重新上线：通知会查询在线状态存储，不能在EventLoop上执行
+            messageKeyedExecutor.offer(userId, () -> presenceService.notifyChanged(userId));
         }
     }
 
@@ -176,6 +232,7 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
         Map<String, String> loginData = objectMapper.readValue(data, Map.class);
         String username = loginData.get("username");
         String password = loginData.get("password");
+        String deviceId = loginData.getOrDefault("device", DEFAULT_DEVICE);
 
         String userId = userService.login(username, password);
         if (userId == null) {
@@ -183,31 +240,59 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
             return;
         }
 
+        List<String> groupIds = groupService.getUserGroupIds(userId);
+
+        // 在Channel所属EventLoop上绑定，与channelInactive串行：绑定前已关闭的连接不会留在映射中；
+        // 等待绑定完成后再返回，保证同一连接后续的消息能读到绑定结果
+        boolean bound = ctx.executor().submit(() -> bindUser(ctx, userId, deviceId, groupIds)).syncUninterruptibly().getNow();
+        if (!bound) {
+            logger.info("用户[{}]登录时连接已关闭", userId);
+            return;
+        }
+
+        logger.info("用户[{}]登录成功", userId);
+        sendResponse(ctx, MessageType.LOGIN_RESPONSE, "success", userId);
+
+        // 离线消息由客户端登录后发送SYNC请求分页拉取
+    }
+
+    /**
+     * 绑定用户与Channel（在Channel所属EventLoop上执行）
+     * @return 连接已关闭时返回false，不做任何登记
+     */
+    private boolean bindUser(ChannelHandlerContext ctx, String userId, String deviceId, List<String> groupIds) throws Exception {
+
+        if (!ctx.channel().isActive()) {
+            return false;
+        }
+
         // 处理重复登录
-        if (userChannelMap.containsKey(userId)) {
-            Channel oldChannel = userChannelMap.get(userId);
+        Channel oldChannel = userChannelMap.get(userId);
+        if (oldChannel != null && oldChannel != ctx.channel()) {
             sendSystemNotify(oldChannel, "您的账号在其他设备登录");
             oldChannel.close();
         }
 
         // 绑定用户与Channel
+        ctx.channel().attr(DEVICE_ID_ATTRIBUTE).set(deviceId);
         ctx.channel().attr(USER_ID_ATTRIBUTE).set(userId);
+        // 租约由下面的登记获得，登录后 renew-check-ms 内的消息不再检查
+        ctx.channel().attr(PRESENCE_CHECKED_ATTRIBUTE).set(System.currentTimeMillis());
         userChannelMap.put(userId, ctx.channel());
 
-        // 缓存用户在线状态
-//        redisTemplate.opsForValue().set("user:online:" + userId, "1", java.time.Duration.ofMinutes(30));
+        // 登记到群在线成员索引
+        onlineGroupIndex.userOnline(userId, groupIds);
 
-        logger.info("用户[{}]登录成功", userId);
-        sendResponse(ctx, MessageType.LOGIN_RESPONSE, "success", userId);
-
-        // 异步推送未读消息
-        messageTaskExecutor.execute(() -> {
+        // 登记到集群会话目录并获得在线租约（与下线在同一通道按序执行，不能丢弃）
+        messageKeyedExecutor.offerUnbounded(userId, () -> {
             try {
-                pushUnreadMessages(userId);
+                clusterRouter.userOnline(userId, deviceId);
+                presenceService.online(userId, deviceId);
             } catch (Exception e) {
-                logger.error("推送未读消息失败", e);
+                logger.error("登记在线状态失败", e);
             }
         });
+        return true;
     }
 
     /**
@@ -216,19 +301,11 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     private void handleLogout(ChannelHandlerContext ctx, String userId) throws Exception {
 
         if (userId != null) {
-            userChannelMap.remove(userId);
-            // 异步更新用户状态
-            dbTaskExecutor.execute(() -> {
-                try {
-                    userService.updateUserStatus(userId, "OFFLINE");
-                } catch (Exception e) {
-                    logger.error("更新用户状态失败", e);
-                }
-            });
-            
-            // 清除缓存
-//            redisTemplate.delete("user:online:" + userId);
-            
+            if (userChannelMap.remove(userId, ctx.channel())) {
+                onlineGroupIndex.userOffline(userId);
+            }
+            userOffline(userId, ctx.channel().attr(DEVICE_ID_ATTRIBUTE).get());
+
             logger.info("用户[{}]主动登出", userId);
             sendResponse(ctx, MessageType.LOGOUT_RESPONSE, "success", "已成功登出");
         }
@@ -237,22 +314,39 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
 
     /**
      * 处理心跳请求 (对应MessageType.PING)
+     * 在线租约已在channelRead0中按入站消息续期，这里只回复PONG
      */
-    private void handlePing(ChannelHandlerContext ctx) throws Exception {
+    private void handlePing(ChannelHandlerContext ctx, String userId) throws Exception {
 
         logger.info("handle ping msg, send pong");
         sendResponse(ctx, MessageType.PONG, "success", "pong");
     }
 
 
+    /**
+     * 处理增量同步请求 (对应MessageType.SYNC)
+     * 请求格式：{"seqs": {"会话ID": 已收到的最大序号, ...}}，未携带的会话按服务端已读游标同步
+     */
+    private void handleSync(ChannelHandlerContext ctx, String userId, String data) throws Exception {
+
+        if (userId == null) {
+            sendErrorResponse(ctx, "请先登录");
+            return;
+        }
+        Map<String, Object> syncData = data == null || data.isEmpty() ? null : objectMapper.readValue(data, Map.class);
+        Map<String, Number> clientSeqs = syncData != null ? (Map<String, Number>) syncData.get("seqs") : null;
+        offlineSyncService.startSync(ctx.channel(), userId, clientSeqs);
+    }
+
+
     // ------------------------------ 单聊消息处理 ------------------------------
 
     /**
      * 处理单聊消息 (对应MessageType.SINGLE_CHAT)
      */
-    private void handleSingleChat(String senderId, String data) throws Exception {
+    private void handleSingleChat(String senderId, ProtocolMessage protocolMessage) throws Exception {
 
-        IMMessage message = objectMapper.readValue(data, IMMessage.class);
+        IMMessage message = readData(protocolMessage, IMMessage.class);
         String receiverId = message.getTo();
 
         // 验证接收方
@@ -268,14 +362,17 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
         }
 
         // 完善消息信息
-        message.setId(UUID.randomUUID().toString());
+        message.setId(messageIdGenerator.nextId());
         message.setFrom(senderId);
         message.setType(MessageType.SINGLE_CHAT.getCode());
+        // 转发前分配会话序号，接收方据此排序与分页
+        messageService.assignSequence(message);
 
-        // 异步保存消息
-        dbTaskExecutor.execute(() -> {
+        // 异步保存消息，发送方自己发的消息视为已读
+        messageKeyedExecutor.execute(receiverId, () -> {
             try {
                 messageService.saveMessage(message, "SENT");
+                readCursorService.markReadDeferred(senderId, ConversationSequencer.conversationIdOf(message), message.getSeq());
             } catch (Exception e) {
                 logger.error("保存消息失败", e);
             }
@@ -283,34 +380,31 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
 
         // 转发给接收方
         Channel receiverChannel = userChannelMap.get(receiverId);
+        ProtocolMessage forward = new ProtocolMessage(MessageType.SINGLE_CHAT.getCode(), message);
         if (receiverChannel != null && receiverChannel.isActive()) {
-            ProtocolMessage protocolMessage = new ProtocolMessage(MessageType.SINGLE_CHAT.getCode(), objectMapper.writeValueAsString(message));
-            receiverChannel.writeAndFlush(protocolMessage);
-            
-            // 异步更新消息状态
-            dbTaskExecutor.execute(() -> {
-                try {
-                    messageService.updateMessageStatus(message.getId(), "DELIVERED");
-                } catch (Exception e) {
-                    logger.error("更新消息状态失败", e);
-                }
-            });
+            if (slowConsumerGuard.admit(receiverChannel, forward)) {
+                receiverChannel.writeAndFlush(forward);
+                markDelivered(receiverId, message.getId());
+            }
+        } else {
+            // 接收方不在本节点时经集群转发，由其所在节点投递并更新送达状态
+            clusterRouter.sendToUsers(Collections.singletonList(receiverId), forward);
         }
 
         // 响应发送方
-        sendResponseToUser(senderId, MessageType.SINGLE_CHAT_ACK, "success", message.getId());
+        sendResponseToUser(senderId, MessageType.SINGLE_CHAT_ACK, "success", String.valueOf(message.getId()));
     }
 
     /**
      * 处理单聊消息确认 (对应MessageType.SINGLE_CHAT_ACK)
      */
-    private void handleSingleChatAck(String data) throws Exception {
+    private void handleSingleChatAck(String userId, String data) throws Exception {
 
-        Map<String, String> ackData = objectMapper.readValue(data, Map.class);
-        String messageId = ackData.get("messageId");
-        
-        // 异步更新消息状态
-        dbTaskExecutor.execute(() -> {
+        Map<String, Object> ackData = objectMapper.readValue(data, Map.class);
+        Long messageId = toMessageId(ackData.get("messageId"));
+
+        // 异步更新消息状态（回执来自接收方，与消息存储同在接收方的通道，保证先存储后更新）
+        messageKeyedExecutor.offer(userId, () -> {
             try {
                 messageService.updateMessageStatus(messageId, "DELIVERED");
             } catch (Exception e) {
@@ -322,23 +416,26 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     /**
      * 处理单聊消息已读回执 (对应MessageType.SINGLE_CHAT_READ)
      */
-    private void handleSingleChatRead(String data) throws Exception {
+    private void handleSingleChatRead(String userId, String data) throws Exception {
 
-        Map<String, String> readData = objectMapper.readValue(data, Map.class);
-        String messageId = readData.get("messageId");
-        
-        // 异步更新消息状态
-        dbTaskExecutor.execute(() -> {
+        Map<String, Object> readData = objectMapper.readValue(data, Map.class);
+        Long messageId = toMessageId(readData.get("messageId"));
+        String senderId = (String) readData.get("senderId");
+        Number seq = (Number) readData.get("seq");
+        String conversationId = senderId != null ? ConversationSequencer.singleChatId(userId, senderId) : null;
+
+        // 异步更新消息状态并推进已读游标（回执来自接收方，与消息存储同在接收方的通道，保证先存储后更新）
+        messageKeyedExecutor.offer(userId, () -> {
             try {
                 messageService.updateMessageStatus(messageId, "READ");
+                advanceReadCursor(userId, conversationId, seq, messageId);
             } catch (Exception e) {
                 logger.error("更新消息状态失败", e);
             }
         });
 
         // 通知发送方消息已读
-        String senderId = readData.get("senderId");
-        sendResponseToUser(senderId, MessageType.SINGLE_CHAT_READ, "success", messageId);
+        sendResponseToUser(senderId, MessageType.SINGLE_CHAT_READ, "success", String.valueOf(messageId));
     }
 
     /**
@@ -346,19 +443,19 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
      */
     private void handleSingleChatRecall(String operatorId, String data) throws Exception {
 
-        Map<String, String> recallData = objectMapper.readValue(data, Map.class);
-        String messageId = recallData.get("messageId");
-        String receiverId = recallData.get("receiverId");
+        Map<String, Object> recallData = objectMapper.readValue(data, Map.class);
+        Long messageId = toMessageId(recallData.get("messageId"));
+        String receiverId = (String) recallData.get("receiverId");
 
         // 验证消息所有权
-        MessageEntity message = messageService.getById(messageId);
+        MessageEntity message = messageId != null ? messageService.getById(messageId) : null;
         if (message == null || !message.getFromUser().equals(operatorId)) {
             sendErrorToUser(operatorId, "无权撤回该消息");
             return;
         }
 
         // 异步更新消息状态
-        dbTaskExecutor.execute(() -> {
+        messageKeyedExecutor.execute(receiverId, () -> {
             try {
                 messageService.updateMessageStatus(messageId, "RECALLED");
             } catch (Exception e) {
@@ -368,13 +465,13 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
 
         // 通知接收方消息已撤回
         IMMessage recallNotify = new IMMessage();
-        recallNotify.setId(UUID.randomUUID().toString());
+        recallNotify.setId(messageIdGenerator.nextId());
         recallNotify.setType(MessageType.SINGLE_CHAT_RECALL.getCode());
         recallNotify.setFrom(operatorId);
         recallNotify.setTo(receiverId);
-        recallNotify.setContent(messageId);
+        recallNotify.setContent(String.valueOf(messageId));
 
-        sendToUser(receiverId, MessageType.SINGLE_CHAT_RECALL, objectMapper.writeValueAsString(recallNotify));
+        sendToUser(receiverId, MessageType.SINGLE_CHAT_RECALL, recallNotify);
         sendResponseToUser(operatorId, MessageType.SYSTEM_NOTIFY, "success", "消息已撤回");
     }
 
@@ -384,9 +481,9 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     /**
      * 处理群聊消息 (对应MessageType.GROUP_CHAT)
      */
-    private void handleGroupChat(String senderId, String data) throws Exception {
+    private void handleGroupChat(String senderId, ProtocolMessage protocolMessage) throws Exception {
 
-        IMMessage message = objectMapper.readValue(data, IMMessage.class);
+        IMMessage message = readData(protocolMessage, IMMessage.class);
         String groupId = message.getGroupId();
 
         // 验证群成员身份
@@ -396,52 +493,48 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
         }
 
         // 完善消息信息
-        message.setId(UUID.randomUUID().toString());
+        message.setId(messageIdGenerator.nextId());
         message.setFrom(senderId);
         message.setType(MessageType.GROUP_CHAT.getCode());
+        messageService.assignSequence(message);
 
-        // 异步保存消息
-        dbTaskExecutor.execute(() -> {
+        // 异步保存消息，发送方自己发的消息视为已读
+        messageKeyedExecutor.execute(groupId, () -> {
             try {
                 messageService.saveMessage(message, "SENT");
+                readCursorService.markReadDeferred(senderId, ConversationSequencer.conversationIdOf(message), message.getSeq());
             } catch (Exception e) {
                 logger.error("保存消息失败", e);
             }
         });
 
         // 异步转发给群成员
-        messageTaskExecutor.execute(() -> {
+        messageKeyedExecutor.execute(groupId, () -> {
             try {
-                List<GroupMemberEntity> members = groupService.getGroupMembers(groupId);
-                for (GroupMemberEntity member : members) {
-                    String memberId = member.getUserId();
-                    if (!memberId.equals(senderId)) { // 跳过发送者
-                        Channel memberChannel = userChannelMap.get(memberId);
-                        if (memberChannel != null && memberChannel.isActive()) {
-                            ProtocolMessage protocolMessage = new ProtocolMessage(MessageType.GROUP_CHAT.getCode(), objectMapper.writeValueAsString(message));
-                            memberChannel.writeAndFlush(protocolMessage);
-                        }
-                    }
-                }
+                // 跳过发送者
+                broadcastToGroup(groupId, senderId, new ProtocolMessage(MessageType.GROUP_CHAT.getCode(), message));
             } catch (Exception e) {
                 logger.error("转发群聊消息失败", e);
             }
         });
 
         // 响应发送方
-        sendResponseToUser(senderId, MessageType.GROUP_CHAT_ACK, "success", message.getId());
+        sendResponseToUser(senderId, MessageType.GROUP_CHAT_ACK, "success", String.valueOf(message.getId()));
     }
 
     /**
      * 处理群聊消息确认 (对应MessageType.GROUP_CHAT_ACK)
      */
-    private void handleGroupChatAck(String data) throws Exception {
+    private void handleGroupChatAck(String userId, String data) throws Exception {
+
+        Map<String, Object> ackData = objectMapper.readValue(data, Map.class);
+        Long messageId = toMessageId(ackData.get("messageId"));
+        // 群消息的存储按群排序，回执携带groupId时与之同通道；旧客户端未携带时按回执用户排序
+        String groupId = (String) ackData.get("groupId");
+        String statusKey = groupId != null ? groupId : userId;
 
-        Map<String, String> ackData = objectMapper.readValue(data, Map.class);
-        String messageId = ackData.get("messageId");
-        
         // 异步更新消息状态
-        dbTaskExecutor.execute(() -> {
+        messageKeyedExecutor.offer(statusKey, () -> {
             try {
                 messageService.updateMessageStatus(messageId, "DELIVERED");
             } catch (Exception e) {
@@ -453,17 +546,20 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     /**
      * 处理群聊消息已读回执 (对应MessageType.GROUP_CHAT_READ)
      */
-    private void handleGroupChatRead(String data) throws Exception {
+    private void handleGroupChatRead(String userId, String data) throws Exception {
 
-        Map<String, String> readData = objectMapper.readValue(data, Map.class);
-        String messageId = readData.get("messageId");
-        
-        // 异步更新消息状态
-        dbTaskExecutor.execute(() -> {
+        Map<String, Object> readData = objectMapper.readValue(data, Map.class);
+        Long messageId = toMessageId(readData.get("messageId"));
+        String groupId = (String) readData.get("groupId");
+        Number seq = (Number) readData.get("seq");
+        String conversationId = groupId != null ? ConversationSequencer.groupChatId(groupId) : null;
+
+        // 群聊已读只推进读者自己的游标（一次UPSERT），不再改写所有成员共享的消息状态
+        messageKeyedExecutor.offer(userId, () -> {
             try {
-                messageService.updateMessageStatus(messageId, "READ");
+                advanceReadCursor(userId, conversationId, seq, messageId);
             } catch (Exception e) {
-                logger.error("更新消息状态失败", e);
+                logger.error("更新已读游标失败", e);
             }
         });
     }
@@ -473,12 +569,12 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
      */
     private void handleGroupChatRecall(String operatorId, String data) throws Exception {
 
-        Map<String, String> recallData = objectMapper.readValue(data, Map.class);
-        String messageId = recallData.get("messageId");
-        String groupId = recallData.get("groupId");
+        Map<String, Object> recallData = objectMapper.readValue(data, Map.class);
+        Long messageId = toMessageId(recallData.get("messageId"));
+        String groupId = (String) recallData.get("groupId");
 
         // 验证权限（群主、管理员或消息发送者）
-        MessageEntity message = messageService.getById(messageId);
+        MessageEntity message = messageId != null ? messageService.getById(messageId) : null;
         if (message == null || !message.getGroupId().equals(groupId)) {
             sendErrorToUser(operatorId, "消息不存在");
             return;
@@ -491,7 +587,7 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
         }
 
         // 异步更新消息状态
-        dbTaskExecutor.execute(() -> {
+        messageKeyedExecutor.execute(groupId, () -> {
             try {
                 messageService.updateMessageStatus(messageId, "RECALLED");
             } catch (Exception e) {
@@ -500,24 +596,16 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
         });
 
         // 异步通知群成员消息已撤回
-        messageTaskExecutor.execute(() -> {
+        messageKeyedExecutor.execute(groupId, () -> {
             try {
                 IMMessage recallNotify = new IMMessage();
-                recallNotify.setId(UUID.randomUUID().toString());
+                recallNotify.setId(messageIdGenerator.nextId());
                 recallNotify.setType(MessageType.GROUP_CHAT_RECALL.getCode());
                 recallNotify.setFrom(operatorId);
                 recallNotify.setGroupId(groupId);
-                recallNotify.setContent(messageId);
-
-                String notifyData = objectMapper.writeValueAsString(recallNotify);
-                List<GroupMemberEntity> members = groupService.getGroupMembers(groupId);
+                recallNotify.setContent(String.valueOf(messageId));
 
-                for (GroupMemberEntity member : members) {
-                    Channel channel = userChannelMap.get(member.getUserId());
-                    if (channel != null && channel.isActive()) {
-                        channel.writeAndFlush(new ProtocolMessage(MessageType.GROUP_CHAT_RECALL.getCode(), notifyData));
-                    }
-                }
+                broadcastToGroup(groupId, null, new ProtocolMessage(MessageType.GROUP_CHAT_RECALL.getCode(), recallNotify));
             } catch (Exception e) {
                 logger.error("通知群成员消息撤回失败", e);
             }
@@ -544,13 +632,13 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
             // 通知目标用户
             UserEntity sender = userService.getById(senderId);
             IMMessage notifyMsg = new IMMessage();
-            notifyMsg.setId(UUID.randomUUID().toString());
+            notifyMsg.setId(messageIdGenerator.nextId());
             notifyMsg.setType(MessageType.FRIEND_REQUEST_RECV.getCode());
             notifyMsg.setFrom(senderId);
             notifyMsg.setTo(targetUserId);
             notifyMsg.setContent(sender.getUsername() + "请求添加您为好友：" + remark);
 
-            sendToUser(targetUserId, MessageType.FRIEND_REQUEST_RECV, objectMapper.writeValueAsString(notifyMsg));
+            sendToUser(targetUserId, MessageType.FRIEND_REQUEST_RECV, notifyMsg);
 
             sendResponseToUser(senderId, MessageType.SYSTEM_NOTIFY, "success", "好友请求已发送");
         } else {
@@ -584,14 +672,36 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
 
     /**
      * 处理好友列表查询 (对应MessageType.FRIEND_LIST_QUERY)
+     * 请求格式（可选）：{"after": "上一页最后一个好友ID", "limit": 每页数量}，limit不超过 im.friend.list.page-size
+     * 响应格式：{"friends": [{"userId", "username", "avatar", "status"}, ...], "next": 下一页游标，没有更多时为null}
      */
-    private void handleFriendListQuery(String userId, ChannelHandlerContext ctx) throws Exception {
-
-        List<String> friendIds = friendService.getUserFriends(userId);
-        // 获取好友详细信息
-        List<UserEntity> friends = friendIds.stream().map(id -> userService.getById(id)).collect(Collectors.toList());
+    private void handleFriendListQuery(String userId, String data, ChannelHandlerContext ctx) throws Exception {
+
+        Map<String, Object> queryData = data == null || data.isEmpty() ? Collections.emptyMap() : objectMapper.readValue(data, Map.class);
+        String after = (String) queryData.get("after");
+        Number limitValue = (Number) queryData.get("limit");
+        int limit = limitValue != null && limitValue.intValue() > 0
+                ? Math.min(limitValue.intValue(), friendListPageSize)
+                : friendListPageSize;
+
+        // 好友资料一页一次批量查询（缓存+IN列表），只返回公开字段
+        List<String> friendIds = friendService.getUserFriends(userId, after, limit);
+        List<UserEntity> friends = userService.getUsersByIds(friendIds);
+        Map<String, Presence> presence = presenceService.query(friendIds);
+        List<Map<String, Object>> profiles = new ArrayList<>(friends.size());
+        for (UserEntity friend : friends) {
+            Map<String, Object> profile = new LinkedHashMap<>();
+            profile.put("userId", friend.getUserId());
+            profile.put("username", friend.getUsername());
+            profile.put("avatar", friend.getAvatar());
+            profile.put("status", presence.get(friend.getUserId()).getStatus());
+            profiles.add(profile);
+        }
 
-        sendResponse(ctx, MessageType.FRIEND_LIST_RESPONSE, "success", objectMapper.writeValueAsString(friends));
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("friends", profiles);
+        response.put("next", friendIds.size() < limit ? null : friendIds.get(friendIds.size() - 1));
+        sendResponse(ctx, MessageType.FRIEND_LIST_RESPONSE, "success", objectMapper.writeValueAsString(response));
     }
 
     /**
@@ -602,12 +712,10 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
         Map<String, String> deleteData = objectMapper.readValue(data, Map.class);
         String friendId = deleteData.get("friendId");
 
-        // 执行删除（双向删除）
+        // 执行删除：一次删除双向关系，并一次失效双方的好友缓存
         boolean success = friendService.removeUser(userId, friendId);
 
         if (success) {
-            friendService.removeUser(friendId, userId);
-
             // 通知对方
             sendToUser(friendId, MessageType.SYSTEM_NOTIFY, userId + "已将您从好友列表中删除");
             sendResponseToUser(userId, MessageType.FRIEND_DELETE_RESPONSE, "success", "已删除好友");
@@ -693,29 +801,134 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     }
 
 
+    // ------------------------------ 在线状态处理 ------------------------------
+
+    /**
+     * 处理在线状态批量查询 (对应MessageType.PRESENCE_QUERY)
+     * 请求格式（可选）：{"userIds": [...]}，不携带时查询全部好友；非好友的用户不返回
+     * 响应格式：[{"userId", "status": "ONLINE/OFFLINE", "devices": [...]}, ...]
+     */
+    private void handlePresenceQuery(String userId, String data, ChannelHandlerContext ctx) throws Exception {
+
+        List<String> userIds = presenceTargets(userId, data);
+        sendResponse(ctx, MessageType.PRESENCE_RESPONSE, "success", objectMapper.writeValueAsString(presenceService.query(userIds).values()));
+    }
+
+    /**
+     * 处理在线状态订阅 (对应MessageType.PRESENCE_WATCH)
+     * 请求格式同PRESENCE_QUERY，替换之前的订阅；先返回当前状态，之后状态变化以PRESENCE_NOTIFY推送（from为状态变化的用户，content为状态）
+     */
+    private void handlePresenceWatch(String userId, String data, ChannelHandlerContext ctx) throws Exception {
+
+        List<String> watched = presenceService.watch(userId, presenceTargets(userId, data));
+        sendResponse(ctx, MessageType.PRESENCE_RESPONSE, "success", objectMapper.writeValueAsString(presenceService.query(watched).values()));
+    }
+
+    /**
+     * 在线状态查询、订阅的目标用户：请求中的userIds与好友的交集（去重），未携带时为全部好友；
+     * 只能查询、订阅好友的在线状态，最多 max-watch 个
+     */
+    private List<String> presenceTargets(String userId, String data) throws Exception {
+
+        Map<String, Object> requestData = data == null || data.isEmpty() ? Collections.emptyMap() : objectMapper.readValue(data, Map.class);
+        List<Object> userIds = (List<Object>) requestData.get("userIds");
+        List<String> friends = friendService.getUserFriends(userId);
+
+        List<String> targets;
+        if (userIds == null) {
+            targets = friends;
+        } else {
+            Set<String> friendSet = new HashSet<>(friends);
+            Set<String> requested = new LinkedHashSet<>();
+            for (Object id : userIds) {
+                if (friendSet.contains(id)) {
+                    requested.add((String) id);
+                }
+            }
+            targets = new ArrayList<>(requested);
+        }
+        int maxWatch = presenceService.getMaxWatch();
+        return targets.size() > maxWatch ? targets.subList(0, maxWatch) : targets;
+    }
+
+    /**
+     * 本节点用户的在线设备变化：查询汇总后的状态，通知本节点的订阅者并广播给其他节点
+     */
+    private void onPresenceChanged(String userId) {
+
+        Presence presence = presenceService.query(Collections.singletonList(userId)).get(userId);
+        IMMessage notify = new IMMessage();
+        notify.setId(messageIdGenerator.nextId());
+        notify.setType(MessageType.PRESENCE_NOTIFY.getCode());
+        notify.setFrom(userId);
+        notify.setContent(presence.getStatus());
+        notify.setTimestamp(System.currentTimeMillis());
+
+        ProtocolMessage message = new ProtocolMessage(MessageType.PRESENCE_NOTIFY.getCode(), notify);
+        notifyPresenceWatchers(message);
+        clusterRouter.broadcast(message);
+    }
+
+    /**
+     * 推送在线状态变化给本节点上订阅了该用户的订阅者
+     */
+    private void notifyPresenceWatchers(ProtocolMessage message) {
+
+        for (String watcherId : presenceService.getWatchers(message.getImMessage().getFrom())) {
+            Channel channel = userChannelMap.get(watcherId);
+            if (channel != null && channel.isActive() && slowConsumerGuard.admit(channel, message)) {
+                channel.writeAndFlush(message);
+            }
+        }
+    }
+
+
     // ------------------------------ 连接管理与辅助方法 ------------------------------
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
 
         String userId = getUserIdFromChannel(ctx.channel());
-        if (userId != null) {
-            userChannelMap.remove(userId);
-            // 异步更新用户状态
-            dbTaskExecutor.execute(() -> {
-                try {
-                    userService.updateUserStatus(userId, "OFFLINE");
-                } catch (Exception e) {
-                    logger.error("更新用户状态失败", e);
-                }
-            });
-            
-            // 清除缓存
-//            redisTemplate.delete("user:online:" + userId);
-            
+        // 仅当映射仍指向本Channel时才下线，避免重复登录时旧连接断开把新连接一并移除
+        if (userId != null && userChannelMap.remove(userId, ctx.channel())) {
+            onlineGroupIndex.userOffline(userId);
+            userOffline(userId, ctx.channel().attr(DEVICE_ID_ATTRIBUTE).get());
+
             logger.info("用户[{}]连接断开", userId);
         }
     }
 
+    /**
+     * 用户连接下线后的异步处理：注销集群会话目录、取消在线状态订阅、删除该设备的在线租约
+     * 与登录时的登记在同一通道按序执行；用户已在本节点重新登录时保留新连接的登记、订阅与同设备的租约
+     * 在I/O线程中调用，使用不阻塞且不丢弃的 offerUnbounded 提交
+     */
+    private void userOffline(String userId, String deviceId) {
+
+        messageKeyedExecutor.offerUnbounded(userId, () -> {
+            try {
+                Channel current = userChannelMap.get(userId);
+                if (current == null) {
+                    clusterRouter.userOffline(userId);
+                    presenceService.unwatch(userId);
+                }
+                if (deviceId != null && (current == null || !deviceId.equals(current.attr(DEVICE_ID_ATTRIBUTE).get()))) {
+                    presenceService.offline(userId, deviceId);
+                }
+            } catch (Exception e) {
+                logger.error("更新在线状态失败", e);
+            }
+        });
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+
+        // 出站缓冲回落到低水位以下时恢复暂停的增量同步，并补同步慢连接期间漏推的消息
+        offlineSyncService.onWritabilityChanged(ctx.channel());
+        slowConsumerGuard.onWritabilityChanged(ctx.channel());
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
 
@@ -730,38 +943,56 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     }
 
     /**
-     * 推送未读消息给用户
+     * 按已读回执推进已读游标
+     * 新客户端回执携带会话与seq；旧客户端只带messageId时从消息记录补全（消息仍在写入队列中时查不到，跳过）
      */
-    private void pushUnreadMessages(String userId) throws Exception {
+    private void advanceReadCursor(String userId, String conversationId, Number seq, Long messageId) {
 
-        List<MessageEntity> unreadMessages = messageService.getUnreadMessages(userId);
-        if (!unreadMessages.isEmpty()) {
-            Channel channel = userChannelMap.get(userId);
-            if (channel != null && channel.isActive()) {
-                for (MessageEntity msg : unreadMessages) {
-                    IMMessage imMsg = convertToIMMessage(msg);
-                    channel.writeAndFlush(new ProtocolMessage(imMsg.getType(), objectMapper.writeValueAsString(imMsg)));
-                }
-                // 批量更新为已读
-                List<String> msgIds = unreadMessages.stream().map(MessageEntity::getMessageId).collect(Collectors.toList());
-                messageService.batchUpdateMessageStatus(msgIds, "READ");
+        long readSeq = seq != null ? seq.longValue() : 0L;
+        if ((conversationId == null || readSeq <= 0) && messageId != null) {
+            MessageEntity message = messageService.getById(messageId);
+            if (message == null || message.getSeq() == null) {
+                return;
             }
+            conversationId = message.getConversationId();
+            readSeq = message.getSeq();
         }
+        readCursorService.markRead(userId, conversationId, readSeq);
     }
 
     /**
-     * 转换实体类为消息对象
+     * 解析回执中的消息ID：JSON数字或十进制字符串，无法解析时返回null
      */
-    private IMMessage convertToIMMessage(MessageEntity entity) {
+    private static Long toMessageId(Object value) {
 
-        IMMessage message = new IMMessage();
-        message.setId(entity.getMessageId());
-        message.setFrom(entity.getFromUser());
-        message.setTo(entity.getToUser());
-        message.setGroupId(entity.getGroupId());
-        message.setContent(entity.getContent());
-        message.setType(Byte.parseByte(entity.getType()));
-        return message;
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 反序列化消息数据
+     * 已解析的IMMessage直接复用；携带原始负载时直接从帧ByteBuf读取，不构造String
+     */
+    private static <T> T readData(ProtocolMessage protocolMessage, Class<T> type) throws Exception {
+
+        // 二进制格式负载已由解码器解析为IMMessage
+        if (type.isInstance(protocolMessage.getImMessage())) {
+            return type.cast(protocolMessage.getImMessage());
+        }
+        if (protocolMessage.hasPayload()) {
+            ByteBuf payload = protocolMessage.getPayload();
+            return objectMapper.readValue(new ByteBufInputStream(payload.duplicate()), type);
+        }
+        return objectMapper.readValue(protocolMessage.getData(), type);
     }
 
     /**
@@ -770,13 +1001,17 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     private void sendResponse(ChannelHandlerContext ctx, MessageType type, String status, String content) throws Exception {
 
         IMMessage response = new IMMessage();
-        response.setId(UUID.randomUUID().toString());
+        response.setId(messageIdGenerator.nextId());
         response.setType(type.getCode());
         response.setFrom("system");
         response.setExtra(status);
         response.setContent(content);
         logger.info("send response:{}", response);
-        ctx.writeAndFlush(new ProtocolMessage(type.getCode(), objectMapper.writeValueAsString(response)));
+        ProtocolMessage protocolMessage = new ProtocolMessage(type.getCode(), response);
+        // 响应不可丢弃，但同样受出站积压上限约束
+        if (slowConsumerGuard.admit(ctx.channel(), protocolMessage)) {
+            ctx.writeAndFlush(protocolMessage);
+        }
     }
 
     /**
@@ -787,13 +1022,16 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
         Channel channel = userChannelMap.get(userId);
         if (channel != null && channel.isActive()) {
             IMMessage response = new IMMessage();
-            response.setId(UUID.randomUUID().toString());
+            response.setId(messageIdGenerator.nextId());
             response.setType(type.getCode());
             response.setFrom("system");
             response.setExtra(status);
             response.setContent(content);
 
-            channel.writeAndFlush(new ProtocolMessage(type.getCode(), objectMapper.writeValueAsString(response)));
+            ProtocolMessage protocolMessage = new ProtocolMessage(type.getCode(), response);
+            if (slowConsumerGuard.admit(channel, protocolMessage)) {
+                channel.writeAndFlush(protocolMessage);
+            }
         }
     }
 
@@ -803,8 +1041,29 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     private void sendToUser(String userId, MessageType type, String content) throws Exception {
 
         Channel channel = userChannelMap.get(userId);
+        ProtocolMessage protocolMessage = new ProtocolMessage(type.getCode(), content);
         if (channel != null && channel.isActive()) {
-            channel.writeAndFlush(new ProtocolMessage(type.getCode(), content));
+            if (slowConsumerGuard.admit(channel, protocolMessage)) {
+                channel.writeAndFlush(protocolMessage);
+            }
+        } else {
+            clusterRouter.sendToUsers(Collections.singletonList(userId), protocolMessage);
+        }
+    }
+
+    /**
+     * 向指定用户发送消息（按IMMessage二进制格式编码）
+     */
+    private void sendToUser(String userId, MessageType type, IMMessage message) {
+
+        Channel channel = userChannelMap.get(userId);
+        ProtocolMessage protocolMessage = new ProtocolMessage(type.getCode(), message);
+        if (channel != null && channel.isActive()) {
+            if (slowConsumerGuard.admit(channel, protocolMessage)) {
+                channel.writeAndFlush(protocolMessage);
+            }
+        } else {
+            clusterRouter.sendToUsers(Collections.singletonList(userId), protocolMessage);
         }
     }
 
@@ -814,12 +1073,15 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     private void sendSystemNotify(Channel channel, String content) throws Exception {
 
         IMMessage notify = new IMMessage();
-        notify.setId(UUID.randomUUID().toString());
+        notify.setId(messageIdGenerator.nextId());
         notify.setType(MessageType.SYSTEM_NOTIFY.getCode());
         notify.setFrom("system");
         notify.setContent(content);
 
-        channel.writeAndFlush(new ProtocolMessage(MessageType.SYSTEM_NOTIFY.getCode(), objectMapper.writeValueAsString(notify)));
+        ProtocolMessage protocolMessage = new ProtocolMessage(MessageType.SYSTEM_NOTIFY.getCode(), notify);
+        if (slowConsumerGuard.admit(channel, protocolMessage)) {
+            channel.writeAndFlush(protocolMessage);
+        }
     }
 
     /**
@@ -828,19 +1090,135 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
     private void sendGroupSystemNotify(String groupId, String content) throws Exception {
 
         IMMessage notify = new IMMessage();
-        notify.setId(UUID.randomUUID().toString());
+        notify.setId(messageIdGenerator.nextId());
         notify.setType(MessageType.SYSTEM_NOTIFY.getCode());
         notify.setFrom("system");
         notify.setGroupId(groupId);
         notify.setContent(content);
 
-        String notifyData = objectMapper.writeValueAsString(notify);
-        List<GroupMemberEntity> members = groupService.getGroupMembers(groupId);
+        broadcastToGroup(groupId, null, new ProtocolMessage(MessageType.SYSTEM_NOTIFY.getCode(), notify));
+    }
+
+    /**
+     * 向群的在线成员群发消息：本节点按群在线成员索引直接投递，其他节点经集群广播后各自投递
+     */
+    private void broadcastToGroup(String groupId, String excludeUserId, ProtocolMessage message) {
+
+        broadcastToMembers(onlineGroupIndex.getOnlineMembers(groupId), excludeUserId, message);
+        clusterRouter.broadcastToGroup(groupId, excludeUserId, message);
+    }
+
+    /**
+     * 投递其他节点转发来的消息（在集群总线的接收线程上执行）
+     * 只投递给本节点上的用户，不再向其他节点转发
+     */
+    private void deliverFromCluster(ClusterEnvelope envelope) {
+
+        if (envelope.isKick()) {
+            kickFromCluster(envelope.getTo(), envelope.getData());
+            return;
+        }
+        ProtocolMessage message = envelope.getMessage() != null
+                ? new ProtocolMessage(envelope.getType(), envelope.getMessage())
+                : new ProtocolMessage(envelope.getType(), envelope.getData());
+        if (envelope.getGroupId() != null) {
+            broadcastToMembers(onlineGroupIndex.getOnlineMembers(envelope.getGroupId()), envelope.getExclude(), message);
+            return;
+        }
+        if (envelope.getTo() == null) {
+            // 节点级广播：目前只有在线状态变化通知
+            if (message.getType() == MessageType.PRESENCE_NOTIFY.getCode() && envelope.getMessage() != null) {
+                notifyPresenceWatchers(message);
+            }
+            return;
+        }
+        for (String userId : envelope.getTo()) {
+            Channel channel = userChannelMap.get(userId);
+            if (channel != null && channel.isActive() && slowConsumerGuard.admit(channel, message)) {
+                channel.writeAndFlush(message);
+                if (message.getType() == MessageType.SINGLE_CHAT.getCode()) {
+                    markDelivered(userId, envelope.getMessage().getId());
+                }
+            }
+        }
+    }
 
-        for (GroupMemberEntity member : members) {
-            Channel channel = userChannelMap.get(member.getUserId());
-            if (channel != null && channel.isActive()) {
-                channel.writeAndFlush(new ProtocolMessage(MessageType.SYSTEM_NOTIFY.getCode(), notifyData));
+    /**
+     * 用户已在其他节点登录：断开本节点上的旧连接，下线处理由channelInactive完成
+     * （会话目录已指向新节点，本节点的注销不会影响新的登记）；
+     * 同一设备换节点登录时把租约交给新节点，不删除存储中的租约，避免覆盖新节点写入的租约
+     */
+    private void kickFromCluster(List<String> userIds, String deviceId) {
+
+        if (userIds == null) {
+            return;
+        }
+        for (String userId : userIds) {
+            Channel channel = userChannelMap.get(userId);
+            if (channel == null) {
+                continue;
+            }
+            // 在Channel所属EventLoop上交出租约，与channelRead0中的续期串行，避免交出后又被续期
+            channel.eventLoop().execute(() -> {
+                if (deviceId != null && deviceId.equals(channel.attr(DEVICE_ID_ATTRIBUTE).getAndSet(null))) {
+                    presenceService.handOver(userId, deviceId);
+                }
+                try {
+                    sendSystemNotify(channel, "您的账号在其他设备登录");
+                } catch (Exception e) {
+                    logger.warn("向用户[{}]发送下线通知失败", userId, e);
+                }
+                channel.close();
+                logger.info("用户[{}]已在其他节点登录，断开本节点的连接", userId);
+            });
+        }
+    }
+
+    /**
+     * 异步更新消息状态为已送达（与消息存储同在接收方的通道）
+     * 可能在集群总线的监听线程中调用，使用不阻塞的 offer 提交
+     */
+    private void markDelivered(String receiverId, long messageId) {
+
+        messageKeyedExecutor.offer(receiverId, () -> {
+            try {
+                messageService.updateMessageStatus(messageId, "DELIVERED");
+            } catch (Exception e) {
+                logger.error("更新消息状态失败", e);
+            }
+        });
+    }
+
+    /**
+     * 向群成员群发消息
+     * 每个协议版本的帧只编码一次（该版本的首个在线成员出现时），各成员Channel写入对应版本共享内容的 retainedDuplicate()
+     * @param memberIds 群成员ID（通常为群在线成员索引）
+     * @param excludeUserId 不发送的用户（如发送者本人），可为null
+     * @param message 要群发的消息
+     */
+    private void broadcastToMembers(Collection<String> memberIds, String excludeUserId, ProtocolMessage message) {
+
+        // 按协议版本下标
+        ByteBuf[] frames = new ByteBuf[ProtocolMessage.VERSION_LONG_ID + 1];
+        try {
+            for (String memberId : memberIds) {
+                if (memberId.equals(excludeUserId)) {
+                    continue;
+                }
+                Channel channel = userChannelMap.get(memberId);
+                if (channel != null && channel.isActive() && slowConsumerGuard.admit(channel, message)) {
+                    byte version = BinaryMessageEncoder.versionFor(channel, message);
+                    if (frames[version] == null) {
+                        frames[version] = BinaryMessageEncoder.encodeFrame(channel.alloc(), message, version);
+                    }
+                    channel.writeAndFlush(frames[version].retainedDuplicate());
+                }
+            }
+        } finally {
+            for (ByteBuf frame : frames) {
+                if (frame != null) {
+                    frame.release();
+                }
             }
         }
     }
@@ -869,6 +1247,14 @@ public class IMMessageHandler extends SimpleChannelInboundHandler<ProtocolMessag
         return channel.attr(USER_ID_ATTRIBUTE).get();
     }
 
+    /**
+     * 在线用户与其连接（只读视图）
+     */
+    public static Map<String, Channel> getOnlineChannels() {
+
+        return Collections.unmodifiableMap(userChannelMap);
+    }
+
     /**
      * 获取在线用户列表
      */
@@ -2,45 +2,87 @@ package com.quwan.im.netty;
 
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufAllocatorMetric;
+import io.netty.buffer.ByteBufAllocatorMetricProvider;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
 @Component
 public class IMNettyServer {
     private final int port;
     private final int bossThreads;
     private final int workerThreads;
+    private final TransportType transport;
+    private final boolean epollEdgeTriggered;
+    private final int tcpFastOpen;
+    private final int acceptors;
+    private final WriteBufferWaterMark writeBufferWaterMark;
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
-    private Channel channel;
+    private final List<Channel> channels = new ArrayList<>();
+    private final List<AcceptorMetricsHandler> acceptorMetrics = new CopyOnWriteArrayList<>();
 
     @Autowired
     private IMChannelInitializer imChannelInitializer;
+
+    @Autowired
+    private ByteBufAllocator nettyAllocator;
     
     public IMNettyServer(@Value("${im.server.port:8888}") int port,
                         @Value("${im.server.boss-threads:1}") int bossThreads,
-                        @Value("${im.server.worker-threads:16}") int workerThreads) {
+                        @Value("${im.server.worker-threads:16}") int workerThreads,
+                        @Value("${im.server.transport:auto}") String transport,
+                        @Value("${im.server.epoll.edge-triggered:true}") boolean epollEdgeTriggered,
+                        @Value("${im.server.epoll.tcp-fastopen:0}") int tcpFastOpen,
+                        @Value("${im.server.acceptors:1}") int acceptors,
+                        @Value("${im.server.write-buffer.low-water-mark:32768}") int writeBufferLow,
+                        @Value("${im.server.write-buffer.high-water-mark:65536}") int writeBufferHigh) {
         this.port = port;
         this.bossThreads = bossThreads;
         this.workerThreads = workerThreads;
+        this.transport = TransportType.fromConfig(transport).resolve();
+        this.epollEdgeTriggered = epollEdgeTriggered;
+        this.tcpFastOpen = tcpFastOpen;
+        // SO_REUSEPORT 多acceptor仅在epoll下可用
+        if (acceptors > 1 && this.transport != TransportType.EPOLL) {
+            System.out.println("im.server.acceptors=" + acceptors + " 需要epoll传输，当前为" + this.transport + "，仅绑定1个acceptor");
+            acceptors = 1;
+        }
+        this.acceptors = Math.max(1, acceptors);
+        this.writeBufferWaterMark = new WriteBufferWaterMark(writeBufferLow, writeBufferHigh);
     }
 
     // 启动服务器
     public void start() throws Exception {
         // 优化线程池配置
-        bossGroup = new NioEventLoopGroup(bossThreads);
-        workerGroup = new NioEventLoopGroup(workerThreads);
+        // 每个acceptor独占一个boss事件循环
+        bossGroup = transport.newEventLoopGroup(Math.max(bossThreads, acceptors));
+        workerGroup = transport.newEventLoopGroup(workerThreads);
 
         ServerBootstrap bootstrap = new ServerBootstrap();
         bootstrap.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(transport.serverChannelClass())
                 .childHandler(imChannelInitializer)
+                // ByteBuf分配器（见NettyAllocatorConfig）
+                .option(ChannelOption.ALLOCATOR, nettyAllocator)
+                .childOption(ChannelOption.ALLOCATOR, nettyAllocator)
                 // 连接队列大小，提高并发连接数
                 .option(ChannelOption.SO_BACKLOG, 1024)
                 // 地址重用，快速重启
@@ -55,22 +97,97 @@ public class IMNettyServer {
                 // 禁用Nagle算法
                 .childOption(ChannelOption.TCP_NODELAY, true)
                 // 设置连接超时
-                .childOption(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000);
+                .childOption(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000)
+                // 出站缓冲高低水位：超过高水位Channel变为不可写（慢连接按SlowConsumerGuard策略处理），回落到低水位以下恢复可写
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
 
-        // 绑定端口，开始接收进来的连接
-        channel = bootstrap.bind(port).sync().channel();
+        // epoll 专有参数
+        if (transport == TransportType.EPOLL) {
+            EpollMode mode = epollEdgeTriggered ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, mode)
+                    .childOption(EpollChannelOption.EPOLL_MODE, mode);
+            // TCP_FASTOPEN：服务端队列长度，0表示关闭
+            if (tcpFastOpen > 0) {
+                bootstrap.option(EpollChannelOption.TCP_FASTOPEN, tcpFastOpen);
+            }
+            // 多个服务端Channel绑定同一端口，由内核在各acceptor间分摊连接
+            if (acceptors > 1) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+        }
+
+        // 绑定端口，开始接收进来的连接（每个acceptor一个服务端Channel，依次注册到不同的boss事件循环）
+        for (int i = 0; i < acceptors; i++) {
+            AcceptorMetricsHandler metrics = new AcceptorMetricsHandler(i);
+            Channel channel = bootstrap.clone()
+                    .handler(metrics)
+                    .bind(port).sync().channel();
+            channels.add(channel);
+            acceptorMetrics.add(metrics);
+        }
         System.out.println("TCP IM服务器启动成功，端口：" + port + 
-                          "，Boss线程数：" + bossThreads + 
-                          "，Worker线程数：" + workerThreads);
+                          "，Acceptor数：" + acceptors +
+                          "，Boss线程数：" + Math.max(bossThreads, acceptors) + 
+                          "，Worker线程数：" + workerThreads +
+                          "，传输方式：" + transport +
+                          "，分配器：" + nettyAllocator);
     }
 
     // 停止服务器
     public void stop() throws Exception {
-        if (channel != null) {
+        for (Channel channel : channels) {
             channel.close();
         }
+        channels.clear();
         workerGroup.shutdownGracefully();
         bossGroup.shutdownGracefully();
         System.out.println("TCP IM服务器已停止");
     }
+
+    /**
+     * 分配器内存统计
+     * 池化分配器额外给出各直接内存arena的活跃分配数、活跃字节与绑定的线程缓存数，
+     * 以及按在线连接数平均的直接内存占用，用于估算目标连接数所需的 -XX:MaxDirectMemorySize
+     * @param connections 当前在线连接数
+     */
+    public Map<String, Object> getAllocatorStats(int connections) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("allocator", nettyAllocator.getClass().getSimpleName());
+        stats.put("directBufferPooled", nettyAllocator.isDirectBufferPooled());
+        if (!(nettyAllocator instanceof ByteBufAllocatorMetricProvider)) {
+            return stats;
+        }
+        ByteBufAllocatorMetric metric = ((ByteBufAllocatorMetricProvider) nettyAllocator).metric();
+        stats.put("usedDirectMemory", metric.usedDirectMemory());
+        stats.put("usedHeapMemory", metric.usedHeapMemory());
+        stats.put("connections", connections);
+        stats.put("directBytesPerConnection", connections > 0 ? metric.usedDirectMemory() / connections : 0);
+
+        if (metric instanceof PooledByteBufAllocatorMetric) {
+            PooledByteBufAllocatorMetric pooled = (PooledByteBufAllocatorMetric) metric;
+            stats.put("chunkSize", pooled.chunkSize());
+            stats.put("numThreadLocalCaches", pooled.numThreadLocalCaches());
+            List<Map<String, Object>> arenas = new ArrayList<>();
+            for (PoolArenaMetric arena : pooled.directArenas()) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("threadCaches", arena.numThreadCaches());
+                item.put("activeAllocations", arena.numActiveAllocations());
+                item.put("activeBytes", arena.numActiveBytes());
+                item.put("allocations", arena.numAllocations());
+                item.put("deallocations", arena.numDeallocations());
+                arenas.add(item);
+            }
+            stats.put("directArenas", arenas);
+        }
+        return stats;
+    }
+
+    /**
+     * 各acceptor的接入统计（接入总数与距上次采样以来的接入速率）
+     */
+    public List<Map<String, Object>> getAcceptorStats() {
+        return acceptorMetrics.stream()
+                .map(AcceptorMetricsHandler::snapshot)
+                .collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,255 @@
+package com.quwan.im.netty;
+
+import com.quwan.im.model.ProtocolMessage;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消息分发器
+ * 按处理器注册时声明的方式区分内联处理与阻塞处理：内联类型直接在Channel所属EventLoop上执行，
+ * 处理过程中包含数据库等阻塞调用的类型提交到 handlerTaskExecutor 执行，避免一次JDBC往返拖住同一EventLoop上的所有连接。
+ * 阻塞处理器中的写操作由Netty提交回Channel所属EventLoop执行。
+ *
+ * 同一Channel的消息按到达顺序执行：存在未完成的任务时，后续消息（包括内联类型）排在其后，
+ * 排队的内联消息回到EventLoop执行。内联类型且无排队任务时直接调用处理器，不分配任何对象。
+ *
+ * 背压：每个Channel排队未完成的消息数达到高水位时关闭autoRead，停止从该连接读取，
+ * 回落到低水位时恢复读取；autoRead的切换只在EventLoop上进行。
+ * handlerTaskExecutor 拒绝任务时（队列已满）不在EventLoop上执行，而是稍后重新提交。
+ */
+@Component
+public class MessageDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MessageDispatcher.class);
+
+    // 每个Channel的分发状态：最后一个已分发的任务（用于串联同一连接上的消息）与排队数
+    private static final AttributeKey<DispatchState> DISPATCH_STATE_ATTRIBUTE = AttributeKey.newInstance("dispatchState");
+
+    // 线程池拒绝后重新提交的间隔
+    private static final long RESUBMIT_DELAY_MILLIS = 1;
+
+    // 按消息编码（无符号）索引的统计
+    private final TypeStats[] stats = new TypeStats[256];
+
+    @Autowired
+    private Executor handlerTaskExecutor;
+
+    @Autowired
+    private MessageHandlerRegistry messageHandlerRegistry;
+
+    private final int highWaterMark;
+    private final int lowWaterMark;
+
+    private final LongAdder readPauses = new LongAdder();
+    private final LongAdder resubmits = new LongAdder();
+
+    /**
+     * @param highWaterMark 单个Channel排队未完成的消息数达到该值时暂停读取
+     * @param lowWaterMark 回落到该值时恢复读取
+     */
+    public MessageDispatcher(@Value("${im.dispatch.pending-high-water:64}") int highWaterMark,
+                             @Value("${im.dispatch.pending-low-water:16}") int lowWaterMark) {
+        if (lowWaterMark < 0 || lowWaterMark >= highWaterMark) {
+            throw new IllegalArgumentException("低水位必须小于高水位: " + lowWaterMark + " / " + highWaterMark);
+        }
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new TypeStats();
+        }
+    }
+
+    /**
+     * 分发消息（须在Channel所属EventLoop上调用）
+     * 排队执行的消息在此retain、处理结束后release；直接执行的消息由调用方在返回后释放
+     * @param ctx 通道上下文
+     * @param registration 消息类型的处理器注册信息
+     * @param message 协议消息，处理器抛出的异常只记录日志，不影响同一Channel的后续消息
+     */
+    public void dispatch(ChannelHandlerContext ctx, MessageHandlerRegistry.Registration registration, ProtocolMessage message) {
+
+        TypeStats typeStats = stats[registration.getCode() & 0xFF];
+        DispatchState state = state(ctx);
+        CompletableFuture<Void> pending = state.tail;
+        boolean idle = pending == null || pending.isDone();
+        boolean blocking = registration.isBlocking();
+
+        // 内联类型且无排队任务：直接执行
+        if (!blocking && idle) {
+            typeStats.run(System.nanoTime(), registration, ctx, message);
+            return;
+        }
+
+        // 处理在channelRead返回后才执行，负载需保留到处理结束
+        message.retain();
+        Executor executor = blocking ? command -> submitBlocking(ctx, command) : ctx.executor();
+        long enqueuedNanos = System.nanoTime();
+        Runnable task = () -> {
+            try {
+                typeStats.run(enqueuedNanos, registration, ctx, message);
+            } finally {
+                message.release();
+                onTaskDone(ctx, state);
+            }
+        };
+        // 先计数再提交：任务可能在提交返回前就已执行完并递减
+        int queued = state.queued.incrementAndGet();
+        try {
+            state.tail = idle
+                    ? CompletableFuture.runAsync(task, executor)
+                    : pending.thenRunAsync(task, executor);
+        } catch (RuntimeException e) {
+            state.queued.decrementAndGet();
+            message.release();
+            throw e;
+        }
+
+        // 排队过多时暂停读取该连接
+        if (queued >= highWaterMark && !state.paused) {
+            state.paused = true;
+            readPauses.increment();
+            ctx.channel().config().setAutoRead(false);
+            // 暂停前任务可能已全部执行完，再检查一次，避免再无任务触发恢复
+            resumeRead(ctx, state);
+        }
+    }
+
+    /**
+     * 提交阻塞处理任务；线程池队列已满时在EventLoop上稍后重试，保证任务不会在EventLoop上执行，
+     * 也不会因拒绝而使该Channel后续串联的任务全部失败
+     */
+    private void submitBlocking(ChannelHandlerContext ctx, Runnable command) {
+        try {
+            handlerTaskExecutor.execute(command);
+        } catch (RejectedExecutionException e) {
+            resubmits.increment();
+            ctx.executor().schedule(() -> submitBlocking(ctx, command), RESUBMIT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 排队的任务执行结束：回落到低水位时在EventLoop上恢复读取
+     */
+    private void onTaskDone(ChannelHandlerContext ctx, DispatchState state) {
+        if (state.queued.decrementAndGet() != lowWaterMark) {
+            return;
+        }
+        if (ctx.executor().inEventLoop()) {
+            resumeRead(ctx, state);
+        } else {
+            ctx.executor().execute(() -> resumeRead(ctx, state));
+        }
+    }
+
+    private void resumeRead(ChannelHandlerContext ctx, DispatchState state) {
+        if (state.paused && state.queued.get() <= lowWaterMark) {
+            state.paused = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private static DispatchState state(ChannelHandlerContext ctx) {
+        Attribute<DispatchState> attr = ctx.channel().attr(DISPATCH_STATE_ATTRIBUTE);
+        DispatchState state = attr.get();
+        if (state == null) {
+            // 只在EventLoop上调用，无并发初始化
+            state = new DispatchState();
+            attr.set(state);
+        }
+        return state;
+    }
+
+    /**
+     * 读取暂停次数与线程池拒绝后的重新提交次数
+     */
+    public Map<String, Object> getBackpressureStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("highWaterMark", highWaterMark);
+        result.put("lowWaterMark", lowWaterMark);
+        result.put("readPauses", readPauses.sum());
+        result.put("resubmits", resubmits.sum());
+        return result;
+    }
+
+    /**
+     * 各消息类型的处理统计（只包含已处理过的类型）
+     * queue为提交到开始执行的等待时间，run为处理耗时，单位微秒
+     */
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (MessageHandlerRegistry.Registration registration : messageHandlerRegistry.getRegistrations()) {
+            TypeStats typeStats = stats[registration.getCode() & 0xFF];
+            long count = typeStats.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("type", registration.getName());
+            item.put("mode", registration.isBlocking() ? "blocking" : "inline");
+            item.put("count", count);
+            item.put("avgQueueMicros", typeStats.queueNanos.sum() / count / 1000);
+            item.put("maxQueueMicros", typeStats.maxQueueNanos.get() / 1000);
+            item.put("avgRunMicros", typeStats.runNanos.sum() / count / 1000);
+            item.put("maxRunMicros", typeStats.maxRunNanos.get() / 1000);
+            result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * 单个Channel的分发状态
+     * tail 与 paused 只在EventLoop上访问，queued 在执行任务的线程中递减
+     */
+    private static final class DispatchState {
+        private final AtomicInteger queued = new AtomicInteger();
+        private CompletableFuture<Void> tail;
+        private boolean paused;
+    }
+
+    /**
+     * 单个消息类型的排队与执行耗时统计
+     */
+    private static final class TypeStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder queueNanos = new LongAdder();
+        private final LongAdder runNanos = new LongAdder();
+        private final LongAccumulator maxQueueNanos = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator maxRunNanos = new LongAccumulator(Math::max, 0);
+
+        void run(long enqueuedNanos, MessageHandlerRegistry.Registration registration, ChannelHandlerContext ctx, ProtocolMessage message) {
+            long start = System.nanoTime();
+            try {
+                // 用户ID在执行时读取：排在登录之后的消息能看到登录绑定的结果
+                String userId = ctx.channel().attr(IMMessageHandler.USER_ID_ATTRIBUTE).get();
+                registration.getHandler().handle(ctx, userId, message);
+            } catch (Throwable e) {
+                // 不向外抛出，保证同一Channel后续排队的任务继续执行
+                logger.error("消息[{}]处理异常", registration.getName(), e);
+            } finally {
+                long end = System.nanoTime();
+                count.increment();
+                queueNanos.add(start - enqueuedNanos);
+                runNanos.add(end - start);
+                maxQueueNanos.accumulate(start - enqueuedNanos);
+                maxRunNanos.accumulate(end - start);
+            }
+        }
+    }
+}
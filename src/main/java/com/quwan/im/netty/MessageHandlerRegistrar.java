@@ -0,0 +1,10 @@
+package com.quwan.im.netty;
+
+/**
+ * 扩展消息处理器注册入口
+ * 实现为Spring Bean即可在启动时向MessageHandlerRegistry注册自定义消息类型，无需修改IMMessageHandler
+ */
+public interface MessageHandlerRegistrar {
+
+    void registerHandlers(MessageHandlerRegistry registry);
+}
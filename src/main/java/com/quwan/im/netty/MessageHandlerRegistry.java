@@ -0,0 +1,122 @@
+package com.quwan.im.netty;
+
+import com.quwan.im.model.MessageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 消息处理器注册表
+ * 按消息编码（无符号 0~255）直接索引的数组，分发时一次数组访问即可取到处理器，不做查找、不分配对象。
+ *
+ * 内置消息类型由IMMessageHandler注册；扩展消息类型通过实现MessageHandlerRegistrar的Bean注册，
+ * 扩展类型不能占用MessageType已定义的编码。注册只在启动阶段进行，服务端开始接入连接后不再变化。
+ */
+@Component
+public class MessageHandlerRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(MessageHandlerRegistry.class);
+
+    private final Registration[] registrations = new Registration[256];
+
+    @Autowired(required = false)
+    private List<MessageHandlerRegistrar> registrars = Collections.emptyList();
+
+    @PostConstruct
+    public void init() {
+        for (MessageHandlerRegistrar registrar : registrars) {
+            registrar.registerHandlers(this);
+        }
+    }
+
+    /**
+     * 注册内置消息类型的处理器
+     * @param type 消息类型
+     * @param blocking 处理过程中是否有数据库等阻塞调用（是则在线程池中执行）
+     * @param handler 处理器
+     */
+    public void register(MessageType type, boolean blocking, MessageTypeHandler handler) {
+        doRegister(type.getCode(), type.name(), blocking, handler);
+    }
+
+    /**
+     * 注册扩展消息类型的处理器
+     * @param code 消息编码，不能是MessageType已定义的编码
+     * @param name 类型名称，用于日志与统计
+     * @param blocking 处理过程中是否有数据库等阻塞调用（是则在线程池中执行）
+     * @param handler 处理器
+     */
+    public void register(byte code, String name, boolean blocking, MessageTypeHandler handler) {
+        if (MessageType.findByCode(code) != null) {
+            throw new IllegalArgumentException("消息编码" + code + "已被内置类型" + MessageType.findByCode(code) + "占用");
+        }
+        doRegister(code, name, blocking, handler);
+    }
+
+    private synchronized void doRegister(byte code, String name, boolean blocking, MessageTypeHandler handler) {
+        Registration existing = registrations[code & 0xFF];
+        if (existing != null) {
+            throw new IllegalStateException("消息编码" + code + "重复注册: " + existing.name + " / " + name);
+        }
+        registrations[code & 0xFF] = new Registration(code, name, blocking, handler);
+        logger.debug("注册消息处理器: {}({}), blocking={}", name, code, blocking);
+    }
+
+    /**
+     * 按编码取处理器注册信息，未注册返回null
+     */
+    public Registration get(byte code) {
+        return registrations[code & 0xFF];
+    }
+
+    /**
+     * 所有已注册的处理器（按编码顺序）
+     */
+    public List<Registration> getRegistrations() {
+        List<Registration> result = new ArrayList<>();
+        for (Registration registration : registrations) {
+            if (registration != null) {
+                result.add(registration);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 处理器注册信息
+     */
+    public static final class Registration {
+        private final byte code;
+        private final String name;
+        private final boolean blocking;
+        private final MessageTypeHandler handler;
+
+        Registration(byte code, String name, boolean blocking, MessageTypeHandler handler) {
+            this.code = code;
+            this.name = name;
+            this.blocking = blocking;
+            this.handler = handler;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isBlocking() {
+            return blocking;
+        }
+
+        public MessageTypeHandler getHandler() {
+            return handler;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.quwan.im.netty;
+
+import com.quwan.im.model.ProtocolMessage;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * 单个消息类型的处理器
+ * 通过MessageHandlerRegistry按消息编码注册，由MessageDispatcher调用
+ */
+@FunctionalInterface
+public interface MessageTypeHandler {
+
+    /**
+     * 处理消息
+     * @param ctx 通道上下文
+     * @param userId 当前登录用户ID（执行时读取），未登录为null
+     * @param message 协议消息，处理返回后由调用方释放，需要异步使用时先retain()
+     */
+    void handle(ChannelHandlerContext ctx, String userId, ProtocolMessage message) throws Exception;
+}
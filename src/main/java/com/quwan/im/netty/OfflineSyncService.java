@@ -0,0 +1,279 @@
+package com.quwan.im.netty;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quwan.im.entity.MessageEntity;
+import com.quwan.im.model.IMMessage;
+import com.quwan.im.model.MessageType;
+import com.quwan.im.model.ProtocolMessage;
+import com.quwan.im.persistence.ConversationSequencer;
+import com.quwan.im.service.GroupService;
+import com.quwan.im.service.MessageService;
+import com.quwan.im.service.ReadCursorService;
+import com.quwan.im.util.KeyedExecutor;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 离线消息增量同步
+ * 客户端发送SYNC请求，携带各会话已收到的最大序号（未携带的会话按服务端已读游标），
+ * 服务端按会话逐页查询缺失的消息，以SYNC_RESPONSE分页推送，最后发送一条 done=true 的结束页。
+ *
+ * 流控：每页写出后若Channel不可写（出站缓冲超过高水位）则暂停，可写后再查询下一页；
+ * 查询在用户的消息执行通道中进行，同一用户同时最多一个查询在执行。
+ * 可写期间在同一个任务内循环写出各页，不向自己所在的通道重新提交；从I/O线程发起时使用不阻塞的 offer 提交。
+ * 每个会话最多同步 max-per-conversation 条（从最新往前），更早的消息由客户端按历史接口分页拉取。
+ */
+@Component
+public class OfflineSyncService {
+    private static final Logger logger = LoggerFactory.getLogger(OfflineSyncService.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final AttributeKey<SyncSession> SYNC_SESSION_ATTRIBUTE = AttributeKey.newInstance("syncSession");
+
+    @Autowired
+    private MessageService messageService;
+
+    @Autowired
+    private ReadCursorService readCursorService;
+
+    @Autowired
+    private GroupService groupService;
+
+    @Autowired
+    private ConversationSequencer conversationSequencer;
+
+    @Autowired
+    private KeyedExecutor messageKeyedExecutor;
+
+    private final int pageSize;
+    private final int maxPerConversation;
+
+    public OfflineSyncService(@Value("${im.sync.page-size:100}") int pageSize,
+                              @Value("${im.sync.max-per-conversation:1000}") int maxPerConversation) {
+        this.pageSize = pageSize;
+        this.maxPerConversation = maxPerConversation;
+    }
+
+    /**
+     * 开始同步，替换该Channel上未完成的同步
+     * @param channel 用户连接
+     * @param userId 用户ID
+     * @param clientSeqs 客户端各会话已收到的最大序号，可为空
+     */
+    public void startSync(Channel channel, String userId, Map<String, Number> clientSeqs) {
+
+        Map<String, Long> startSeqs = readCursorService.getReadSeqs(userId);
+        if (clientSeqs != null) {
+            for (Map.Entry<String, Number> entry : clientSeqs.entrySet()) {
+                if (entry.getValue() != null && canAccess(userId, entry.getKey())) {
+                    startSeqs.put(entry.getKey(), entry.getValue().longValue());
+                }
+            }
+        }
+
+        scheduleNextPage(begin(channel, userId, startSeqs));
+    }
+
+    /**
+     * 补同步指定会话，与该Channel上未完成的同步合并
+     * 用于慢连接恢复可写后补发期间未推送的消息（见SlowConsumerGuard）
+     * 在I/O线程中调用，使用不阻塞的 offer 提交
+     * @param afterSeqs 会话ID -> 从该序号之后开始同步
+     */
+    public void resume(Channel channel, String userId, Map<String, Long> afterSeqs) {
+
+        // 在用户的执行通道中合并：未完成同步的pending只在该通道中访问
+        messageKeyedExecutor.offer(userId, () -> {
+            Map<String, Long> merged = new LinkedHashMap<>(afterSeqs);
+            SyncSession previous = channel.attr(SYNC_SESSION_ATTRIBUTE).get();
+            if (previous != null && !previous.cancelled) {
+                for (ConversationCursor cursor : previous.pending) {
+                    merged.merge(cursor.conversationId, cursor.afterSeq, Math::min);
+                }
+            }
+            // 已在用户的执行通道中，直接写出而不是再次提交到本通道
+            sendPages(begin(channel, userId, merged));
+        });
+    }
+
+    private SyncSession begin(Channel channel, String userId, Map<String, Long> startSeqs) {
+
+        SyncSession session = new SyncSession(channel, userId);
+        // 各会话的最新序号一次批量查出，而不是每个好友、群各查一次
+        Map<String, Long> latestSeqs = conversationSequencer.current(startSeqs.keySet());
+        for (Map.Entry<String, Long> entry : startSeqs.entrySet()) {
+            long latest = latestSeqs.getOrDefault(entry.getKey(), 0L);
+            long afterSeq = entry.getValue();
+            if (latest <= afterSeq) {
+                continue;
+            }
+            // 落后太多时只同步最近的部分
+            boolean truncated = latest - afterSeq > maxPerConversation;
+            session.pending.add(new ConversationCursor(entry.getKey(), truncated ? latest - maxPerConversation : afterSeq, truncated));
+        }
+
+        SyncSession previous = channel.attr(SYNC_SESSION_ATTRIBUTE).getAndSet(session);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        logger.info("用户[{}]开始增量同步，待同步会话数: {}", userId, session.pending.size());
+        return session;
+    }
+
+    /**
+     * Channel可写性变化时恢复暂停的同步（由IMMessageHandler转发）
+     */
+    public void onWritabilityChanged(Channel channel) {
+        SyncSession session = channel.attr(SYNC_SESSION_ATTRIBUTE).get();
+        if (session != null && channel.isWritable() && session.paused.compareAndSet(true, false)) {
+            scheduleNextPage(session);
+        }
+    }
+
+    private void scheduleNextPage(SyncSession session) {
+        messageKeyedExecutor.offer(session.userId, () -> sendPages(session));
+    }
+
+    /**
+     * 在用户的执行通道中连续写出各页，直到同步完成或Channel不可写
+     */
+    private void sendPages(SyncSession session) {
+        try {
+            while (sendNextPage(session)) {
+                // 继续下一页
+            }
+        } catch (Exception e) {
+            logger.error("用户[{}]增量同步失败", session.userId, e);
+            session.channel.attr(SYNC_SESSION_ATTRIBUTE).compareAndSet(session, null);
+        }
+    }
+
+    /**
+     * 查询并写出下一页
+     * @return 仍可写且未完成时返回true，由调用方继续下一页；完成、取消或已暂停等待可写时返回false
+     */
+    private boolean sendNextPage(SyncSession session) throws Exception {
+
+        Channel channel = session.channel;
+        if (session.cancelled || !channel.isActive()) {
+            return false;
+        }
+
+        ConversationCursor cursor = session.pending.peek();
+        if (cursor == null) {
+            Map<String, Object> done = new LinkedHashMap<>();
+            done.put("done", true);
+            done.put("messages", session.sent);
+            channel.writeAndFlush(new ProtocolMessage(MessageType.SYNC_RESPONSE.getCode(), objectMapper.writeValueAsString(done)));
+            channel.attr(SYNC_SESSION_ATTRIBUTE).compareAndSet(session, null);
+            logger.info("用户[{}]增量同步完成，共{}条", session.userId, session.sent);
+            return false;
+        }
+
+        // 多查一条用于判断是否还有下一页
+        List<MessageEntity> rows = messageService.getMessagesAfter(cursor.conversationId, cursor.afterSeq, pageSize + 1);
+        boolean hasMore = rows.size() > pageSize;
+        if (hasMore) {
+            rows = rows.subList(0, pageSize);
+        }
+        if (!hasMore) {
+            session.pending.poll();
+        }
+
+        if (!rows.isEmpty()) {
+            List<IMMessage> messages = new ArrayList<>(rows.size());
+            for (MessageEntity row : rows) {
+                messages.add(toIMMessage(row));
+            }
+            cursor.afterSeq = rows.get(rows.size() - 1).getSeq();
+            session.sent += rows.size();
+
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("conversationId", cursor.conversationId);
+            page.put("truncated", cursor.truncated);
+            page.put("hasMore", hasMore);
+            page.put("messages", messages);
+            // 分页可能超过IMMessage字段64KB的限制，按文本负载发送
+            channel.writeAndFlush(new ProtocolMessage(MessageType.SYNC_RESPONSE.getCode(), objectMapper.writeValueAsString(page)));
+        }
+
+        if (channel.isWritable()) {
+            return true;
+        }
+        // 暂停后再检查一次，避免错过暂停前刚发生的可写事件
+        session.paused.set(true);
+        return channel.isWritable() && session.paused.compareAndSet(true, false);
+    }
+
+    /**
+     * 客户端指定的会话是否属于该用户
+     */
+    private boolean canAccess(String userId, String conversationId) {
+        String groupId = ConversationSequencer.groupIdOf(conversationId);
+        if (groupId != null) {
+            return groupService.isGroupMember(groupId, userId);
+        }
+        return ConversationSequencer.isSingleChatParticipant(conversationId, userId);
+    }
+
+    /**
+     * 转换实体类为消息对象
+     */
+    private static IMMessage toIMMessage(MessageEntity entity) {
+
+        IMMessage message = new IMMessage();
+        message.setId(entity.getMessageId());
+        message.setFrom(entity.getFromUser());
+        message.setTo(entity.getToUser());
+        message.setGroupId(entity.getGroupId());
+        message.setContent(entity.getContent());
+        message.setType(Byte.parseByte(entity.getType()));
+        if (entity.getSeq() != null) {
+            message.setSeq(entity.getSeq());
+        }
+        return message;
+    }
+
+    /**
+     * 单个Channel上的一次同步
+     * pending 与 sent 只在用户的执行通道中访问
+     */
+    private static final class SyncSession {
+        private final Channel channel;
+        private final String userId;
+        private final Deque<ConversationCursor> pending = new ArrayDeque<>();
+        private final AtomicBoolean paused = new AtomicBoolean();
+        private volatile boolean cancelled;
+        private long sent;
+
+        SyncSession(Channel channel, String userId) {
+            this.channel = channel;
+            this.userId = userId;
+        }
+    }
+
+    private static final class ConversationCursor {
+        private final String conversationId;
+        private final boolean truncated;
+        private long afterSeq;
+
+        ConversationCursor(String conversationId, long afterSeq, boolean truncated) {
+            this.conversationId = conversationId;
+            this.afterSeq = afterSeq;
+            this.truncated = truncated;
+        }
+    }
+}
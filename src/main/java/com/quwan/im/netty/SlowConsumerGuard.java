@@ -0,0 +1,218 @@
+package com.quwan.im.netty;
+
+import com.quwan.im.model.IMMessage;
+import com.quwan.im.model.MessageType;
+import com.quwan.im.model.ProtocolMessage;
+import com.quwan.im.persistence.ConversationSequencer;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 慢连接保护
+ * Channel出站缓冲超过高水位（WRITE_BUFFER_WATER_MARK）后变为不可写，此时推送的消息按策略处理，避免缓冲无限增长：
+ * drop：丢弃聊天消息，客户端根据会话序号的缺口自行发送SYNC补齐；
+ * sync：丢弃聊天消息并记录各会话漏推的起点，恢复可写后由服务端按会话增量同步（切换为拉取）；
+ * disconnect：直接断开，客户端重连后发送SYNC。
+ *
+ * 只有已持久化且带会话序号的聊天消息（单聊、群聊）可以丢弃；响应、通知等其他帧照常写出，
+ * 但出站缓冲超过 max-pending-bytes 时无论何种策略都断开连接。
+ */
+@Component
+public class SlowConsumerGuard {
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerGuard.class);
+
+    private static final AttributeKey<ConsumerState> CONSUMER_STATE_ATTRIBUTE = AttributeKey.newInstance("slowConsumerState");
+
+    /**
+     * 慢连接处理策略
+     */
+    public enum Policy {
+        DROP, SYNC, DISCONNECT;
+
+        static Policy fromConfig(String value) {
+            return Policy.valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    @Autowired
+    private OfflineSyncService offlineSyncService;
+
+    private final Policy policy;
+    private final long maxPendingBytes;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LongAdder resynced = new LongAdder();
+
+    public SlowConsumerGuard(@Value("${im.server.slow-consumer.policy:sync}") String policy,
+                             @Value("${im.server.slow-consumer.max-pending-bytes:4194304}") long maxPendingBytes) {
+        this.policy = Policy.fromConfig(policy);
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    /**
+     * 写出前检查，可在任意线程调用
+     * @return 是否写出；false表示已按策略丢弃或断开，调用方不再写出（也不需要释放message之外的资源）
+     */
+    public boolean admit(Channel channel, ProtocolMessage message) {
+
+        if (channel.isWritable()) {
+            return true;
+        }
+
+        boolean droppable = isDroppable(message);
+        if (!droppable && pendingBytes(channel) <= maxPendingBytes) {
+            return true;
+        }
+
+        if (!droppable || policy == Policy.DISCONNECT) {
+            disconnect(channel);
+            return false;
+        }
+
+        ConsumerState state = state(channel);
+        state.dropped.increment();
+        dropped.increment();
+        if (policy == Policy.SYNC) {
+            IMMessage imMessage = message.getImMessage();
+            // 记录该会话第一条漏推消息之前的序号，恢复可写后从这里开始同步
+            state.missedAfter.merge(ConversationSequencer.conversationIdOf(imMessage), imMessage.getSeq() - 1, Math::min);
+            // 记录前Channel可能已恢复可写，补一次检查，避免漏推的会话等到下一次可写事件
+            if (channel.isWritable()) {
+                onWritabilityChanged(channel);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Channel可写性变化（由IMMessageHandler转发）：恢复可写后按会话补同步漏推的消息
+     */
+    public void onWritabilityChanged(Channel channel) {
+
+        if (!channel.isWritable()) {
+            return;
+        }
+        ConsumerState state = channel.attr(CONSUMER_STATE_ATTRIBUTE).get();
+        String userId = IMMessageHandler.getUserIdFromChannel(channel);
+        if (state == null || userId == null || state.missedAfter.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> afterSeqs = new HashMap<>();
+        for (String conversationId : state.missedAfter.keySet()) {
+            Long afterSeq = state.missedAfter.remove(conversationId);
+            if (afterSeq != null) {
+                afterSeqs.put(conversationId, afterSeq);
+            }
+        }
+        if (!afterSeqs.isEmpty()) {
+            resynced.increment();
+            logger.info("用户[{}]连接恢复可写，补同步{}个会话", userId, afterSeqs.size());
+            offlineSyncService.resume(channel, userId, afterSeqs);
+        }
+    }
+
+    /**
+     * 全局统计与出站缓冲积压最多的连接
+     * @param top 返回的连接数
+     */
+    public Map<String, Object> getStats(int top) {
+
+        List<Map<String, Object>> connections = new ArrayList<>();
+        long totalPending = 0;
+        int unwritable = 0;
+        for (Map.Entry<String, Channel> entry : IMMessageHandler.getOnlineChannels().entrySet()) {
+            Channel channel = entry.getValue();
+            long pending = pendingBytes(channel);
+            totalPending += pending;
+            if (!channel.isWritable()) {
+                unwritable++;
+            }
+            ConsumerState state = channel.attr(CONSUMER_STATE_ATTRIBUTE).get();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("userId", entry.getKey());
+            item.put("pendingBytes", pending);
+            item.put("writable", channel.isWritable());
+            item.put("bytesBeforeUnwritable", channel.bytesBeforeUnwritable());
+            item.put("dropped", state != null ? state.dropped.sum() : 0L);
+            connections.add(item);
+        }
+        connections.sort(Comparator.comparingLong((Map<String, Object> item) -> (Long) item.get("pendingBytes")).reversed());
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("policy", policy.name().toLowerCase());
+        stats.put("maxPendingBytes", maxPendingBytes);
+        stats.put("totalPendingBytes", totalPending);
+        stats.put("unwritableConnections", unwritable);
+        stats.put("dropped", dropped.sum());
+        stats.put("disconnected", disconnected.sum());
+        stats.put("resynced", resynced.sum());
+        stats.put("connections", connections.subList(0, Math.min(top, connections.size())));
+        return stats;
+    }
+
+    /**
+     * 出站缓冲中待写出的字节数
+     */
+    public static long pendingBytes(Channel channel) {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer != null ? buffer.totalPendingWriteBytes() : 0L;
+    }
+
+    /**
+     * 可丢弃的帧：已分配会话序号的单聊、群聊消息（已持久化，客户端可通过SYNC补齐）
+     */
+    private static boolean isDroppable(ProtocolMessage message) {
+        IMMessage imMessage = message.getImMessage();
+        if (imMessage == null || imMessage.getSeq() <= 0) {
+            return false;
+        }
+        byte type = message.getType();
+        return type == MessageType.SINGLE_CHAT.getCode() || type == MessageType.GROUP_CHAT.getCode();
+    }
+
+    private void disconnect(Channel channel) {
+        if (channel.isActive()) {
+            disconnected.increment();
+            logger.warn("用户[{}]出站缓冲积压{}字节，断开慢连接", IMMessageHandler.getUserIdFromChannel(channel), pendingBytes(channel));
+            channel.close();
+        }
+    }
+
+    private static ConsumerState state(Channel channel) {
+        ConsumerState state = channel.attr(CONSUMER_STATE_ATTRIBUTE).get();
+        if (state == null) {
+            ConsumerState created = new ConsumerState();
+            state = channel.attr(CONSUMER_STATE_ATTRIBUTE).setIfAbsent(created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * 单个连接的慢连接状态
+     */
+    private static final class ConsumerState {
+        private final LongAdder dropped = new LongAdder();
+        // 会话ID -> 漏推的第一条消息之前的序号
+        private final Map<String, Long> missedAfter = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,113 @@
+package com.quwan.im.netty;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 服务端IO传输方式
+ * 对应配置 im.server.transport=nio|epoll|io_uring|auto
+ * 原生传输不可用时（非Linux、缺少native库等）自动回退到NIO
+ */
+public enum TransportType {
+    NIO,
+    EPOLL,
+    IO_URING,
+    AUTO;
+
+    private static final Logger logger = LoggerFactory.getLogger(TransportType.class);
+
+    /**
+     * 解析配置值（忽略大小写，支持 io_uring / io-uring 两种写法）
+     * @param value 配置值
+     * @return 对应的传输方式，无法识别时返回AUTO
+     */
+    public static TransportType fromConfig(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return AUTO;
+        }
+        String normalized = value.trim().toUpperCase().replace('-', '_');
+        for (TransportType type : values()) {
+            if (type.name().equals(normalized)) {
+                return type;
+            }
+        }
+        logger.warn("未知的传输方式配置: {}，使用AUTO", value);
+        return AUTO;
+    }
+
+    /**
+     * 当前平台是否支持该传输方式
+     */
+    public boolean isAvailable() {
+        switch (this) {
+            case EPOLL:
+                return Epoll.isAvailable();
+            case IO_URING:
+                try {
+                    return IOUring.isAvailable();
+                } catch (Throwable e) {
+                    // io_uring 依赖未在classpath中
+                    return false;
+                }
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 得到实际使用的传输方式
+     * AUTO 优先选择 epoll（io_uring 仍处于孵化阶段，需显式开启），不可用时回退NIO
+     */
+    public TransportType resolve() {
+        if (this == AUTO) {
+            return EPOLL.isAvailable() ? EPOLL : NIO;
+        }
+        if (!isAvailable()) {
+            logger.warn("传输方式[{}]在当前平台不可用，回退到NIO", name());
+            return NIO;
+        }
+        return this;
+    }
+
+    /**
+     * 创建对应的事件循环组（需先调用 resolve）
+     */
+    public EventLoopGroup newEventLoopGroup(int threads) {
+        switch (this) {
+            case EPOLL:
+                return new EpollEventLoopGroup(threads);
+            case IO_URING:
+                return new IOUringEventLoopGroup(threads);
+            case NIO:
+                return new NioEventLoopGroup(threads);
+            default:
+                throw new IllegalStateException("传输方式未解析: " + name());
+        }
+    }
+
+    /**
+     * 对应的服务端Channel类型（需先调用 resolve）
+     */
+    public Class<? extends ServerChannel> serverChannelClass() {
+        switch (this) {
+            case EPOLL:
+                return EpollServerSocketChannel.class;
+            case IO_URING:
+                return IOUringServerSocketChannel.class;
+            case NIO:
+                return NioServerSocketChannel.class;
+            default:
+                throw new IllegalStateException("传输方式未解析: " + name());
+        }
+    }
+}
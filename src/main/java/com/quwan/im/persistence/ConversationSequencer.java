@@ -0,0 +1,85 @@
+package com.quwan.im.persistence;
+
+import com.quwan.im.model.IMMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 会话序号分配器
+ * 每个会话（单聊双方、群）一个单调递增的序号，作为消息在会话内的唯一顺序与历史分页游标。
+ * 序号由 SequenceStore 分配：单节点为JVM内计数器，集群模式为各节点共享的Redis计数器（见ClusterConfig）。
+ */
+@Component
+public class ConversationSequencer {
+
+    private static final String SINGLE_CHAT_PREFIX = "p:";
+    private static final String GROUP_CHAT_PREFIX = "g:";
+
+    @Autowired
+    private SequenceStore sequenceStore;
+
+    /**
+     * 单聊会话ID（与发送方向无关）
+     */
+    public static String singleChatId(String userA, String userB) {
+        return userA.compareTo(userB) <= 0
+                ? SINGLE_CHAT_PREFIX + userA + ":" + userB
+                : SINGLE_CHAT_PREFIX + userB + ":" + userA;
+    }
+
+    /**
+     * 群聊会话ID
+     */
+    public static String groupChatId(String groupId) {
+        return GROUP_CHAT_PREFIX + groupId;
+    }
+
+    /**
+     * 群聊会话对应的群ID，非群聊会话返回null
+     */
+    public static String groupIdOf(String conversationId) {
+        return conversationId.startsWith(GROUP_CHAT_PREFIX) ? conversationId.substring(GROUP_CHAT_PREFIX.length()) : null;
+    }
+
+    /**
+     * 用户是否为该单聊会话的一方
+     */
+    public static boolean isSingleChatParticipant(String conversationId, String userId) {
+        return conversationId.startsWith(SINGLE_CHAT_PREFIX + userId + ":")
+                || (conversationId.startsWith(SINGLE_CHAT_PREFIX) && conversationId.endsWith(":" + userId));
+    }
+
+    /**
+     * 消息所属会话ID：群消息按群，否则按单聊双方
+     */
+    public static String conversationIdOf(IMMessage message) {
+        if (message.getGroupId() != null && !message.getGroupId().isEmpty()) {
+            return groupChatId(message.getGroupId());
+        }
+        return singleChatId(message.getFrom(), message.getTo());
+    }
+
+    /**
+     * 分配会话的下一个序号（从1开始）
+     */
+    public long next(String conversationId) {
+        return sequenceStore.next(conversationId);
+    }
+
+    /**
+     * 会话当前已分配的最大序号，未有消息时为0（只读，不创建计数器）
+     */
+    public long current(String conversationId) {
+        return sequenceStore.current(conversationId);
+    }
+
+    /**
+     * 批量查询多个会话当前已分配的最大序号，每个会话都有结果（未有消息时为0）
+     */
+    public Map<String, Long> current(Collection<String> conversationIds) {
+        return sequenceStore.current(conversationIds);
+    }
+}
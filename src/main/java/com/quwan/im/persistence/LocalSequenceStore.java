@@ -0,0 +1,153 @@
+package com.quwan.im.persistence;
+
+import com.quwan.im.entity.MessageEntity;
+import com.quwan.im.mapper.MessageMapper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JVM内的会话序号存储（单节点）
+ * 计数器首次分配时从库中最大序号加载，之后只在内存中递增。
+ * 计数器按会话LRU淘汰，但只淘汰空闲超过 min-idle 的计数器：消息写入是异步批量的，
+ * 库中的最大序号可能落后于刚分配的序号，空闲足够久后重新从库加载才不会重复。
+ * 没有可淘汰的计数器时允许暂时超过上限。
+ */
+public class LocalSequenceStore implements SequenceStore {
+
+    // 批量查询库中最大序号时每条SQL最多的会话数
+    private static final int MAX_SEQS_BATCH = 500;
+
+    private final MessageMapper messageMapper;
+    private final int maxConversations;
+    private final long minIdleNanos;
+
+    // 访问顺序的LRU，所有访问都在 synchronized(counters) 内
+    private final LinkedHashMap<String, Counter> counters;
+
+    /**
+     * @param maxConversations 最多缓存的会话计数器数量
+     * @param minIdleSeconds 计数器至少空闲多久才可被淘汰，需大于消息异步写入的最大延迟
+     */
+    public LocalSequenceStore(MessageMapper messageMapper, int maxConversations, long minIdleSeconds) {
+        this.messageMapper = messageMapper;
+        this.maxConversations = maxConversations;
+        this.minIdleNanos = TimeUnit.SECONDS.toNanos(minIdleSeconds);
+        this.counters = new LinkedHashMap<String, Counter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Counter> eldest) {
+                return size() > LocalSequenceStore.this.maxConversations
+                        && System.nanoTime() - eldest.getValue().lastUsedNanos > minIdleNanos;
+            }
+        };
+    }
+
+    /**
+     * 取计数器、刷新使用时间与递增都在锁内完成：淘汰也在锁内判断，
+     * 正在分配的计数器不会在取出之后、递增之前被当作空闲淘汰（淘汰后重新加载的库中最大序号可能落后，会分配出重复序号）
+     */
+    @Override
+    public long next(String conversationId) {
+        synchronized (counters) {
+            Counter counter = counters.get(conversationId);
+            if (counter != null) {
+                return counter.next();
+            }
+        }
+        // 查询放在锁外，避免持有锁访问数据库；并发加载时只保留先放入的计数器
+        Long max = messageMapper.selectMaxSeq(conversationId);
+        Counter loaded = new Counter(max != null ? max : 0L);
+        synchronized (counters) {
+            Counter counter = counters.get(conversationId);
+            if (counter == null) {
+                counter = loaded;
+                // 先递增再放入：放入时触发的淘汰检查看到的是刚使用过的计数器
+                long seq = counter.next();
+                counters.put(conversationId, counter);
+                return seq;
+            }
+            return counter.next();
+        }
+    }
+
+    @Override
+    public long current(String conversationId) {
+        Counter counter;
+        synchronized (counters) {
+            counter = counters.get(conversationId);
+        }
+        if (counter != null) {
+            return counter.value.get();
+        }
+        // 未缓存的会话近期没有在本节点分配序号，库中的最大序号即为当前值
+        Long max = messageMapper.selectMaxSeq(conversationId);
+        return max != null ? max : 0L;
+    }
+
+    @Override
+    public Map<String, Long> current(Collection<String> conversationIds) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (counters) {
+            for (String conversationId : conversationIds) {
+                Counter counter = counters.get(conversationId);
+                if (counter != null) {
+                    result.put(conversationId, counter.value.get());
+                } else {
+                    result.put(conversationId, 0L);
+                    missing.add(conversationId);
+                }
+            }
+        }
+        result.putAll(selectMaxSeqs(messageMapper, missing));
+        return result;
+    }
+
+    /**
+     * 当前缓存的会话计数器数量
+     */
+    public int size() {
+        synchronized (counters) {
+            return counters.size();
+        }
+    }
+
+    /**
+     * 分批查询库中各会话的最大序号，没有消息的会话不在结果中
+     */
+    static Map<String, Long> selectMaxSeqs(MessageMapper messageMapper, List<String> conversationIds) {
+        Map<String, Long> maxSeqs = new HashMap<>();
+        for (int from = 0; from < conversationIds.size(); from += MAX_SEQS_BATCH) {
+            List<String> batch = conversationIds.subList(from, Math.min(from + MAX_SEQS_BATCH, conversationIds.size()));
+            for (MessageEntity row : messageMapper.selectMaxSeqs(batch)) {
+                if (row.getSeq() != null) {
+                    maxSeqs.put(row.getConversationId(), row.getSeq());
+                }
+            }
+        }
+        return maxSeqs;
+    }
+
+    private static final class Counter {
+        private final AtomicLong value;
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        Counter(long initial) {
+            this.value = new AtomicLong(initial);
+        }
+
+        /**
+         * 刷新使用时间并分配下一个序号，调用方持有 counters 的锁
+         */
+        long next() {
+            lastUsedNanos = System.nanoTime();
+            return value.incrementAndGet();
+        }
+    }
+}
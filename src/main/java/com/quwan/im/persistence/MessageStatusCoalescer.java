@@ -0,0 +1,82 @@
+package com.quwan.im.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息状态合并
+ * 同一时间窗口内对同一消息的多次状态更新只保留最高状态：SENT < DELIVERED < READ < RECALLED，
+ * 刷新时按目标状态分组，每组一条批量UPDATE。
+ * 非线程安全，由MessageWriteBehind的刷盘线程独占使用。
+ */
+public class MessageStatusCoalescer {
+
+    // 状态从低到高
+    private static final List<String> STATUS_ORDER = Arrays.asList("SENT", "DELIVERED", "READ", "RECALLED");
+
+    private final Map<Long, String> pending = new HashMap<>();
+
+    // 合并掉的更新次数
+    private long coalesced;
+
+    /**
+     * 状态等级，未知状态为-1
+     */
+    public static int rank(String status) {
+        return STATUS_ORDER.indexOf(status);
+    }
+
+    /**
+     * 取两者中较高的状态；等级相同（含同为未知状态）时取后到的
+     */
+    public static String higher(String current, String incoming) {
+        if (current == null) {
+            return incoming;
+        }
+        return rank(incoming) >= rank(current) ? incoming : current;
+    }
+
+    /**
+     * 记录一次状态更新
+     */
+    public void add(Long messageId, String status) {
+        String previous = pending.put(messageId, higher(pending.get(messageId), status));
+        if (previous != null) {
+            coalesced++;
+        }
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * 按目标状态分组取出待更新的消息ID，并清空
+     * @return 状态 -> 消息ID列表（按状态从低到高）
+     */
+    public Map<String, List<Long>> drainByStatus() {
+        Map<String, List<Long>> groups = new LinkedHashMap<>();
+        for (String status : STATUS_ORDER) {
+            groups.put(status, new ArrayList<>());
+        }
+        for (Map.Entry<Long, String> entry : pending.entrySet()) {
+            groups.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+        groups.values().removeIf(List::isEmpty);
+        pending.clear();
+        return groups;
+    }
+
+    /**
+     * 取出并清零合并掉的更新次数
+     */
+    public long drainCoalescedCount() {
+        long count = coalesced;
+        coalesced = 0;
+        return count;
+    }
+}
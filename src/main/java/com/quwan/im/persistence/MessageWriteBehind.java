@@ -0,0 +1,329 @@
+package com.quwan.im.persistence;
+
+import com.quwan.im.entity.MessageEntity;
+import com.quwan.im.mapper.MessageMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消息异步批量写入（write-behind）
+ * 消息写操作先进入有界环形队列（ArrayBlockingQueue），由单个刷盘线程按数量或时间阈值取出一批：
+ * 新消息合并为一条多行INSERT，状态更新在INSERT之后执行。
+ *
+ * 状态更新与消息写入走同一队列并由同一线程按顺序执行，保证“先存储、后更新状态”；
+ * 同一批中针对本批新消息的状态更新直接合并进INSERT，不再单独执行UPDATE；
+ * 其余状态更新经MessageStatusCoalescer按消息只保留最高状态，再按目标状态分组批量UPDATE。
+ * 队列满时提交方最多等待 enqueue-timeout-ms：新消息仍无法入队则返回false由调用方同步写入；
+ * 状态更新不同步写入（此时对应的INSERT可能仍在队列中，UPDATE会落空），而是进入溢出队列，
+ * 记录提交时已入队的写操作数，等这些写操作全部刷盘后再并入下一次刷盘的状态合并。
+ */
+@Component
+public class MessageWriteBehind {
+    private static final Logger logger = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    private final MessageMapper messageMapper;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long enqueueTimeoutMillis;
+    private final BlockingQueue<WriteOp> queue;
+
+    // 仅刷盘线程访问
+    private final MessageStatusCoalescer statusCoalescer = new MessageStatusCoalescer();
+
+    // 队列满时暂存的状态更新，容量与队列相同
+    private final Queue<WriteOp> statusOverflow = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger statusOverflowSize = new AtomicInteger();
+    private final int capacity;
+
+    // 已入队的写操作数（入队成功后递增）与已刷盘的写操作数（仅刷盘线程访问）
+    private final AtomicLong enqueuedOps = new AtomicLong();
+    private long flushedOps;
+
+    private volatile boolean running;
+    private Thread flusher;
+
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder statusUpdates = new LongAdder();
+    private final LongAdder mergedStatusUpdates = new LongAdder();
+    private final LongAdder coalescedStatusUpdates = new LongAdder();
+    private final LongAdder statusStatements = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder deferredStatusUpdates = new LongAdder();
+    private final LongAdder droppedStatusUpdates = new LongAdder();
+
+    public MessageWriteBehind(MessageMapper messageMapper,
+                              @Value("${im.message.write-behind.capacity:10000}") int capacity,
+                              @Value("${im.message.write-behind.batch-size:500}") int batchSize,
+                              @Value("${im.message.write-behind.flush-interval-ms:20}") long flushIntervalMillis,
+                              @Value("${im.message.write-behind.enqueue-timeout-ms:100}") long enqueueTimeoutMillis) {
+        this.messageMapper = messageMapper;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        flusher = new Thread(this::runFlusher, "message-write-behind");
+        flusher.start();
+    }
+
+    /**
+     * 停止接收新的写操作，并把队列中剩余的写操作全部写入后返回
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        if (flusher != null) {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+            if (flusher.isAlive()) {
+                logger.warn("消息写入线程关闭超时，剩余写操作: {}", queue.size());
+            }
+        }
+    }
+
+    /**
+     * 提交新消息
+     * @return 是否已入队；false表示队列已满（背压），调用方需自行同步写入
+     */
+    public boolean submitInsert(MessageEntity entity) {
+        if (!running) {
+            return false;
+        }
+        if (enqueue(new WriteOp(entity, entity.getMessageId(), null, 0))) {
+            return true;
+        }
+        rejected.increment();
+        logger.warn("消息写入队列已满（{}），消息[{}]改为同步写入", queue.size(), entity.getMessageId());
+        return false;
+    }
+
+    /**
+     * 提交状态更新
+     * 队列满时进入溢出队列，在此之前入队的写操作（包括该消息的INSERT）全部刷盘后再执行；溢出队列也满时丢弃并计数
+     * @return 是否由写入线程处理；false表示写入线程已停止，调用方需自行同步写入
+     */
+    public boolean submitStatus(Long messageId, String status) {
+        if (!running) {
+            return false;
+        }
+        if (enqueue(new WriteOp(null, messageId, status, 0))) {
+            return true;
+        }
+        if (statusOverflowSize.incrementAndGet() > capacity) {
+            statusOverflowSize.decrementAndGet();
+            droppedStatusUpdates.increment();
+            logger.error("消息写入队列与状态溢出队列均已满，丢弃消息[{}]的状态更新: {}", messageId, status);
+            return true;
+        }
+        statusOverflow.add(new WriteOp(null, messageId, status, enqueuedOps.get()));
+        deferredStatusUpdates.increment();
+        return true;
+    }
+
+    private boolean enqueue(WriteOp op) {
+        try {
+            if (queue.offer(op, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                enqueuedOps.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * 写入统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", queue.size());
+        stats.put("capacity", queue.size() + queue.remainingCapacity());
+        stats.put("inserted", inserted.sum());
+        stats.put("statusUpdates", statusUpdates.sum());
+        stats.put("mergedStatusUpdates", mergedStatusUpdates.sum());
+        stats.put("coalescedStatusUpdates", coalescedStatusUpdates.sum());
+        stats.put("statusStatements", statusStatements.sum());
+        stats.put("batches", batches.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("statusOverflow", statusOverflowSize.get());
+        stats.put("deferredStatusUpdates", deferredStatusUpdates.sum());
+        stats.put("droppedStatusUpdates", droppedStatusUpdates.sum());
+        return stats;
+    }
+
+    private void runFlusher() {
+        List<WriteOp> batch = new ArrayList<>(batchSize);
+        // 停止后继续执行，直到队列与状态溢出队列清空
+        while (running || !queue.isEmpty() || !statusOverflow.isEmpty()) {
+            try {
+                collect(batch);
+                if (!batch.isEmpty() || !statusOverflow.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable e) {
+                logger.error("消息批量写入异常", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 取出一批写操作：凑满batchSize，或自第一条起超过flushInterval
+     */
+    private void collect(List<WriteOp> batch) throws InterruptedException {
+        WriteOp first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                break;
+            }
+            WriteOp next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<WriteOp> batch) {
+        Map<Long, MessageEntity> inserts = new LinkedHashMap<>();
+        for (WriteOp op : batch) {
+            if (op.entity != null) {
+                inserts.put(op.messageId, op.entity);
+                continue;
+            }
+            statusUpdates.increment();
+            MessageEntity pending = inserts.get(op.messageId);
+            if (pending != null) {
+                // 本批新消息的状态更新直接合并进INSERT（只升不降）
+                pending.setStatus(MessageStatusCoalescer.higher(pending.getStatus(), op.status));
+                mergedStatusUpdates.increment();
+            } else {
+                statusCoalescer.add(op.messageId, op.status);
+            }
+        }
+
+        if (!inserts.isEmpty()) {
+            insertBatch(new ArrayList<>(inserts.values()));
+        }
+        flushedOps += batch.size();
+        drainStatusOverflow();
+        if (!statusCoalescer.isEmpty()) {
+            coalescedStatusUpdates.add(statusCoalescer.drainCoalescedCount());
+            for (Map.Entry<String, List<Long>> group : statusCoalescer.drainByStatus().entrySet()) {
+                updateStatusBatch(group.getValue(), group.getKey());
+            }
+        }
+        batches.increment();
+    }
+
+    /**
+     * 把溢出队列中已可执行的状态更新并入状态合并：提交前已入队的写操作都已刷盘
+     */
+    private void drainStatusOverflow() {
+        WriteOp op;
+        while ((op = statusOverflow.peek()) != null && op.afterOps <= flushedOps) {
+            statusOverflow.poll();
+            statusOverflowSize.decrementAndGet();
+            statusUpdates.increment();
+            statusCoalescer.add(op.messageId, op.status);
+        }
+    }
+
+    /**
+     * 同一目标状态的消息合并为一条UPDATE；失败时逐条重试
+     */
+    private void updateStatusBatch(List<Long> messageIds, String status) {
+        try {
+            messageMapper.batchUpdateStatus(messageIds, status);
+            statusStatements.increment();
+            return;
+        } catch (Exception e) {
+            logger.warn("批量更新{}条消息状态为{}失败，改为逐条更新: {}", messageIds.size(), status, e.getMessage());
+        }
+        for (Long messageId : messageIds) {
+            try {
+                messageMapper.updateStatus(messageId, status);
+                statusStatements.increment();
+            } catch (Exception e) {
+                failed.increment();
+                logger.error("更新消息[{}]状态为{}失败", messageId, status, e);
+            }
+        }
+    }
+
+    /**
+     * 多行INSERT写入；整批失败时逐条重试，隔离个别异常数据（如主键冲突）
+     */
+    private void insertBatch(List<MessageEntity> entities) {
+        try {
+            messageMapper.batchInsert(entities);
+            inserted.add(entities.size());
+            return;
+        } catch (Exception e) {
+            logger.warn("批量写入{}条消息失败，改为逐条写入: {}", entities.size(), e.getMessage());
+        }
+        for (MessageEntity entity : entities) {
+            try {
+                messageMapper.insert(entity);
+                inserted.increment();
+            } catch (Exception e) {
+                failed.increment();
+                logger.error("保存消息[{}]失败", entity.getMessageId(), e);
+            }
+        }
+    }
+
+    /**
+     * 写操作：entity不为空表示新消息，否则为状态更新
+     * afterOps 仅用于溢出的状态更新：提交时已入队的写操作数
+     */
+    private static final class WriteOp {
+        private final MessageEntity entity;
+        private final Long messageId;
+        private final String status;
+        private final long afterOps;
+
+        WriteOp(MessageEntity entity, Long messageId, String status, long afterOps) {
+            this.entity = entity;
+            this.messageId = messageId;
+            this.status = status;
+            this.afterOps = afterOps;
+        }
+    }
+}
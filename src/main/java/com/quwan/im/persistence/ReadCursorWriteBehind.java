@@ -0,0 +1,172 @@
+package com.quwan.im.persistence;
+
+import com.quwan.im.entity.ReadCursorEntity;
+import com.quwan.im.mapper.ReadCursorMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已读游标异步批量写入
+ * 游标推进先在内存中按（用户，会话）合并，只保留最大序号，由后台线程每 flush-interval-ms 取出
+ * 合并为多行UPSERT写入（每条SQL最多 batch-size 行）；写入失败的游标留在待写表中，下次与期间新的推进一起重试。
+ *
+ * 用于发送方自己发出的消息视为已读：每发一条消息推进一次，合并后同一会话一个刷盘周期只写一行。
+ * 尚未写入的游标由 pendingSeq / pendingSeqs 提供给读取方，与库中的值取最大值。
+ */
+@Component
+public class ReadCursorWriteBehind {
+    private static final Logger logger = LoggerFactory.getLogger(ReadCursorWriteBehind.class);
+
+    private final ReadCursorMapper readCursorMapper;
+    private final long flushIntervalMillis;
+    private final int batchSize;
+
+    // 待写入的游标：用户ID -> (会话ID -> 最大序号)
+    private final Map<String, Map<String, Long>> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService flusher;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public ReadCursorWriteBehind(ReadCursorMapper readCursorMapper,
+                                 @Value("${im.read-cursor.write-behind.flush-interval-ms:200}") long flushIntervalMillis,
+                                 @Value("${im.read-cursor.write-behind.batch-size:500}") int batchSize) {
+        this.readCursorMapper = readCursorMapper;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "read-cursor-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时写入，并把剩余的游标写入后返回
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        flush();
+    }
+
+    /**
+     * 推进游标（只在内存中合并，不访问数据库）
+     */
+    public void submit(String userId, String conversationId, long seq) {
+        submitted.increment();
+        // 在compute中合并，与刷盘后移除空表串行，避免合并进已被移除的表
+        pending.compute(userId, (id, seqs) -> {
+            Map<String, Long> updated = seqs != null ? seqs : new ConcurrentHashMap<>();
+            updated.merge(conversationId, seq, Math::max);
+            return updated;
+        });
+    }
+
+    /**
+     * 尚未写入的游标，没有时为0
+     */
+    public long pendingSeq(String userId, String conversationId) {
+        Map<String, Long> seqs = pending.get(userId);
+        Long seq = seqs != null ? seqs.get(conversationId) : null;
+        return seq != null ? seq : 0L;
+    }
+
+    /**
+     * 用户尚未写入的全部游标
+     */
+    public Map<String, Long> pendingSeqs(String userId) {
+        Map<String, Long> seqs = pending.get(userId);
+        return seqs != null ? new LinkedHashMap<>(seqs) : Collections.emptyMap();
+    }
+
+    /**
+     * 写入统计
+     */
+    public Map<String, Object> getStats() {
+        int rows = 0;
+        for (Map<String, Long> seqs : pending.values()) {
+            rows += seqs.size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", rows);
+        stats.put("submitted", submitted.sum());
+        stats.put("written", written.sum());
+        stats.put("statements", statements.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Throwable e) {
+            logger.error("已读游标写入异常", e);
+        }
+    }
+
+    /**
+     * 取出全部待写游标，按 batch-size 分批UPSERT
+     * 先写入再从待写表中移除：写入期间读取方仍能读到这些游标；移除时只移除未被再次推进的值
+     */
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<ReadCursorEntity> rows = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Long>> user : pending.entrySet()) {
+            for (Map.Entry<String, Long> cursor : user.getValue().entrySet()) {
+                ReadCursorEntity entity = new ReadCursorEntity();
+                entity.setUserId(user.getKey());
+                entity.setConversationId(cursor.getKey());
+                entity.setLastReadSeq(cursor.getValue());
+                rows.add(entity);
+            }
+        }
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            List<ReadCursorEntity> batch = rows.subList(from, Math.min(from + batchSize, rows.size()));
+            try {
+                readCursorMapper.batchUpsertCursors(batch);
+                statements.increment();
+                written.add(batch.size());
+            } catch (Exception e) {
+                // 保留在待写表中，下次重试
+                failed.add(batch.size());
+                logger.warn("写入{}条已读游标失败，下次重试: {}", batch.size(), e.getMessage());
+                continue;
+            }
+            for (ReadCursorEntity entity : batch) {
+                pending.computeIfPresent(entity.getUserId(), (id, seqs) -> {
+                    seqs.remove(entity.getConversationId(), entity.getLastReadSeq());
+                    return seqs.isEmpty() ? null : seqs;
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.quwan.im.persistence;
+
+import com.quwan.im.mapper.MessageMapper;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于Redis的会话序号存储（集群模式）
+ * 每个会话一个计数器 im:seq:{conversationId}，所有节点通过INCR分配，序号全局不重复。
+ * 计数器不存在时从库中最大序号初始化（SET NX，并发初始化只有一个生效）；
+ * 每次分配刷新过期时间，长期没有消息的会话计数器过期后再从库中加载（届时消息早已写入）。
+ */
+public class RedisSequenceStore implements SequenceStore {
+
+    private static final String KEY_PREFIX = "im:seq:";
+
+    // 计数器存在时递增并续期，否则返回-1由调用方从库中初始化
+    private static final RedisScript<Long> INCR_IF_EXISTS_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 1 then "
+                    + "local v = redis.call('incr', KEYS[1]); redis.call('expire', KEYS[1], ARGV[1]); return v "
+                    + "else return -1 end",
+            Long.class);
+
+    // 以库中最大序号初始化（已被其他节点初始化时保留其值）后递增
+    private static final RedisScript<Long> INIT_AND_INCR_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('set', KEYS[1], ARGV[1], 'NX'); "
+                    + "local v = redis.call('incr', KEYS[1]); redis.call('expire', KEYS[1], ARGV[2]); return v",
+            Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final MessageMapper messageMapper;
+    private final String ttlSeconds;
+
+    /**
+     * @param ttlSeconds 计数器空闲过期时间，需远大于消息异步写入的最大延迟
+     */
+    public RedisSequenceStore(StringRedisTemplate redisTemplate, MessageMapper messageMapper, long ttlSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.messageMapper = messageMapper;
+        this.ttlSeconds = String.valueOf(ttlSeconds);
+    }
+
+    @Override
+    public long next(String conversationId) {
+        String key = KEY_PREFIX + conversationId;
+        Long seq = redisTemplate.execute(INCR_IF_EXISTS_SCRIPT, Collections.singletonList(key), ttlSeconds);
+        if (seq != null && seq > 0) {
+            return seq;
+        }
+        Long max = messageMapper.selectMaxSeq(conversationId);
+        seq = redisTemplate.execute(INIT_AND_INCR_SCRIPT, Collections.singletonList(key),
+                String.valueOf(max != null ? max : 0L), ttlSeconds);
+        if (seq == null) {
+            throw new IllegalStateException("分配会话序号失败: " + conversationId);
+        }
+        return seq;
+    }
+
+    @Override
+    public long current(String conversationId) {
+        String value = redisTemplate.opsForValue().get(KEY_PREFIX + conversationId);
+        if (value != null) {
+            return Long.parseLong(value);
+        }
+        Long max = messageMapper.selectMaxSeq(conversationId);
+        return max != null ? max : 0L;
+    }
+
+    /**
+     * 一次MGET取出各会话的计数器，计数器不存在的会话再一次分组查询库中的最大序号
+     */
+    @Override
+    public Map<String, Long> current(Collection<String> conversationIds) {
+        List<String> ids = new ArrayList<>(conversationIds);
+        List<String> keys = new ArrayList<>(ids.size());
+        for (String conversationId : ids) {
+            keys.add(KEY_PREFIX + conversationId);
+        }
+        List<String> values = ids.isEmpty() ? Collections.emptyList() : redisTemplate.opsForValue().multiGet(keys);
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String value = values != null && i < values.size() ? values.get(i) : null;
+            if (value != null) {
+                result.put(ids.get(i), Long.parseLong(value));
+            } else {
+                result.put(ids.get(i), 0L);
+                missing.add(ids.get(i));
+            }
+        }
+        result.putAll(LocalSequenceStore.selectMaxSeqs(messageMapper, missing));
+        return result;
+    }
+}
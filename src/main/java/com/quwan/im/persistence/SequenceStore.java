@@ -0,0 +1,29 @@
+package com.quwan.im.persistence;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 会话序号存储
+ * 单节点使用JVM内计数器（LocalSequenceStore），集群模式使用所有节点共享的Redis计数器（RedisSequenceStore），
+ * 保证同一会话在不同节点上分配的序号不重复
+ */
+public interface SequenceStore {
+
+    /**
+     * 分配会话的下一个序号（从1开始）
+     */
+    long next(String conversationId);
+
+    /**
+     * 会话当前已分配的最大序号，未有消息时为0
+     * 只读，不为未使用过的会话创建计数器
+     */
+    long current(String conversationId);
+
+    /**
+     * 批量查询多个会话当前已分配的最大序号（一次存储往返加一次分组查询）
+     * @return 会话ID -> 最大序号，每个会话都有结果，未有消息时为0
+     */
+    Map<String, Long> current(Collection<String> conversationIds);
+}
@@ -0,0 +1,44 @@
+package com.quwan.im.presence;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM内在线租约存储
+ * 单节点部署与本地测试使用，已过期的租约在下一次写入该用户时清理
+ */
+public class LocalPresenceStore implements PresenceStore {
+
+    private final Map<String, Map<String, Long>> leases = new ConcurrentHashMap<>();
+
+    @Override
+    public void apply(Collection<PresenceLease> updates) {
+        long now = System.currentTimeMillis();
+        for (PresenceLease lease : updates) {
+            leases.compute(lease.getUserId(), (userId, devices) -> {
+                Map<String, Long> updated = devices != null ? devices : new ConcurrentHashMap<>();
+                if (lease.isRemoval()) {
+                    updated.remove(lease.getDeviceId());
+                } else {
+                    updated.put(lease.getDeviceId(), lease.getExpiresAt());
+                }
+                updated.values().removeIf(expiresAt -> expiresAt <= now);
+                return updated.isEmpty() ? null : updated;
+            });
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> query(Collection<String> userIds) {
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        for (String userId : userIds) {
+            Map<String, Long> devices = leases.get(userId);
+            if (devices != null) {
+                result.put(userId, new HashMap<>(devices));
+            }
+        }
+        return result;
+    }
+}
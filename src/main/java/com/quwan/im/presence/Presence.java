@@ -0,0 +1,23 @@
+package com.quwan.im.presence;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 用户在线状态（所有节点上未过期的设备租约汇总）
+ */
+@Data
+public class Presence {
+
+    public static final String ONLINE = "ONLINE";
+    public static final String OFFLINE = "OFFLINE";
+
+    private String userId;
+
+    // ONLINE：至少一个设备的租约未过期；OFFLINE：没有
+    private String status;
+
+    // 在线的设备ID
+    private List<String> devices;
+}
@@ -0,0 +1,34 @@
+package com.quwan.im.presence;
+
+/**
+ * 单个设备的在线租约
+ * expiresAt为租约到期时间（毫秒时间戳），0表示删除该设备的租约（下线）
+ */
+public final class PresenceLease {
+
+    private final String userId;
+    private final String deviceId;
+    private final long expiresAt;
+
+    public PresenceLease(String userId, String deviceId, long expiresAt) {
+        this.userId = userId;
+        this.deviceId = deviceId;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isRemoval() {
+        return expiresAt == 0;
+    }
+}
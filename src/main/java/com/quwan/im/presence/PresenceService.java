@@ -0,0 +1,403 @@
+package com.quwan.im.presence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 在线状态服务
+ * 按用户、设备维护在线租约：登录时获得租约，心跳续期，登出或连接断开时删除，未续期的租约到期后视为离线。
+ * 用户只要有一个设备的租约未过期即为在线。
+ *
+ * 租约写入不直接访问存储，先按用户+设备合并到待写表（同一设备只保留最后一次），由后台线程每 flush-interval-ms 批量写入；
+ * 心跳只在租约剩余不足一半时续期，其余心跳不产生写入；连接仍在线但租约已被清理时（如长时间未收到消息后到期）重新获得租约。
+ * 状态不再写入 im_user 表。
+ *
+ * 本节点上用户的在线设备发生变化（首个设备上线、最后一个设备下线或到期）时通知监听器，
+ * 监听器负责推送给关注该用户的订阅者（见 watch）
+ */
+@Component
+public class PresenceService {
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+    private final PresenceStore presenceStore;
+    private final long leaseMillis;
+    private final long flushIntervalMillis;
+    private final int maxWatch;
+
+    // 本节点持有的租约：用户ID -> (设备ID -> 最近一次写入的到期时间)
+    private final Map<String, Map<String, Long>> localLeases = new ConcurrentHashMap<>();
+
+    // 待写入的租约：用户ID+设备ID -> 最新的租约
+    private final Map<String, PresenceLease> pending = new ConcurrentHashMap<>();
+
+    // 订阅关系：被关注的用户 -> 本节点上的订阅者，以及反向索引
+    private final Map<String, Set<String>> watchersByUser = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> watchedByWatcher = new ConcurrentHashMap<>();
+
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService flusher;
+
+    private final LongAdder renewals = new LongAdder();
+    private final LongAdder skippedHeartbeats = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder reacquired = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public PresenceService(PresenceStore presenceStore,
+                           @Value("${im.presence.lease-seconds:60}") long leaseSeconds,
+                           @Value("${im.presence.flush-interval-ms:1000}") long flushIntervalMillis,
+                           @Value("${im.presence.max-watch:5000}") int maxWatch) {
+        this.presenceStore = presenceStore;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.maxWatch = maxWatch;
+    }
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "presence-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAndSweep, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止时删除本节点持有的全部租约并写入，避免用户在租约到期前仍显示在线
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher != null) {
+            flusher.shutdown();
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        for (Map.Entry<String, Map<String, Long>> entry : localLeases.entrySet()) {
+            for (String deviceId : entry.getValue().keySet()) {
+                enqueue(new PresenceLease(entry.getKey(), deviceId, 0));
+            }
+        }
+        localLeases.clear();
+        flush();
+    }
+
+    /**
+     * 注册在线设备变化的监听器，参数为用户ID
+     */
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 设备上线，获得租约
+     */
+    public void online(String userId, String deviceId) {
+        if (acquire(userId, deviceId)) {
+            notifyListeners(userId);
+        }
+    }
+
+    /**
+     * 心跳：租约剩余不足一半时续期，否则不产生写入（可在EventLoop上调用）
+     * 只能为仍在线的连接调用：租约已被清理时重新获得租约，但不在调用线程上通知监听器
+     * （监听器会查询存储），由调用方在可以阻塞的线程上调用 notifyChanged
+     * @return 重新获得的是该用户在本节点的首个租约（用户重新上线）时返回true
+     */
+    public boolean heartbeat(String userId, String deviceId) {
+        Map<String, Long> devices = localLeases.get(userId);
+        Long expiresAt = devices != null ? devices.get(deviceId) : null;
+        if (expiresAt == null) {
+            reacquired.increment();
+            return acquire(userId, deviceId);
+        }
+        long now = System.currentTimeMillis();
+        if (expiresAt - now > leaseMillis / 2) {
+            skippedHeartbeats.increment();
+            return false;
+        }
+        long renewed = now + leaseMillis;
+        // 只续期仍存在的租约，避免与并发的下线竞争时复活已删除的设备
+        if (devices.replace(deviceId, expiresAt, renewed)) {
+            renewals.increment();
+            enqueue(new PresenceLease(userId, deviceId, renewed));
+        }
+        return false;
+    }
+
+    /**
+     * 通知监听器用户的在线设备发生了变化（用于 heartbeat 返回true后补发通知）
+     */
+    public void notifyChanged(String userId) {
+        notifyListeners(userId);
+    }
+
+    /**
+     * 获得租约并加入待写表
+     * @return 是否为该用户在本节点的首个租约
+     */
+    private boolean acquire(String userId, String deviceId) {
+        long expiresAt = System.currentTimeMillis() + leaseMillis;
+        boolean[] first = new boolean[1];
+        localLeases.compute(userId, (id, devices) -> {
+            Map<String, Long> updated = devices != null ? devices : new ConcurrentHashMap<>();
+            first[0] = updated.isEmpty();
+            updated.put(deviceId, expiresAt);
+            return updated;
+        });
+        enqueue(new PresenceLease(userId, deviceId, expiresAt));
+        return first[0];
+    }
+
+    /**
+     * 设备下线，删除租约
+     */
+    public void offline(String userId, String deviceId) {
+        boolean[] last = new boolean[1];
+        localLeases.computeIfPresent(userId, (id, devices) -> {
+            if (devices.remove(deviceId) == null) {
+                return devices;
+            }
+            last[0] = devices.isEmpty();
+            return devices.isEmpty() ? null : devices;
+        });
+        enqueue(new PresenceLease(userId, deviceId, 0));
+        if (last[0]) {
+            notifyListeners(userId);
+        }
+    }
+
+    /**
+     * 设备已在其他节点登录：只删除本节点的租约，不写入存储（存储中的租约已由新节点接管）
+     * 用户仍然在线，不通知监听器
+     */
+    public void handOver(String userId, String deviceId) {
+        localLeases.computeIfPresent(userId, (id, devices) -> {
+            devices.remove(deviceId);
+            return devices.isEmpty() ? null : devices;
+        });
+        pending.remove(key(userId, deviceId));
+    }
+
+    /**
+     * 批量查询在线状态（一次存储往返），尚未写入的本节点变更也计算在内
+     * @return 用户ID -> 在线状态，按传入顺序，每个用户都有结果
+     */
+    public Map<String, Presence> query(Collection<String> userIds) {
+        Map<String, Map<String, Long>> stored = userIds.isEmpty() ? Collections.emptyMap() : presenceStore.query(userIds);
+        long now = System.currentTimeMillis();
+
+        Map<String, Presence> result = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            Map<String, Long> devices = new HashMap<>();
+            Map<String, Long> storedDevices = stored.get(userId);
+            if (storedDevices != null) {
+                for (Map.Entry<String, Long> device : storedDevices.entrySet()) {
+                    PresenceLease unwritten = pending.get(key(userId, device.getKey()));
+                    if (unwritten == null || !unwritten.isRemoval()) {
+                        devices.put(device.getKey(), device.getValue());
+                    }
+                }
+            }
+            Map<String, Long> local = localLeases.get(userId);
+            if (local != null) {
+                devices.putAll(local);
+            }
+
+            List<String> online = new ArrayList<>();
+            for (Map.Entry<String, Long> device : devices.entrySet()) {
+                if (device.getValue() > now) {
+                    online.add(device.getKey());
+                }
+            }
+            Collections.sort(online);
+            Presence presence = new Presence();
+            presence.setUserId(userId);
+            presence.setStatus(online.isEmpty() ? Presence.OFFLINE : Presence.ONLINE);
+            presence.setDevices(online);
+            result.put(userId, presence);
+        }
+        return result;
+    }
+
+    /**
+     * 订阅用户的在线状态变化（替换该订阅者之前的订阅），最多 max-watch 个用户
+     * @return 实际订阅的用户
+     */
+    public List<String> watch(String watcherId, Collection<String> userIds) {
+        unwatch(watcherId);
+        List<String> watched = new ArrayList<>();
+        for (String userId : userIds) {
+            if (watched.size() >= maxWatch) {
+                break;
+            }
+            watched.add(userId);
+            watchersByUser.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(watcherId);
+        }
+        Set<String> watchedSet = ConcurrentHashMap.newKeySet();
+        watchedSet.addAll(watched);
+        watchedByWatcher.put(watcherId, watchedSet);
+        return watched;
+    }
+
+    /**
+     * 取消订阅者的全部订阅
+     */
+    public void unwatch(String watcherId) {
+        Set<String> watched = watchedByWatcher.remove(watcherId);
+        if (watched == null) {
+            return;
+        }
+        for (String userId : watched) {
+            watchersByUser.computeIfPresent(userId, (id, watchers) -> {
+                watchers.remove(watcherId);
+                return watchers.isEmpty() ? null : watchers;
+            });
+        }
+    }
+
+    /**
+     * 每次查询、订阅最多的用户数
+     */
+    public int getMaxWatch() {
+        return maxWatch;
+    }
+
+    /**
+     * 本节点上订阅了该用户的订阅者
+     */
+    public Set<String> getWatchers(String userId) {
+        Set<String> watchers = watchersByUser.get(userId);
+        return watchers != null ? Collections.unmodifiableSet(watchers) : Collections.emptySet();
+    }
+
+    /**
+     * 在线状态统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int devices = 0;
+        for (Map<String, Long> leases : localLeases.values()) {
+            devices += leases.size();
+        }
+        stats.put("onlineUsers", localLeases.size());
+        stats.put("onlineDevices", devices);
+        stats.put("watchers", watchedByWatcher.size());
+        stats.put("pending", pending.size());
+        stats.put("renewals", renewals.sum());
+        stats.put("skippedHeartbeats", skippedHeartbeats.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("reacquired", reacquired.sum());
+        stats.put("writes", writes.sum());
+        stats.put("batches", batches.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    private void enqueue(PresenceLease lease) {
+        pending.put(key(lease.getUserId(), lease.getDeviceId()), lease);
+    }
+
+    private void flushAndSweep() {
+        try {
+            sweep();
+            flush();
+        } catch (Throwable e) {
+            logger.error("在线状态写入异常", e);
+        }
+    }
+
+    /**
+     * 删除本节点上到期未续期的租约（客户端停止心跳但连接未断开等情况）
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (String userId : localLeases.keySet()) {
+            boolean[] last = new boolean[1];
+            List<String> expired = new ArrayList<>();
+            localLeases.computeIfPresent(userId, (id, devices) -> {
+                Iterator<Map.Entry<String, Long>> it = devices.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Long> device = it.next();
+                    if (device.getValue() <= now) {
+                        expired.add(device.getKey());
+                        it.remove();
+                    }
+                }
+                last[0] = !expired.isEmpty() && devices.isEmpty();
+                return devices.isEmpty() ? null : devices;
+            });
+            for (String deviceId : expired) {
+                expirations.increment();
+                enqueue(new PresenceLease(userId, deviceId, 0));
+            }
+            if (last[0]) {
+                notifyListeners(userId);
+            }
+        }
+    }
+
+    /**
+     * 取出待写表中的全部租约，一次批量写入；失败时放回（期间已有更新的不覆盖）
+     */
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<PresenceLease> batch = new ArrayList<>(pending.size());
+        for (String key : pending.keySet()) {
+            PresenceLease lease = pending.remove(key);
+            if (lease != null) {
+                batch.add(lease);
+            }
+        }
+        try {
+            presenceStore.apply(batch);
+            writes.add(batch.size());
+            batches.increment();
+        } catch (Exception e) {
+            failed.add(batch.size());
+            logger.warn("写入{}条在线租约失败，下次重试: {}", batch.size(), e.getMessage());
+            for (PresenceLease lease : batch) {
+                pending.putIfAbsent(key(lease.getUserId(), lease.getDeviceId()), lease);
+            }
+        }
+    }
+
+    private void notifyListeners(String userId) {
+        for (Consumer<String> listener : listeners) {
+            try {
+                listener.accept(userId);
+            } catch (Exception e) {
+                logger.error("在线状态变化通知异常，用户[{}]", userId, e);
+            }
+        }
+    }
+
+    private static String key(String userId, String deviceId) {
+        return userId + '\n' + deviceId;
+    }
+}
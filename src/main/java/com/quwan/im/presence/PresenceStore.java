@@ -0,0 +1,22 @@
+package com.quwan.im.presence;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 在线租约存储
+ * 按用户保存各设备的租约到期时间，由PresenceService批量写入；读取时由调用方过滤已过期的租约
+ */
+public interface PresenceStore {
+
+    /**
+     * 批量写入租约（续期或删除）
+     */
+    void apply(Collection<PresenceLease> leases);
+
+    /**
+     * 批量查询
+     * @return 用户ID -> (设备ID -> 到期时间)，不包含没有任何租约的用户，可能包含已过期的租约
+     */
+    Map<String, Map<String, Long>> query(Collection<String> userIds);
+}
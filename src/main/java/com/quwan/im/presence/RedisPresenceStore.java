@@ -0,0 +1,78 @@
+package com.quwan.im.presence;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于Redis的在线租约存储
+ * 每个用户一个Hash im:presence:{userId}，字段为设备ID，值为租约到期时间；
+ * 一批写入与一次批量查询各只用一次管道往返。
+ *
+ * 每次续期把键的过期时间延长为两倍租约，节点宕机后残留的租约由读取方按到期时间过滤，键随后自然过期
+ */
+public class RedisPresenceStore implements PresenceStore {
+
+    private static final String KEY_PREFIX = "im:presence:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final long keyTtlMillis;
+
+    public RedisPresenceStore(StringRedisTemplate redisTemplate, long leaseMillis) {
+        this.redisTemplate = redisTemplate;
+        this.keyTtlMillis = leaseMillis * 2;
+    }
+
+    @Override
+    public void apply(Collection<PresenceLease> leases) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (PresenceLease lease : leases) {
+                byte[] key = bytes(KEY_PREFIX + lease.getUserId());
+                byte[] field = bytes(lease.getDeviceId());
+                if (lease.isRemoval()) {
+                    connection.hDel(key, field);
+                } else {
+                    connection.hSet(key, field, bytes(Long.toString(lease.getExpiresAt())));
+                    connection.pExpire(key, keyTtlMillis);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Map<String, Long>> query(Collection<String> userIds) {
+        List<String> ids = new ArrayList<>(userIds);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String userId : ids) {
+                connection.hGetAll(bytes(KEY_PREFIX + userId));
+            }
+            return null;
+        });
+
+        Map<String, Map<String, Long>> presence = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Map<String, String> fields = (Map<String, String>) results.get(i);
+            if (fields == null || fields.isEmpty()) {
+                continue;
+            }
+            Map<String, Long> devices = new HashMap<>();
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                devices.put(field.getKey(), Long.parseLong(field.getValue()));
+            }
+            presence.put(ids.get(i), devices);
+        }
+        return presence;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
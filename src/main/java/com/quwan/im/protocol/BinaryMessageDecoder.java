@@ -6,8 +6,11 @@ import com.quwan.im.model.MessageType;
 import com.quwan.im.model.ProtocolMessage;
 import com.quwan.im.netty.IMClient;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,6 +19,9 @@ import java.nio.charset.StandardCharsets;
 /**
  * 二进制消息解码器：将ByteBuf解码为ProtocolMessage
  * 协议格式：[魔数(4)][版本(1)][类型(1)][数据长度(4)][数据体(n)]
+ * 版本2：数据体为 [负载格式(1)][负载(n-1)]，按格式标识直接解析一次；版本1：探测负载格式（兼容旧客户端）
+ * 版本3：IMMessage的消息ID为定长8字节整数；版本1、2为十进制字符串，非数字的ID（如旧客户端的UUID）按0处理，由服务端重新分配
+ * 连接收到的第一帧的版本记录在Channel属性 PEER_VERSION_ATTRIBUTE 上，BinaryMessageEncoder 按该版本编码发往此连接的帧
  * 数据体格式：[消息类型(1)][消息ID长度(2)][消息ID][发送者长度(2)][发送者][接收者长度(2)][接收者][内容长度(4)][内容][时间戳(8)]
  */
 public class BinaryMessageDecoder extends LengthFieldBasedFrameDecoder {
@@ -23,6 +29,11 @@ public class BinaryMessageDecoder extends LengthFieldBasedFrameDecoder {
     private static final Logger       logger       = LoggerFactory.getLogger(BinaryMessageDecoder.class);
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
+    /**
+     * 对端使用的协议版本（连接收到的第一帧的版本，超出已知范围时取最接近的已知版本）
+     */
+    public static final AttributeKey<Byte> PEER_VERSION_ATTRIBUTE = AttributeKey.valueOf("peerProtocolVersion");
+
     // 最大帧长度（50MB）
     private static final int MAX_FRAME_LENGTH = 50 * 1024 * 1024;
 
@@ -65,8 +76,12 @@ public class BinaryMessageDecoder extends LengthFieldBasedFrameDecoder {
                 return null;
             }
 
-            // 2) 版本
+            // 2) 版本（第一帧的版本作为该连接出站帧的版本）
             byte version = frame.readByte();
+            Attribute<Byte> peerVersion = ctx.channel().attr(PEER_VERSION_ATTRIBUTE);
+            if (peerVersion.get() == null) {
+                peerVersion.set(negotiate(version));
+            }
             // 3) 类型
             byte type = frame.readByte();
             // 4) 负载长度
@@ -85,13 +100,15 @@ public class BinaryMessageDecoder extends LengthFieldBasedFrameDecoder {
             }
 
             // 5) 解析数据体
-            String data = decodeBinaryData(frame, dataLength);
-
             ProtocolMessage message = new ProtocolMessage();
             message.setVersion(version);
             message.setType(type);
             message.setDataLength(dataLength);
-            message.setData(data);
+            if (version >= ProtocolMessage.VERSION_FORMAT_FLAG) {
+                decodeFlaggedData(frame, version, dataLength, message);
+            } else {
+                decodeBinaryData(frame, dataLength, message);
+            }
 
             logger.debug("[Decode] OK type={}, version={}, len={}", type, version, dataLength);
             return message;
@@ -110,34 +127,70 @@ public class BinaryMessageDecoder extends LengthFieldBasedFrameDecoder {
     }
 
     /**
-     * 解码二进制数据
+     * 解码带格式标识的数据体（版本2）
+     * 文本负载以帧切片挂到消息上；IMMessage负载直接解析为对象，不再转换为JSON
      */
-    private String decodeBinaryData(ByteBuf frame, int dataLength) throws Exception {
+    private void decodeFlaggedData(ByteBuf frame, byte version, int dataLength, ProtocolMessage message) {
 
         if (dataLength == 0) {
-            return "";
+            message.setData("");
+            return;
+        }
+
+        byte format = frame.readByte();
+        int bodyLength = dataLength - 1;
+        message.setDataLength(bodyLength);
+
+        if (format == ProtocolMessage.FORMAT_IM_MESSAGE) {
+            int bodyEnd = frame.readerIndex() + bodyLength;
+            message.setImMessage(decodeBinaryToIMMessage(frame, bodyEnd, version >= ProtocolMessage.VERSION_LONG_ID));
+            frame.readerIndex(bodyEnd);
+        } else if (format == ProtocolMessage.FORMAT_TEXT) {
+            message.setPayload(frame.readRetainedSlice(bodyLength));
+        } else {
+            throw new IllegalArgumentException("未知的负载格式: " + format);
+        }
+    }
+
+    /**
+     * 解码二进制数据（版本1，探测负载格式）
+     * JSON负载不拷贝、不转String，直接以帧的retainedSlice挂到消息上，由消息的引用计数负责释放
+     */
+    private void decodeBinaryData(ByteBuf frame, int dataLength, ProtocolMessage message) throws Exception {
+
+        if (dataLength == 0) {
+            message.setData("");
+            return;
         }
 
-        // 标记负载起始位置
-        frame.markReaderIndex();
+        int payloadIndex = frame.readerIndex();
 
-        // 尝试按 JSON（字符串）解析
-        byte[] dataBytes = new byte[dataLength];
-        frame.readBytes(dataBytes);
-        String jsonString = new String(dataBytes, StandardCharsets.UTF_8);
+        // 尝试按 JSON（字符串）解析，直接读取帧内字节
         try {
-            objectMapper.readTree(jsonString); // 有效 JSON
+            objectMapper.readTree(new ByteBufInputStream(frame.slice(payloadIndex, dataLength))); // 有效 JSON
             logger.debug("[Decode] 负载为JSON字符串");
-            return jsonString;
+            message.setPayload(frame.retainedSlice(payloadIndex, dataLength));
+            frame.skipBytes(dataLength);
         } catch (Exception notJson) {
             // 回退到负载起始，按 IMMessage 二进制解析
-            frame.resetReaderIndex();
-            IMMessage imMessage = decodeBinaryToIMMessage(frame);
+            frame.readerIndex(payloadIndex);
+            IMMessage imMessage = decodeBinaryToIMMessage(frame, payloadIndex + dataLength, false);
             logger.debug("[Decode] 负载为IMMessage二进制");
-            return objectMapper.writeValueAsString(imMessage);
+            message.setData(objectMapper.writeValueAsString(imMessage));
         }
     }
 
+    /**
+     * 把对端版本映射到服务端支持的版本范围内
+     */
+    static byte negotiate(byte version) {
+
+        if (version < ProtocolMessage.VERSION_LEGACY) {
+            return ProtocolMessage.VERSION_LEGACY;
+        }
+        return version > ProtocolMessage.VERSION_LONG_ID ? ProtocolMessage.VERSION_LONG_ID : version;
+    }
+
     private static String bytesToHex(byte[] bytes) {
 
         if (bytes == null || bytes.length == 0)
@@ -151,8 +204,10 @@ public class BinaryMessageDecoder extends LengthFieldBasedFrameDecoder {
 
     /**
      * 将二进制数据解码为IMMessage
+     * @param bodyEnd 数据体结束位置，用于判断可选的尾部字段是否存在
+     * @param longId 消息ID是否为8字节整数（版本3）
      */
-    private IMMessage decodeBinaryToIMMessage(ByteBuf frame) throws Exception {
+    private IMMessage decodeBinaryToIMMessage(ByteBuf frame, int bodyEnd, boolean longId) {
 
         IMMessage imMessage = new IMMessage();
 
@@ -160,8 +215,8 @@ public class BinaryMessageDecoder extends LengthFieldBasedFrameDecoder {
         byte messageTypeCode = frame.readByte();
         imMessage.setType(messageTypeCode);
 
-        // 消息ID（长度+内容）
-        imMessage.setId(readString(frame));
+        // 消息ID（8字节；旧版本为长度+十进制字符串）
+        imMessage.setId(longId ? frame.readLong() : parseId(readString(frame)));
 
         // 发送者（长度+内容）
         imMessage.setFrom(readString(frame));
@@ -181,21 +236,39 @@ public class BinaryMessageDecoder extends LengthFieldBasedFrameDecoder {
         // 时间戳（8字节）
         imMessage.setTimestamp(frame.readLong());
 
+        // 会话内序号（8字节，旧客户端的数据体不含该字段）
+        if (bodyEnd - frame.readerIndex() >= 8) {
+            imMessage.setSeq(frame.readLong());
+        }
+
         logger.debug("after decode msg:{}", imMessage);
         return imMessage;
     }
 
+    /**
+     * 解析旧版本的字符串消息ID，非数字按0（未分配）处理
+     */
+    private static long parseId(String id) {
+
+        if (id == null) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
     /**
      * 读取字符串（长度+内容）
      */
     private String readString(ByteBuf frame) {
 
-        short length = frame.readShort();
+        int length = frame.readUnsignedShort();
         if (length == 0) {
             return null;
         }
-        byte[] bytes = new byte[length];
-        frame.readBytes(bytes);
-        return new String(bytes, StandardCharsets.UTF_8);
+        return frame.readCharSequence(length, StandardCharsets.UTF_8).toString();
     }
 }
@@ -1,11 +1,12 @@
 package com.quwan.im.protocol;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.quwan.im.model.IMMessage;
 import com.quwan.im.model.ProtocolMessage;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,41 +16,25 @@ import java.nio.charset.StandardCharsets;
 /**
  * 二进制消息编码器：将ProtocolMessage编码为二进制ByteBuf
  * 协议格式：[魔数(4)][版本(1)][类型(1)][数据长度(4)][数据体(n)]
+ * 版本2：数据体为 [负载格式(1)][负载(n-1)]，告知解码端负载格式，避免其探测解析
+ * 版本3：IMMessage的消息ID为定长8字节整数
  * 数据体格式：[消息类型(1)][消息ID长度(2)][消息ID][发送者长度(2)][发送者][接收者长度(2)][接收者][内容长度(4)][内容][时间戳(8)]
+ *
+ * 所有字段直接写入 ctx.alloc() 分配的输出缓冲区，不经过中间数组；数据长度先占位，写完数据体后回填。
+ * 负载格式由消息本身决定：携带IMMessage按二进制写出，其余按文本写出，不做试探解析。
+ * 帧版本按连接协商：已收到对端帧的连接按对端版本编码（见 BinaryMessageDecoder.PEER_VERSION_ATTRIBUTE），
+ * 尚未收到的按消息自身的版本编码。
  */
 public class BinaryMessageEncoder extends MessageToByteEncoder<ProtocolMessage> {
     private static final Logger logger = LoggerFactory.getLogger(BinaryMessageEncoder.class);
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 字符串字段长度前缀为2字节
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
 
     @Override
     protected void encode(ChannelHandlerContext ctx, ProtocolMessage msg, ByteBuf out) throws Exception {
         try {
-            // 1. 写入魔数（4字节）
-            out.writeInt(ProtocolMessage.MAGIC_NUMBER);
-            logger.debug("编码魔数: 0x{}", Integer.toHexString(ProtocolMessage.MAGIC_NUMBER));
-
-            // 2. 写入版本（1字节）
-            byte version = msg.getVersion();
-            out.writeByte(version);
-            logger.debug("编码版本: {}", version);
-
-            // 3. 写入消息类型（1字节）
-            byte type = msg.getType();
-            out.writeByte(type);
-            logger.debug("编码消息类型: {}", type);
-
-            // 4. 处理数据并计算长度
-            byte[] dataBytes = encodeDataToBinary(msg);
-            int dataLength = dataBytes.length;
-
-            // 5. 写入数据长度（4字节）
-            out.writeInt(dataLength);
-            logger.debug("编码数据长度: {} bytes", dataLength);
-
-            // 6. 写入二进制数据内容
-            out.writeBytes(dataBytes);
-            logger.debug("编码二进制数据完成，长度: {} bytes", dataLength);
-
+            writeFrame(msg, versionFor(ctx.channel(), msg), out);
         } catch (Exception e) {
             logger.error("二进制消息编码失败", e);
             throw e;
@@ -57,84 +42,160 @@ public class BinaryMessageEncoder extends MessageToByteEncoder<ProtocolMessage>
     }
 
     /**
-     * 将消息数据编码为二进制格式
+     * 发往指定连接的帧版本：已收到对端帧时按对端版本，否则按消息自身的版本
      */
-    private byte[] encodeDataToBinary(ProtocolMessage msg) throws Exception {
-        String data = msg.getData();
-        if (data == null || data.isEmpty()) {
-            return new byte[0];
-        }
+    public static byte versionFor(Channel channel, ProtocolMessage msg) {
+        Byte peerVersion = channel.attr(BinaryMessageDecoder.PEER_VERSION_ATTRIBUTE).get();
+        return peerVersion != null ? peerVersion : BinaryMessageDecoder.negotiate(msg.getVersion());
+    }
 
-        // 尝试解析为IMMessage对象
+    /**
+     * 将消息按自身的版本预先编码为完整帧
+     * @see #encodeFrame(ByteBufAllocator, ProtocolMessage, byte)
+     */
+    public static ByteBuf encodeFrame(ByteBufAllocator alloc, ProtocolMessage msg) {
+        return encodeFrame(alloc, msg, msg.getVersion());
+    }
+
+    /**
+     * 将消息预先编码为完整帧，用于群发时只编码一次（每个协议版本一帧）
+     * 返回的ByteBuf可直接写入已配置本编码器的Channel（ByteBuf不经过本编码器），
+     * 多个Channel共享时各自写入 retainedDuplicate()，最后由调用方释放本身
+     * @param alloc 缓冲区分配器
+     * @param msg 协议消息（不会被释放，调用方负责）
+     * @param version 帧版本，通常为 versionFor(channel, msg)
+     * @return 编码后的帧
+     */
+    public static ByteBuf encodeFrame(ByteBufAllocator alloc, ProtocolMessage msg, byte version) {
+        ByteBuf frame = alloc.buffer();
         try {
-            IMMessage imMessage = objectMapper.readValue(data, IMMessage.class);
-            return encodeIMMessageToBinary(imMessage);
-        } catch (Exception e) {
-            // 如果不是IMMessage，则按普通字符串处理
-            logger.debug("数据不是IMMessage格式，按字符串处理: {}", data);
-            return data.getBytes(StandardCharsets.UTF_8);
+            writeFrame(msg, version, frame);
+            return frame;
+        } catch (RuntimeException e) {
+            frame.release();
+            throw e;
         }
     }
 
     /**
-     * 将IMMessage编码为二进制格式
+     * 将完整帧按消息自身的版本写入输出缓冲区
+     */
+    public static void writeFrame(ProtocolMessage msg, ByteBuf out) {
+        writeFrame(msg, msg.getVersion(), out);
+    }
+
+    /**
+     * 将完整帧写入输出缓冲区
+     * @param msg 协议消息
+     * @param version 帧版本
+     * @param out 输出缓冲区
+     */
+    public static void writeFrame(ProtocolMessage msg, byte version, ByteBuf out) {
+        // 1. 写入魔数（4字节）
+        out.writeInt(ProtocolMessage.MAGIC_NUMBER);
+
+        // 2. 写入版本（1字节）
+        out.writeByte(version);
+
+        // 3. 写入消息类型（1字节）
+        out.writeByte(msg.getType());
+
+        // 4. 数据长度占位（4字节），数据体写完后回填
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+
+        boolean flagged = version >= ProtocolMessage.VERSION_FORMAT_FLAG;
+        IMMessage imMessage = msg.getImMessage();
+
+        // 5. 写入格式标识（版本2）与数据体
+        if (imMessage != null) {
+            if (flagged) {
+                out.writeByte(ProtocolMessage.FORMAT_IM_MESSAGE);
+            }
+            writeIMMessage(out, imMessage, version >= ProtocolMessage.VERSION_LONG_ID);
+        } else if (msg.hasPayload()) {
+            // 携带原始负载时直接写出，不经过String
+            if (flagged) {
+                out.writeByte(ProtocolMessage.FORMAT_TEXT);
+            }
+            ByteBuf payload = msg.getPayload();
+            out.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+        } else {
+            if (flagged) {
+                out.writeByte(ProtocolMessage.FORMAT_TEXT);
+            }
+            String data = msg.getData();
+            if (data != null && !data.isEmpty()) {
+                out.writeCharSequence(data, StandardCharsets.UTF_8);
+            }
+        }
+
+        // 6. 回填数据长度
+        int dataLength = out.writerIndex() - lengthIndex - 4;
+        out.setInt(lengthIndex, dataLength);
+        logger.debug("编码完成，类型: {}，版本: {}，数据长度: {} bytes", msg.getType(), version, dataLength);
+    }
+
+    /**
+     * 将IMMessage按二进制格式写入
      * 格式：
      * [msgType(1)]
-     * [idLen(2)+id]
+     * [id(8)]（版本3） 或 [idLen(2)+id十进制字符串]（版本1、2）
      * [fromLen(2)+from]
      * [toLen(2)+to]
      * [groupIdLen(2)+groupId]
      * [contentLen(2)+content]
      * [extraLen(2)+extra]
      * [timestamp(8)]
+     * [seq(8)]
      */
-    private byte[] encodeIMMessageToBinary(IMMessage imMessage) {
-        ByteBuf buf = Unpooled.buffer();
-        try {
-            // 消息类型（1字节）
-            buf.writeByte(imMessage.getType());
-            
-            // 消息ID（长度+内容）
-            writeString(buf, imMessage.getId());
-            
-            // 发送者（长度+内容）
-            writeString(buf, imMessage.getFrom());
-            
-            // 接收者（长度+内容）
-            writeString(buf, imMessage.getTo());
-            
-            // 群组ID（长度+内容，可选）
-            writeString(buf, imMessage.getGroupId());
-            
-            // 消息内容（长度+内容）
-            writeString(buf, imMessage.getContent());
-            
-            // 额外字段（长度+内容），用于承载状态等轻量信息
-            writeString(buf, imMessage.getExtra());
-            
-            // 时间戳（8字节）
-            buf.writeLong(imMessage.getTimestamp());
-            
-            // 转换为字节数组
-            byte[] result = new byte[buf.readableBytes()];
-            buf.readBytes(result);
-            return result;
-            
-        } finally {
-            buf.release();
+    private static void writeIMMessage(ByteBuf out, IMMessage imMessage, boolean longId) {
+        // 消息类型（1字节）
+        out.writeByte(imMessage.getType());
+
+        // 消息ID（8字节；旧版本为长度+十进制字符串，0写为空）
+        if (longId) {
+            out.writeLong(imMessage.getId());
+        } else {
+            writeString(out, imMessage.getId() != 0 ? Long.toString(imMessage.getId()) : null);
         }
+
+        // 发送者（长度+内容）
+        writeString(out, imMessage.getFrom());
+
+        // 接收者（长度+内容）
+        writeString(out, imMessage.getTo());
+
+        // 群组ID（长度+内容，可选）
+        writeString(out, imMessage.getGroupId());
+
+        // 消息内容（长度+内容）
+        writeString(out, imMessage.getContent());
+
+        // 额外字段（长度+内容），用于承载状态等轻量信息
+        writeString(out, imMessage.getExtra());
+
+        // 时间戳（8字节）
+        out.writeLong(imMessage.getTimestamp());
+
+        // 会话内序号（8字节）
+        out.writeLong(imMessage.getSeq());
     }
 
     /**
-     * 写入字符串（长度+内容）
+     * 写入字符串（长度+内容），长度先占位，写入UTF-8内容后回填
      */
-    private void writeString(ByteBuf buf, String str) {
-        if (str == null) {
-            buf.writeShort(0); // 长度为0
-        } else {
-            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-            buf.writeShort(bytes.length); // 长度（2字节）
-            buf.writeBytes(bytes); // 内容
+    private static void writeString(ByteBuf out, String str) {
+        if (str == null || str.isEmpty()) {
+            out.writeShort(0); // 长度为0
+            return;
+        }
+        int lengthIndex = out.writerIndex();
+        out.writeShort(0);
+        int length = out.writeCharSequence(str, StandardCharsets.UTF_8);
+        if (length > MAX_STRING_LENGTH) {
+            throw new EncoderException("字符串字段过长: " + length + " bytes");
         }
+        out.setShort(lengthIndex, length);
     }
 }
@@ -52,6 +52,15 @@ public interface FriendService extends IService<FriendEntity> {
      */
     List<String> getUserFriends(String userId);
 
+    /**
+     * 分页查询用户的好友列表（按好友ID排序，以上一页最后一个好友ID为游标）
+     * @param userId 用户ID
+     * @param afterFriendId 游标，首页传null
+     * @param limit 每页数量
+     * @return 好友ID列表（只读），少于limit表示没有更多
+     */
+    List<String> getUserFriends(String userId, String afterFriendId, int limit);
+
     /**
      * 检查是否为好友
      * @param userId 用户ID
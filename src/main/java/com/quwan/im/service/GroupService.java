@@ -55,6 +55,13 @@ public interface GroupService extends IService<GroupEntity> {
      */
     List<GroupMemberEntity> getGroupMembers(String groupId);
 
+    /**
+     * 获取群成员ID列表（走群成员缓存，用于群发）
+     * @param groupId 群组ID
+     * @return 群成员ID列表（只读）
+     */
+    List<String> getGroupMemberIds(String groupId);
+
     /**
      * 获取用户加入的群组
      * @param userId 用户ID
@@ -62,6 +69,13 @@ public interface GroupService extends IService<GroupEntity> {
      */
     List<GroupEntity> getUserGroups(String userId);
 
+    /**
+     * 获取用户加入的群组ID
+     * @param userId 用户ID
+     * @return 群组ID列表
+     */
+    List<String> getUserGroupIds(String userId);
+
     /**
      * 检查是否为群成员
      * @param groupId 群组ID
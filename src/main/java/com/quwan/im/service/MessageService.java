@@ -14,27 +14,35 @@ import java.util.List;
 public interface MessageService extends IService<MessageEntity> {
 
     /**
-     * 保存消息
+     * 为消息分配会话内序号（单聊按双方、群聊按群单调递增），结果写入message.seq
+     * 需在消息转发前调用，使接收方拿到的消息带有序号
+     * @param message 消息对象（from/to 或 groupId 已填写）
+     */
+    void assignSequence(IMMessage message);
+
+    /**
+     * 保存消息（异步批量写入，返回时不保证已落库）
+     * 未分配序号的消息在此分配
      * @param message 消息对象
      * @param status 消息状态：SENT/DELIVERED/READ
      */
     void saveMessage(IMMessage message, String status);
 
     /**
-     * 更新消息状态
+     * 更新消息状态（只升不降，不高于当前状态的更新不生效）
      * @param messageId 消息ID
      * @param status 新状态
-     * @return 是否更新成功
+     * @return 是否更新成功（异步写入时表示已受理）
      */
-    boolean updateMessageStatus(String messageId, String status);
+    boolean updateMessageStatus(Long messageId, String status);
 
     /**
-     * 批量更新消息状态
+     * 批量更新消息状态（只升不降）
      * @param messageIds 消息ID列表
      * @param status 新状态
-     * @return 更新成功的数量
+     * @return 更新成功的数量（已处于同级或更高状态的消息不计入）
      */
-    int batchUpdateMessageStatus(List<String> messageIds, String status);
+    int batchUpdateMessageStatus(List<Long> messageIds, String status);
 
     /**
      * 获取用户未读消息
@@ -44,21 +52,30 @@ public interface MessageService extends IService<MessageEntity> {
     List<MessageEntity> getUnreadMessages(String userId);
 
     /**
-     * 获取用户与好友的历史消息
+     * 获取用户与好友的历史消息（游标分页）
      * @param userId 用户ID
      * @param friendId 好友ID
-     * @param page 页码
-     * @param size 每页数量
-     * @return 历史消息列表
+     * @param beforeSeq 游标：返回序号小于该值的消息，为空时从最新一条开始
+     * @param limit 返回数量
+     * @return 历史消息列表（按序号从新到旧），下一页以最后一条的seq作为游标
+     */
+    List<MessageEntity> getHistoryMessages(String userId, String friendId, Long beforeSeq, int limit);
+
+    /**
+     * 获取会话中序号大于afterSeq的消息（增量同步）
+     * @param conversationId 会话ID
+     * @param afterSeq 起始序号（不含）
+     * @param limit 返回数量
+     * @return 消息列表（按序号从旧到新）
      */
-    List<MessageEntity> getHistoryMessages(String userId, String friendId, int page, int size);
+    List<MessageEntity> getMessagesAfter(String conversationId, long afterSeq, int limit);
 
     /**
-     * 获取群组历史消息
+     * 获取群组历史消息（游标分页）
      * @param groupId 群组ID
-     * @param page 页码
-     * @param size 每页数量
-     * @return 历史消息列表
+     * @param beforeSeq 游标：返回序号小于该值的消息，为空时从最新一条开始
+     * @param limit 返回数量
+     * @return 历史消息列表（按序号从新到旧），下一页以最后一条的seq作为游标
      */
-    List<MessageEntity> getGroupHistoryMessages(String groupId, int page, int size);
+    List<MessageEntity> getGroupHistoryMessages(String groupId, Long beforeSeq, int limit);
 }
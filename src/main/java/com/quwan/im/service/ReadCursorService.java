@@ -0,0 +1,60 @@
+package com.quwan.im.service;
+
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.quwan.im.entity.ReadCursorEntity;
+
+import java.util.Map;
+
+/**
+ * 已读游标服务接口
+ * 以（用户，会话）已读到的序号代替逐条消息的已读状态
+ */
+public interface ReadCursorService extends IService<ReadCursorEntity> {
+
+    /**
+     * 推进已读游标（小于当前游标时忽略）
+     * @param userId 用户ID
+     * @param conversationId 会话ID
+     * @param seq 已读到的会话序号
+     */
+    void markRead(String userId, String conversationId, long seq);
+
+    /**
+     * 推进已读游标，不同步写库：在内存中按会话合并后批量写入，用于每条消息都要推进的场景（发送方自己的消息）
+     * @param userId 用户ID
+     * @param conversationId 会话ID
+     * @param seq 已读到的会话序号
+     */
+    void markReadDeferred(String userId, String conversationId, long seq);
+
+    /**
+     * 查询已读序号
+     * @param userId 用户ID
+     * @param conversationId 会话ID
+     * @return 已读到的序号，未读过时为0
+     */
+    long getReadSeq(String userId, String conversationId);
+
+    /**
+     * 查询单个会话的未读数（会话最新序号 - 已读序号）
+     * @param userId 用户ID
+     * @param conversationId 会话ID
+     * @return 未读数
+     */
+    long getUnreadCount(String userId, String conversationId);
+
+    /**
+     * 查询用户当前所有会话（所在群、好友单聊）的已读序号，已退出的群与已删除的好友不包含在内
+     * @param userId 用户ID
+     * @return 会话ID -> 已读序号，未读过的会话为0
+     */
+    Map<String, Long> getReadSeqs(String userId);
+
+    /**
+     * 查询用户当前所有会话（所在群、好友单聊）的未读数
+     * @param userId 用户ID
+     * @return 会话ID -> 未读数，仅包含未读数大于0的会话
+     */
+    Map<String, Long> getUnreadCounts(String userId);
+}
@@ -4,6 +4,8 @@ package com.quwan.im.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.quwan.im.entity.UserEntity;
 
+import java.util.List;
+
 /**
  * 用户服务接口
  * 处理用户注册、登录、信息管理等业务
@@ -32,6 +34,13 @@ public interface UserService extends IService<UserEntity> {
      */
     boolean userExists(String userId);
 
+    /**
+     * 批量查询用户（优先命中缓存，未命中的按IN列表批量查询）
+     * @param userIds 用户ID列表
+     * @return 用户实体列表（只读），按传入顺序，不包含不存在的用户
+     */
+    List<UserEntity> getUsersByIds(List<String> userIds);
+
     /**
      * 用户登录验证
      * @param username 用户名
@@ -2,6 +2,7 @@ package com.quwan.im.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.quwan.im.cache.FriendGraphCache;
 import com.quwan.im.entity.FriendEntity;
 import com.quwan.im.entity.FriendRequestEntity;
 import com.quwan.im.mapper.FriendMapper;
@@ -12,8 +13,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * 好友服务实现类
@@ -27,6 +28,8 @@ public class FriendServiceImpl extends ServiceImpl<FriendMapper, FriendEntity> i
     @Autowired
     private FriendMapper friendMapper;
 
+    @Autowired
+    private FriendGraphCache friendGraphCache;
     /**
      * 发送好友请求
      * 检查条件：不能添加自己、不是已添加好友、没有未处理的请求
@@ -88,6 +91,8 @@ public class FriendServiceImpl extends ServiceImpl<FriendMapper, FriendEntity> i
             friend2.setCreateTime(LocalDateTime.now());
             friend2.setUpdateTime(LocalDateTime.now());
             friendMapper.insert(friend2);
+
+            friendGraphCache.invalidate(fromUser, toUser);
         }
 
         return true;
@@ -110,26 +115,38 @@ public class FriendServiceImpl extends ServiceImpl<FriendMapper, FriendEntity> i
     }
 
     /**
-     * 查询用户的好友列表（仅返回好友ID）
+     * 查询用户的好友列表（仅返回好友ID，只读）
      */
     @Override
     public List<String> getUserFriends(String userId) {
-        QueryWrapper<FriendEntity> query = new QueryWrapper<>();
-        query.eq("user_id", userId)
-                .eq("status", "NORMAL");
-
-        List<FriendEntity> friends = friendMapper.selectList(query);
-        return friends.stream()
-                .map(FriendEntity::getFriendId)
-                .collect(Collectors.toList());
+        return friendGraphCache.getFriendIds(userId);
+    }
+
+    /**
+     * 分页查询好友列表
+     * 好友ID取自好友关系缓存（已排序），按游标二分定位后截取一页
+     */
+    @Override
+    public List<String> getUserFriends(String userId, String afterFriendId, int limit) {
+        List<String> friendIds = friendGraphCache.getFriendIds(userId);
+        int from = 0;
+        if (afterFriendId != null) {
+            int index = Collections.binarySearch(friendIds, afterFriendId);
+            from = index >= 0 ? index + 1 : -index - 1;
+        }
+        int to = Math.min(from + limit, friendIds.size());
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+        return friendIds.subList(from, to);
     }
 
     /**
-     * 检查是否为好友
+     * 检查是否为好友（内存查找，见FriendGraphCache）
      */
     @Override
     public boolean isFriend(String userId, String friendId) {
-        return friendMapper.isFriend(userId, friendId);
+        return friendGraphCache.isFriend(userId, friendId);
     }
 
     @Override
@@ -143,7 +160,9 @@ public class FriendServiceImpl extends ServiceImpl<FriendMapper, FriendEntity> i
                         .eq("user_id", friendId)
                         .eq("friend_id", userId));
 
-        return friendMapper.delete(deleteBothDirections) > 0;
+        boolean removed = friendMapper.delete(deleteBothDirections) > 0;
+        friendGraphCache.invalidate(userId, friendId);
+        return removed;
     }
 
 
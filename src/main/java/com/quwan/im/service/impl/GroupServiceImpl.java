@@ -3,6 +3,8 @@ package com.quwan.im.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.quwan.im.cache.GroupMembershipCache;
+import com.quwan.im.cache.OnlineGroupIndex;
 import com.quwan.im.entity.GroupEntity;
 import com.quwan.im.entity.GroupMemberEntity;
 import com.quwan.im.mapper.GroupMapper;
@@ -28,6 +30,12 @@ public class GroupServiceImpl extends ServiceImpl<GroupMapper, GroupEntity> impl
     @Autowired
     private GroupMemberMapper groupMemberMapper;
 
+    @Autowired
+    private GroupMembershipCache groupMembershipCache;
+
+    @Autowired
+    private OnlineGroupIndex onlineGroupIndex;
+
     /**
      * 创建群组
      * 同时添加创建者为群成员（群主）
@@ -58,6 +66,8 @@ public class GroupServiceImpl extends ServiceImpl<GroupMapper, GroupEntity> impl
         owner.setJoinTime(LocalDateTime.now());
 
         groupMemberMapper.insert(owner);
+        groupMembershipCache.invalidate(groupId);
+        onlineGroupIndex.memberJoined(groupId, ownerId);
 
         return groupId;
     }
@@ -79,7 +89,12 @@ public class GroupServiceImpl extends ServiceImpl<GroupMapper, GroupEntity> impl
         member.setRole("MEMBER"); // 默认普通成员
         member.setJoinTime(LocalDateTime.now());
 
-        return groupMemberMapper.insert(member) > 0;
+        boolean added = groupMemberMapper.insert(member) > 0;
+        groupMembershipCache.invalidate(groupId);
+        if (added) {
+            onlineGroupIndex.memberJoined(groupId, userId);
+        }
+        return added;
     }
 
     /**
@@ -111,6 +126,10 @@ public class GroupServiceImpl extends ServiceImpl<GroupMapper, GroupEntity> impl
                         .eq("group_id", groupId)
                         .eq("user_id", userId)
         );
+        groupMembershipCache.invalidate(groupId);
+        if (rows > 0) {
+            onlineGroupIndex.memberLeft(groupId, userId);
+        }
 
         return rows > 0;
     }
@@ -132,6 +151,10 @@ public class GroupServiceImpl extends ServiceImpl<GroupMapper, GroupEntity> impl
                         .eq("group_id", groupId)
                         .eq("user_id", userId)
         );
+        groupMembershipCache.invalidate(groupId);
+        if (rows > 0) {
+            onlineGroupIndex.memberLeft(groupId, userId);
+        }
 
         return rows > 0;
     }
@@ -144,6 +167,14 @@ public class GroupServiceImpl extends ServiceImpl<GroupMapper, GroupEntity> impl
         return groupMemberMapper.selectMembersByGroupId(groupId);
     }
 
+    /**
+     * 获取群成员ID列表（走缓存）
+     */
+    @Override
+    public List<String> getGroupMemberIds(String groupId) {
+        return groupMembershipCache.getMemberIds(groupId);
+    }
+
     /**
      * 获取用户加入的群组
      */
@@ -154,12 +185,20 @@ public class GroupServiceImpl extends ServiceImpl<GroupMapper, GroupEntity> impl
         return groupMapper.selectUserGroups(userId);
     }
 
+    /**
+     * 获取用户加入的群组ID
+     */
+    @Override
+    public List<String> getUserGroupIds(String userId) {
+        return groupMemberMapper.selectGroupIdsByUserId(userId);
+    }
+
     /**
      * 检查是否为群成员
      */
     @Override
     public boolean isGroupMember(String groupId, String userId) {
-        return groupMemberMapper.isGroupMember(groupId, userId);
+        return groupMembershipCache.isMember(groupId, userId);
     }
 
     /**
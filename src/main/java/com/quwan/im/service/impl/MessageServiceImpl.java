@@ -1,12 +1,11 @@
 package com.quwan.im.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.baomidou.mybatisplus.core.metadata.IPage;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.quwan.im.entity.MessageEntity;
 import com.quwan.im.mapper.MessageMapper;
 import com.quwan.im.model.IMMessage;
+import com.quwan.im.persistence.ConversationSequencer;
+import com.quwan.im.persistence.MessageWriteBehind;
 import com.quwan.im.service.MessageService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -20,14 +19,35 @@ import java.util.List;
 @Service
 public class MessageServiceImpl extends ServiceImpl<MessageMapper, MessageEntity> implements MessageService {
 
+    // 单次历史查询最多返回的条数
+    private static final int MAX_HISTORY_LIMIT = 100;
+
     @Autowired
     private MessageMapper messageMapper;
 
+    @Autowired
+    private MessageWriteBehind messageWriteBehind;
+
+    @Autowired
+    private ConversationSequencer conversationSequencer;
+
+    /**
+     * 分配会话内序号
+     */
+    @Override
+    public void assignSequence(IMMessage message) {
+        message.setSeq(conversationSequencer.next(ConversationSequencer.conversationIdOf(message)));
+    }
+
     /**
      * 保存消息
+     * 交给MessageWriteBehind批量写入，队列满时同步写入
      */
     @Override
     public void saveMessage(IMMessage message, String status) {
+        if (message.getSeq() <= 0) {
+            assignSequence(message);
+        }
         MessageEntity entity = new MessageEntity();
         entity.setMessageId(message.getId());
         entity.setFromUser(message.getFrom());
@@ -35,18 +55,27 @@ public class MessageServiceImpl extends ServiceImpl<MessageMapper, MessageEntity
         entity.setContent(message.getContent());
         entity.setType(String.valueOf(message.getType()));
         entity.setGroupId(message.getGroupId());
+        entity.setConversationId(ConversationSequencer.conversationIdOf(message));
+        entity.setSeq(message.getSeq());
         entity.setStatus(status);
         entity.setTimestamp(LocalDateTime.now());
         entity.setCreateTime(LocalDateTime.now());
 
-        messageMapper.insert(entity);
+        if (!messageWriteBehind.submitInsert(entity)) {
+            messageMapper.insert(entity);
+        }
     }
 
     /**
      * 更新消息状态
+     * 与消息写入走同一队列，保证在消息写入之后执行；队列满时由写入线程在之前的写入刷盘后执行，
+     * 只有写入线程已停止（队列已清空）时才同步更新
      */
     @Override
-    public boolean updateMessageStatus(String messageId, String status) {
+    public boolean updateMessageStatus(Long messageId, String status) {
+        if (messageWriteBehind.submitStatus(messageId, status)) {
+            return true;
+        }
         return messageMapper.updateStatus(messageId, status) > 0;
     }
 
@@ -54,7 +83,7 @@ public class MessageServiceImpl extends ServiceImpl<MessageMapper, MessageEntity
      * 批量更新消息状态
      */
     @Override
-    public int batchUpdateMessageStatus(List<String> messageIds, String status) {
+    public int batchUpdateMessageStatus(List<Long> messageIds, String status) {
         if (messageIds == null || messageIds.isEmpty()) {
             return 0;
         }
@@ -71,37 +100,30 @@ public class MessageServiceImpl extends ServiceImpl<MessageMapper, MessageEntity
 
     /**
      * 获取用户与好友的历史消息
+     * 按 (conversation_id, seq) 游标分页，深分页与首页代价相同
      */
     @Override
-    public List<MessageEntity> getHistoryMessages(String userId, String friendId, int page, int size) {
-        Page<MessageEntity> pagination = new Page<>(page, size);
-
-        QueryWrapper<MessageEntity> query = new QueryWrapper<>();
-        query.and(wrapper -> wrapper
-                        .eq("from_user", userId)
-                        .eq("to_user", friendId)
-                ).or(wrapper -> wrapper
-                        .eq("from_user", friendId)
-                        .eq("to_user", userId)
-                )
-                .orderByDesc("timestamp");
-
-        IPage<MessageEntity> result = messageMapper.selectPage(pagination, query);
-        return result.getRecords();
+    public List<MessageEntity> getHistoryMessages(String userId, String friendId, Long beforeSeq, int limit) {
+        return messageMapper.selectHistoryBefore(ConversationSequencer.singleChatId(userId, friendId), beforeSeq, clampLimit(limit));
     }
 
     /**
-     * 获取群组历史消息
+     * 获取会话中序号大于afterSeq的消息
      */
     @Override
-    public List<MessageEntity> getGroupHistoryMessages(String groupId, int page, int size) {
-        Page<MessageEntity> pagination = new Page<>(page, size);
+    public List<MessageEntity> getMessagesAfter(String conversationId, long afterSeq, int limit) {
+        return messageMapper.selectAfter(conversationId, afterSeq, limit);
+    }
 
-        QueryWrapper<MessageEntity> query = new QueryWrapper<>();
-        query.eq("group_id", groupId)
-                .orderByDesc("timestamp");
+    /**
+     * 获取群组历史消息
+     */
+    @Override
+    public List<MessageEntity> getGroupHistoryMessages(String groupId, Long beforeSeq, int limit) {
+        return messageMapper.selectHistoryBefore(ConversationSequencer.groupChatId(groupId), beforeSeq, clampLimit(limit));
+    }
 
-        IPage<MessageEntity> result = messageMapper.selectPage(pagination, query);
-        return result.getRecords();
+    private static int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
     }
 }
@@ -0,0 +1,115 @@
+package com.quwan.im.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.quwan.im.entity.ReadCursorEntity;
+import com.quwan.im.mapper.ReadCursorMapper;
+import com.quwan.im.persistence.ConversationSequencer;
+import com.quwan.im.persistence.ReadCursorWriteBehind;
+import com.quwan.im.service.FriendService;
+import com.quwan.im.service.GroupService;
+import com.quwan.im.service.ReadCursorService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 已读游标服务实现类
+ */
+@Service
+public class ReadCursorServiceImpl extends ServiceImpl<ReadCursorMapper, ReadCursorEntity> implements ReadCursorService {
+
+    @Autowired
+    private ReadCursorMapper readCursorMapper;
+
+    @Autowired
+    private ConversationSequencer conversationSequencer;
+
+    @Autowired
+    private GroupService groupService;
+
+    @Autowired
+    private FriendService friendService;
+
+    @Autowired
+    private ReadCursorWriteBehind readCursorWriteBehind;
+
+    /**
+     * 推进已读游标
+     * 一次UPSERT，GREATEST保证游标只前进，回执乱序到达也不会回退
+     */
+    @Override
+    public void markRead(String userId, String conversationId, long seq) {
+        if (userId == null || conversationId == null || seq <= 0) {
+            return;
+        }
+        readCursorMapper.upsertCursor(userId, conversationId, seq);
+    }
+
+    /**
+     * 推进已读游标，只在内存中合并，由ReadCursorWriteBehind批量写入
+     */
+    @Override
+    public void markReadDeferred(String userId, String conversationId, long seq) {
+        if (userId == null || conversationId == null || seq <= 0) {
+            return;
+        }
+        readCursorWriteBehind.submit(userId, conversationId, seq);
+    }
+
+    /**
+     * 库中的游标与尚未写入的游标取最大值
+     */
+    @Override
+    public long getReadSeq(String userId, String conversationId) {
+        Long seq = readCursorMapper.selectReadSeq(userId, conversationId);
+        return Math.max(seq != null ? seq : 0L, readCursorWriteBehind.pendingSeq(userId, conversationId));
+    }
+
+    @Override
+    public long getUnreadCount(String userId, String conversationId) {
+        return Math.max(0L, conversationSequencer.current(conversationId) - getReadSeq(userId, conversationId));
+    }
+
+    /**
+     * 查询用户所有会话的已读序号
+     * 会话范围为当前所在的群与好友单聊，没有游标的记为0；游标一次查出，
+     * 已退出的群、已删除的好友留下的游标不再返回（不再同步这些会话的新消息，也不计未读）
+     */
+    @Override
+    public Map<String, Long> getReadSeqs(String userId) {
+        Map<String, Long> readSeqs = new LinkedHashMap<>();
+        for (String groupId : groupService.getUserGroupIds(userId)) {
+            readSeqs.put(ConversationSequencer.groupChatId(groupId), 0L);
+        }
+        for (String friendId : friendService.getUserFriends(userId)) {
+            readSeqs.put(ConversationSequencer.singleChatId(userId, friendId), 0L);
+        }
+        for (ReadCursorEntity cursor : readCursorMapper.selectByUserId(userId)) {
+            readSeqs.replace(cursor.getConversationId(), cursor.getLastReadSeq());
+        }
+        for (Map.Entry<String, Long> cursor : readCursorWriteBehind.pendingSeqs(userId).entrySet()) {
+            readSeqs.computeIfPresent(cursor.getKey(), (id, seq) -> Math.max(seq, cursor.getValue()));
+        }
+        return readSeqs;
+    }
+
+    /**
+     * 查询用户所有会话的未读数
+     * 会话最新序号由序号存储一次批量查出（见SequenceStore），不再逐个会话查询
+     */
+    @Override
+    public Map<String, Long> getUnreadCounts(String userId) {
+        Map<String, Long> readSeqs = getReadSeqs(userId);
+        Map<String, Long> latestSeqs = conversationSequencer.current(readSeqs.keySet());
+        Map<String, Long> unreadCounts = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : readSeqs.entrySet()) {
+            long unread = latestSeqs.getOrDefault(entry.getKey(), 0L) - entry.getValue();
+            if (unread > 0) {
+                unreadCounts.put(entry.getKey(), unread);
+            }
+        }
+        return unreadCounts;
+    }
+}
@@ -2,6 +2,7 @@ package com.quwan.im.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.quwan.im.cache.UserCache;
 import com.quwan.im.entity.UserEntity;
 import com.quwan.im.mapper.UserMapper;
 import com.quwan.im.service.UserService;
@@ -9,8 +10,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.DigestUtils;
 
+import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -22,6 +26,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> impleme
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private UserCache userCache;
+
     /**
      * 根据用户名查询用户
      */
@@ -35,15 +42,43 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> impleme
      */
     @Override
     public boolean updateUserStatus(String userId, String status) {
-        return userMapper.updateStatus(userId, status) > 0;
+        boolean updated = userMapper.updateStatus(userId, status) > 0;
+        userCache.invalidate(userId);
+        return updated;
     }
 
     /**
-     * 检查用户是否存在
+     * 检查用户是否存在（经UserCache，不存在的结果短时间缓存）
      */
     @Override
     public boolean userExists(String userId) {
-        return userMapper.existsById(userId);
+        return userCache.exists(userId);
+    }
+
+    /**
+     * 批量查询用户（经UserCache）
+     */
+    @Override
+    public List<UserEntity> getUsersByIds(List<String> userIds) {
+        return new ArrayList<>(userCache.getAll(userIds).values());
+    }
+
+    /**
+     * 根据用户ID查询用户（经UserCache，返回的实体只读）
+     */
+    @Override
+    public UserEntity getById(Serializable id) {
+        return id != null ? userCache.get(id.toString()) : null;
+    }
+
+    /**
+     * 更新用户资料，更新后失效缓存
+     */
+    @Override
+    public boolean updateById(UserEntity entity) {
+        boolean updated = super.updateById(entity);
+        userCache.invalidate(entity.getUserId());
+        return updated;
     }
 
     /**
@@ -61,8 +96,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> impleme
         String encryptedPassword = DigestUtils.md5DigestAsHex(
                 password.getBytes(StandardCharsets.UTF_8));
         if (encryptedPassword.equals(user.getPassword())) {
-            // 登录成功，更新状态为在线
-            updateUserStatus(user.getUserId(), "ONLINE");
+            // 在线状态由PresenceService按设备租约维护，不再写入用户表
             return user.getUserId();
         }
 
@@ -96,6 +130,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, UserEntity> impleme
 
         // 保存用户
         if (save(user)) {
+            userCache.invalidate(userId);
             return userId;
         }
 
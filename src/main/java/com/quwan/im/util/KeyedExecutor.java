@@ -0,0 +1,335 @@
+package com.quwan.im.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按键有序的执行器
+ * 由固定数量的单线程通道（lane）组成，键（用户ID、群ID等）按哈希映射到固定通道：
+ * 同一个键的任务严格按提交顺序执行，不同键的任务分散到各通道并行执行。
+ *
+ * 两种提交方式：
+ * execute 在通道队列满时等待入队，只能在可以阻塞的线程（业务线程池）中调用；
+ * offer 从不阻塞，队列满时任务进入通道的暂存队列，由后台线程在通道有空位时按顺序补入，
+ * Netty I/O线程、Redis监听线程以及通道线程自身都必须使用 offer。
+ * 两种方式都不会由提交线程直接执行任务（那样会破坏同一键的顺序）；暂存队列也满时 offer 丢弃任务并计数。
+ * 不能丢失的任务（上线登记、下线注销等状态变更）使用 offerUnbounded：同样不阻塞，暂存队列满时仍然暂存，
+ * 超出容量的次数单独计数。
+ */
+public class KeyedExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(KeyedExecutor.class);
+
+    /**
+     * 暂存任务补入通道的重试间隔
+     */
+    private static final long RETRY_INTERVAL_MILLIS = 5;
+
+    /**
+     * 当前线程所属的通道，用于识别通道线程向自己提交
+     */
+    private static final ThreadLocal<Lane> CURRENT_LANE = new ThreadLocal<>();
+
+    private final String name;
+    private final int queueCapacity;
+    private final Lane[] lanes;
+    private final ScheduledExecutorService retrier;
+
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder overCapacity = new LongAdder();
+
+    /**
+     * @param name 名称，同时作为线程名前缀
+     * @param laneCount 通道数量
+     * @param queueCapacity 每个通道的队列容量，暂存队列容量与之相同
+     */
+    public KeyedExecutor(String name, int laneCount, int queueCapacity) {
+        if (laneCount <= 0) {
+            throw new IllegalArgumentException("通道数量必须大于0: " + laneCount);
+        }
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(name + "-" + i, queueCapacity);
+        }
+        this.retrier = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name + "-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 按键提交任务，通道队列满时等待入队
+     * 通道线程向自己的通道提交时等待会造成自身死锁，此时按 offer 处理
+     * @param key 排序键，null统一映射到第0个通道
+     * @param task 任务
+     */
+    public void execute(Object key, Runnable task) {
+        Lane lane = lanes[laneIndex(key)];
+        if (CURRENT_LANE.get() == lane) {
+            offer(lane, task, false);
+            return;
+        }
+        enqueueBlocking(lane, task);
+    }
+
+    /**
+     * 按键提交任务，从不阻塞
+     * 队列满时任务进入暂存队列，稍后按顺序补入；暂存队列也满时丢弃并记录日志
+     * @param key 排序键，null统一映射到第0个通道
+     * @param task 任务
+     */
+    public void offer(Object key, Runnable task) {
+        offer(lanes[laneIndex(key)], task, false);
+    }
+
+    /**
+     * 按键提交不能丢弃的任务，从不阻塞
+     * 与 offer 相同，但暂存队列满时仍然暂存（超出容量计入 overCapacity），只用于数量受连接数约束的状态变更任务
+     * @param key 排序键，null统一映射到第0个通道
+     * @param task 任务
+     */
+    public void offerUnbounded(Object key, Runnable task) {
+        offer(lanes[laneIndex(key)], task, true);
+    }
+
+    /**
+     * 键对应的通道下标
+     */
+    public int laneIndex(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        // 扰动高位，避免相近的哈希值集中在少数通道
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * 各通道的排队数、暂存数与已完成任务数
+     */
+    public Map<String, Object> getStats() {
+        List<Map<String, Object>> laneStats = new ArrayList<>(lanes.length);
+        long queued = 0;
+        long pending = 0;
+        long completed = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            Map<String, Object> lane = new LinkedHashMap<>();
+            int size = lanes[i].executor.getQueue().size();
+            int waiting;
+            synchronized (lanes[i]) {
+                waiting = lanes[i].deferred.size();
+            }
+            long done = lanes[i].executor.getCompletedTaskCount();
+            lane.put("lane", i);
+            lane.put("queued", size);
+            lane.put("deferred", waiting);
+            lane.put("completed", done);
+            laneStats.add(lane);
+            queued += size;
+            pending += waiting;
+            completed += done;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("lanes", lanes.length);
+        stats.put("queued", queued);
+        stats.put("deferredNow", pending);
+        stats.put("deferredTotal", deferred.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("overCapacity", overCapacity.sum());
+        stats.put("completed", completed);
+        stats.put("laneStats", laneStats);
+        return stats;
+    }
+
+    /**
+     * 停止接收新任务，补入暂存的任务并等待已提交的任务执行完毕
+     */
+    public void shutdown() {
+        retrier.shutdownNow();
+        for (Lane lane : lanes) {
+            Runnable task;
+            while (true) {
+                synchronized (lane) {
+                    task = lane.deferred.poll();
+                }
+                if (task == null) {
+                    break;
+                }
+                try {
+                    lane.executor.getQueue().put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            lane.executor.shutdown();
+        }
+        for (Lane lane : lanes) {
+            try {
+                if (!lane.executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    logger.warn("执行器[{}]关闭超时，剩余任务: {}", name, lane.executor.getQueue().size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void offer(Lane lane, Runnable task, boolean unbounded) {
+        synchronized (lane) {
+            if (tryEnqueue(lane, task)) {
+                return;
+            }
+            if (lane.deferred.size() >= queueCapacity) {
+                if (!unbounded) {
+                    rejected.increment();
+                    logger.warn("执行器[{}]通道[{}]暂存队列已满，丢弃任务", name, lane.name);
+                    return;
+                }
+                overCapacity.increment();
+            }
+            lane.deferred.add(task);
+            deferred.increment();
+            if (!lane.retryScheduled) {
+                lane.retryScheduled = true;
+                scheduleRetry(lane);
+            }
+        }
+    }
+
+    /**
+     * 等待入队：已有暂存任务时也要等它们先入队，保证同一键的顺序
+     */
+    private void enqueueBlocking(Lane lane, Runnable task) {
+        while (true) {
+            synchronized (lane) {
+                if (tryEnqueue(lane, task)) {
+                    return;
+                }
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("等待入队时被中断");
+            }
+        }
+    }
+
+    /**
+     * 暂存队列为空且通道队列有空位时入队，调用方持有通道锁
+     */
+    private boolean tryEnqueue(Lane lane, Runnable task) {
+        if (!lane.deferred.isEmpty()) {
+            return false;
+        }
+        try {
+            lane.executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            if (lane.executor.isShutdown()) {
+                throw e;
+            }
+            return false;
+        }
+    }
+
+    private void scheduleRetry(Lane lane) {
+        try {
+            retrier.schedule(() -> drain(lane), RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 执行器关闭中，剩余的暂存任务由shutdown补入
+            lane.retryScheduled = false;
+        }
+    }
+
+    /**
+     * 把暂存任务按顺序补入通道队列，仍有剩余则稍后再试
+     */
+    private void drain(Lane lane) {
+        synchronized (lane) {
+            Runnable task;
+            while ((task = lane.deferred.peek()) != null) {
+                try {
+                    lane.executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+                lane.deferred.poll();
+            }
+            if (lane.deferred.isEmpty() || lane.executor.isShutdown()) {
+                lane.retryScheduled = false;
+            } else {
+                scheduleRetry(lane);
+            }
+        }
+    }
+
+    /**
+     * 单个通道：单线程执行器 + 暂存队列
+     * deferred 与 retryScheduled 只在持有通道锁时访问
+     */
+    private static final class Lane {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final Deque<Runnable> deferred = new ArrayDeque<>();
+        private boolean retryScheduled;
+
+        Lane(String name, int queueCapacity) {
+            this.name = name;
+            this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity),
+                    new LaneThreadFactory(this, name),
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    private static final class LaneThreadFactory implements ThreadFactory {
+        private final Lane lane;
+        private final String threadName;
+        private final AtomicInteger created = new AtomicInteger();
+
+        LaneThreadFactory(Lane lane, String threadName) {
+            this.lane = lane;
+            this.threadName = threadName;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            // 任务异常导致线程退出时会重建线程，加序号便于区分
+            int n = created.getAndIncrement();
+            Thread thread = new Thread(() -> {
+                CURRENT_LANE.set(lane);
+                r.run();
+            }, n == 0 ? threadName : threadName + "." + n);
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.quwan.im.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 64位时间有序ID生成器（Snowflake布局）
+ * 布局：[符号位(1)=0][自EPOCH起的毫秒数(41)][工作节点ID(10)][毫秒内序号(12)]
+ * 同一节点生成的ID严格递增，不同节点由工作节点ID区分，约可使用69年。
+ *
+ * 无锁实现：毫秒数与序号合并为一个long状态，通过CAS推进。
+ * 同一毫秒内序号用尽时借用下一毫秒，时钟回拨时沿用上次的毫秒数继续递增，两种情况都不阻塞等待，
+ * 只是ID中的时间略超前于实际时间，直到实际时间追上。
+ */
+public class SnowflakeIdGenerator {
+
+    // 起始时间：2024-01-01 00:00:00 UTC
+    public static final long EPOCH = 1704067200000L;
+
+    private static final int WORKER_ID_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+
+    public static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = WORKER_ID_BITS + SEQUENCE_BITS;
+
+    private final long workerId;
+
+    // (毫秒数 << SEQUENCE_BITS) | 序号，单调递增
+    private final AtomicLong state = new AtomicLong();
+
+    /**
+     * @param workerId 工作节点ID（0 ~ 1023），集群内每个节点必须唯一
+     */
+    public SnowflakeIdGenerator(long workerId) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("工作节点ID超出范围[0, " + MAX_WORKER_ID + "]: " + workerId);
+        }
+        this.workerId = workerId;
+    }
+
+    /**
+     * 生成下一个ID
+     */
+    public long nextId() {
+        long floor = (currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        long prev;
+        long next;
+        do {
+            prev = state.get();
+            // 新的毫秒从序号0开始；同一毫秒（或时钟回拨）在上次基础上加1，序号溢出自然进位到下一毫秒
+            next = Math.max(prev + 1, floor);
+        } while (!state.compareAndSet(prev, next));
+
+        long timestamp = next >>> SEQUENCE_BITS;
+        return (timestamp << TIMESTAMP_SHIFT) | (workerId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * ID中的生成时间（毫秒时间戳）
+     */
+    public static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    /**
+     * ID中的工作节点ID
+     */
+    public static long workerIdOf(long id) {
+        return (id >>> SEQUENCE_BITS) & MAX_WORKER_ID;
+    }
+
+    /**
+     * 当前时间，测试中可覆盖以模拟时钟回拨
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,18 @@
+-- 消息ID改为64位整数（SnowflakeIdGenerator生成，时间有序）
+-- 原UUID字符串主键随机写入，导致聚簇索引频繁页分裂；新ID按时间递增，插入总在索引末尾
+ALTER TABLE im_message
+    ADD COLUMN new_message_id BIGINT NULL FIRST;
+
+-- 存量数据按时间顺序编号为 1..N，均小于生成器产生的ID（毫秒数左移22位），新旧ID整体仍保持时间顺序
+UPDATE im_message m
+JOIN (SELECT message_id,
+             ROW_NUMBER() OVER (ORDER BY timestamp, message_id) AS rn
+      FROM im_message) t ON m.message_id = t.message_id
+SET m.new_message_id = t.rn;
+
+-- 原字符串ID保留在 legacy_message_id，便于排查旧客户端回执
+ALTER TABLE im_message
+    DROP PRIMARY KEY,
+    CHANGE COLUMN message_id legacy_message_id VARCHAR(64) NULL,
+    CHANGE COLUMN new_message_id message_id BIGINT NOT NULL,
+    ADD PRIMARY KEY (message_id);
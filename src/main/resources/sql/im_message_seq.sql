@@ -0,0 +1,22 @@
+-- 会话内序号与游标分页
+-- conversation_id：单聊为 p:{较小用户ID}:{较大用户ID}，群聊为 g:{群ID}
+-- 历史消息按 (conversation_id, seq) 游标分页，深分页与首页代价相同
+ALTER TABLE im_message
+    ADD COLUMN conversation_id VARCHAR(200) NULL AFTER group_id,
+    ADD COLUMN seq BIGINT NULL AFTER conversation_id;
+
+-- 存量数据回填：按时间顺序为每个会话生成序号
+UPDATE im_message
+SET conversation_id = IF(group_id IS NOT NULL AND group_id <> '',
+                         CONCAT('g:', group_id),
+                         CONCAT('p:', LEAST(from_user, to_user), ':', GREATEST(from_user, to_user)))
+WHERE conversation_id IS NULL;
+
+UPDATE im_message m
+JOIN (SELECT message_id,
+             ROW_NUMBER() OVER (PARTITION BY conversation_id ORDER BY timestamp, message_id) AS rn
+      FROM im_message) t ON m.message_id = t.message_id
+SET m.seq = t.rn
+WHERE m.seq IS NULL;
+
+CREATE UNIQUE INDEX idx_conversation_seq ON im_message (conversation_id, seq);
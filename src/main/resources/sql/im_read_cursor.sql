@@ -0,0 +1,11 @@
+-- 已读游标：每个用户在每个会话中已读到的序号
+-- 已读回执只推进游标（一次UPSERT），未读数 = 会话最新序号 - 已读序号
+CREATE TABLE IF NOT EXISTS im_read_cursor (
+    id            BIGINT       NOT NULL AUTO_INCREMENT,
+    user_id       VARCHAR(64)  NOT NULL,
+    conversation_id VARCHAR(200) NOT NULL,
+    last_read_seq BIGINT       NOT NULL DEFAULT 0,
+    update_time   DATETIME     NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_user_conversation (user_id, conversation_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
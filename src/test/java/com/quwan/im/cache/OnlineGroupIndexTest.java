@@ -0,0 +1,62 @@
+package com.quwan.im.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 群在线成员索引测试
+ * 验证上下线与加群/退群后索引只包含在线成员
+ */
+public class OnlineGroupIndexTest {
+
+    private OnlineGroupIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new OnlineGroupIndex();
+    }
+
+    @Test
+    void testOnlineAndOffline() {
+        index.userOnline("user_a", Arrays.asList("group_1", "group_2"));
+        index.userOnline("user_b", Collections.singletonList("group_1"));
+
+        assertEquals(2, index.getOnlineMembers("group_1").size(), "group_1在线人数不正确");
+        assertTrue(index.getOnlineMembers("group_2").contains("user_a"), "user_a应在group_2在线");
+
+        index.userOffline("user_a");
+        assertEquals(Collections.singleton("user_b"), index.getOnlineMembers("group_1"), "user_a下线后应被移除");
+        assertTrue(index.getOnlineMembers("group_2").isEmpty(), "group_2应无在线成员");
+    }
+
+    @Test
+    void testJoinAndQuit() {
+        index.userOnline("user_a", Collections.emptyList());
+
+        index.memberJoined("group_1", "user_a");
+        // 离线用户加群不进入索引
+        index.memberJoined("group_1", "user_offline");
+        assertEquals(Collections.singleton("user_a"), index.getOnlineMembers("group_1"), "加群后索引不正确");
+
+        index.memberLeft("group_1", "user_a");
+        assertTrue(index.getOnlineMembers("group_1").isEmpty(), "退群后应被移除");
+
+        // 退群后下线不应恢复该群
+        index.userOffline("user_a");
+        assertEquals(0, index.getStats().get("activeGroups"), "不应残留空群条目");
+    }
+
+    @Test
+    void testReloginReplacesGroups() {
+        index.userOnline("user_a", Arrays.asList("group_1", "group_2"));
+        index.userOnline("user_a", Collections.singletonList("group_2"));
+
+        assertTrue(index.getOnlineMembers("group_1").isEmpty(), "重复登录后旧群应被清理");
+        assertTrue(index.getOnlineMembers("group_2").contains("user_a"), "重复登录后新群应保留");
+    }
+}
@@ -0,0 +1,166 @@
+package com.quwan.im.cache;
+
+import com.quwan.im.cluster.ClusterRouter;
+import com.quwan.im.entity.UserEntity;
+import com.quwan.im.mapper.UserMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 用户信息缓存测试
+ * 验证条目与负缓存条目过期后重新加载、加载期间被失效的结果不写入缓存（不影响其他键）、
+ * 批量加载同样受失效保护，以及同一用户的并发未命中只查询一次
+ */
+public class UserCacheTest {
+
+    private UserMapper userMapper;
+    private ClusterRouter clusterRouter;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        userMapper = mock(UserMapper.class);
+        clusterRouter = mock(ClusterRouter.class);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testEntryExpires() {
+        when(userMapper.selectById("user_a")).thenReturn(user("user_a"));
+        UserCache cache = cache(0, 600);
+
+        assertNotNull(cache.get("user_a"));
+        assertNotNull(cache.get("user_a"));
+        verify(userMapper, times(2)).selectById("user_a");
+        assertEquals(1L, cache.getStats().get("expirations"), "TTL为0的条目再次访问时应已过期");
+    }
+
+    @Test
+    void testNegativeEntryExpires() {
+        when(userMapper.selectById("user_a")).thenReturn(user("user_a"));
+        UserCache cache = cache(600, 0);
+
+        assertNull(cache.get("user_x"));
+        assertNull(cache.get("user_x"));
+        verify(userMapper, times(2)).selectById("user_x");
+
+        cache.get("user_a");
+        cache.get("user_a");
+        verify(userMapper, times(1)).selectById("user_a");
+    }
+
+    @Test
+    void testNegativeEntryIsCached() {
+        UserCache cache = cache(600, 600);
+
+        assertFalse(cache.exists("user_x"));
+        assertFalse(cache.exists("user_x"));
+        verify(userMapper, times(1)).selectById("user_x");
+        assertEquals(1L, cache.getStats().get("negativeHits"));
+    }
+
+    @Test
+    void testInvalidateDuringLoad() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userMapper.selectById("user_a")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return user("user_a");
+        });
+        UserCache cache = cache(600, 30);
+
+        Future<UserEntity> load = executor.submit(() -> cache.get("user_a"));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        cache.invalidate("user_a");
+        release.countDown();
+        assertNotNull(load.get(5, TimeUnit.SECONDS));
+
+        cache.get("user_a");
+        verify(userMapper, times(2)).selectById("user_a");
+        verify(clusterRouter).broadcastInvalidation("users", Collections.singletonList("user_a"));
+    }
+
+    @Test
+    void testInvalidateDuringBatchLoadOnlyDropsThatUser() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userMapper.selectBatchIds(anyCollection())).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Arrays.asList(user("user_a"), user("user_b"));
+        });
+        UserCache cache = cache(600, 30);
+
+        Future<Map<String, UserEntity>> load = executor.submit(() -> cache.getAll(Arrays.asList("user_a", "user_b", "user_x")));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        cache.invalidate("user_a");
+        release.countDown();
+        assertEquals(Arrays.asList("user_a", "user_b"), Arrays.asList(load.get(5, TimeUnit.SECONDS).keySet().toArray()));
+
+        when(userMapper.selectById("user_a")).thenReturn(user("user_a"));
+        assertNotNull(cache.get("user_a"));
+        assertNotNull(cache.get("user_b"));
+        assertNull(cache.get("user_x"));
+        verify(userMapper, times(1)).selectById("user_a");
+        verify(userMapper, never()).selectById("user_b");
+        verify(userMapper, never()).selectById("user_x");
+    }
+
+    @Test
+    void testConcurrentMissesLoadOnce() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userMapper.selectById("user_a")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return user("user_a");
+        });
+        UserCache cache = cache(600, 30);
+
+        Future<UserEntity> first = executor.submit(() -> cache.get("user_a"));
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        Future<UserEntity> second = executor.submit(() -> cache.get("user_a"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Long.valueOf(1L).equals(cache.getStats().get("coalesced")) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS), "并发未命中应共享同一次加载的结果");
+        verify(userMapper, times(1)).selectById("user_a");
+    }
+
+    private UserCache cache(long ttlSeconds, long negativeTtlSeconds) {
+        UserCache cache = new UserCache(100, ttlSeconds, negativeTtlSeconds);
+        ReflectionTestUtils.setField(cache, "userMapper", userMapper);
+        ReflectionTestUtils.setField(cache, "clusterRouter", clusterRouter);
+        return cache;
+    }
+
+    private static UserEntity user(String userId) {
+        UserEntity user = new UserEntity();
+        user.setUserId(userId);
+        return user;
+    }
+}
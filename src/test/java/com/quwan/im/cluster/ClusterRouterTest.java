@@ -0,0 +1,142 @@
+package com.quwan.im.cluster;
+
+import com.quwan.im.model.IMMessage;
+import com.quwan.im.model.MessageType;
+import com.quwan.im.model.ProtocolMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 集群路由测试
+ * 以JVM内会话目录与总线模拟两个节点，验证单发按会话目录转发到用户所在节点、群消息广播不回到发送节点、
+ * 旧节点的下线不影响用户在新节点的登记、在其他节点登录时踢掉旧节点的连接、失联节点上的用户不再转发、缓存失效广播到其他节点
+ */
+public class ClusterRouterTest {
+
+    private LocalSessionDirectory directory;
+    private LocalClusterBus bus;
+    private ClusterRouter nodeA;
+    private ClusterRouter nodeB;
+    private final BlockingQueue<ClusterEnvelope> receivedByA = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ClusterEnvelope> receivedByB = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        directory = new LocalSessionDirectory();
+        bus = new LocalClusterBus();
+        nodeA = node("node-a", receivedByA);
+        nodeB = node("node-b", receivedByB);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        nodeA.stop();
+        nodeB.stop();
+    }
+
+    @Test
+    void testSendToUserOnOtherNode() throws Exception {
+        nodeB.userOnline("user_b", "phone");
+
+        nodeA.sendToUsers(Arrays.asList("user_b", "user_offline"), chat("user_a", "user_b"));
+
+        ClusterEnvelope envelope = receivedByB.poll(5, TimeUnit.SECONDS);
+        assertNotNull(envelope, "node-b应收到转发");
+        assertEquals(Collections.singletonList("user_b"), envelope.getTo(), "只转发给node-b上的用户");
+        assertEquals(MessageType.SINGLE_CHAT.getCode(), envelope.getType());
+        assertEquals("user_a", envelope.getMessage().getFrom());
+        assertTrue(receivedByA.isEmpty(), "node-a不应收到自己发出的单发");
+        assertEquals(1L, nodeA.getStats().get("unrouted"), "未登记的用户不转发");
+    }
+
+    @Test
+    void testBroadcastSkipsOrigin() throws Exception {
+        nodeA.broadcastToGroup("group_1", "user_a", chat("user_a", null));
+
+        ClusterEnvelope envelope = receivedByB.poll(5, TimeUnit.SECONDS);
+        assertNotNull(envelope, "node-b应收到群广播");
+        assertEquals("group_1", envelope.getGroupId());
+        assertEquals("user_a", envelope.getExclude());
+        assertNull(receivedByA.poll(100, TimeUnit.MILLISECONDS), "群广播不应回到发送节点");
+    }
+
+    @Test
+    void testStaleOfflineKeepsNewRegistration() {
+        nodeA.userOnline("user_c", "phone");
+        nodeB.userOnline("user_c", "phone");
+        // 用户已切换到node-b，node-a上旧连接的下线不应注销新的登记
+        nodeA.userOffline("user_c");
+
+        assertEquals("node-b", directory.lookup(Collections.singletonList("user_c")).get("user_c"));
+        nodeB.userOffline("user_c");
+        assertTrue(directory.lookup(Collections.singletonList("user_c")).isEmpty());
+    }
+
+    @Test
+    void testLoginOnOtherNodeKicksPreviousNode() throws Exception {
+        nodeA.userOnline("user_d", "phone");
+        nodeB.userOnline("user_d", "phone");
+
+        ClusterEnvelope envelope = receivedByA.poll(5, TimeUnit.SECONDS);
+        assertNotNull(envelope, "node-a应收到踢下线通知");
+        assertTrue(envelope.isKick());
+        assertEquals(Collections.singletonList("user_d"), envelope.getTo());
+        assertEquals("phone", envelope.getData(), "通知应带上新登录的设备");
+        assertEquals(1L, nodeB.getStats().get("kicks"));
+
+        // 同一节点上重复登记不发送踢下线通知
+        nodeB.userOnline("user_d", "phone");
+        assertNull(receivedByB.poll(100, TimeUnit.MILLISECONDS), "同节点重复登录由本节点处理");
+        assertNull(receivedByA.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testUsersOnDownNodeAreUnrouted() throws Exception {
+        nodeB.userOnline("user_b", "phone");
+        // node-b下线（宕机时为存活键过期），其上的登记不再返回
+        nodeB.stop();
+
+        nodeA.sendToUsers(Collections.singletonList("user_b"), chat("user_a", "user_b"));
+        assertTrue(directory.lookup(Collections.singletonList("user_b")).isEmpty(), "失联节点上的登记不应返回");
+        assertEquals(1L, nodeA.getStats().get("unrouted"), "发往失联节点的消息应计入unrouted");
+        assertNull(receivedByB.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testInvalidationReachesOtherNodes() throws Exception {
+        BlockingQueue<List<String>> invalidatedOnB = new LinkedBlockingQueue<>();
+        nodeB.onInvalidate("users", invalidatedOnB::add);
+
+        nodeA.broadcastInvalidation("users", Collections.singletonList("user_x"));
+
+        assertEquals(Collections.singletonList("user_x"), invalidatedOnB.poll(5, TimeUnit.SECONDS), "node-b应失效本地缓存");
+        assertNull(receivedByB.poll(100, TimeUnit.MILLISECONDS), "失效广播不应投递给用户");
+    }
+
+    private ClusterRouter node(String nodeId, BlockingQueue<ClusterEnvelope> received) {
+        ClusterRouter router = new ClusterRouter(directory, bus, true, nodeId, 1000, 100, 1, 1000, 60000);
+        router.setReceiver(received::add);
+        router.start();
+        return router;
+    }
+
+    private static ProtocolMessage chat(String from, String to) {
+        IMMessage message = new IMMessage();
+        message.setId(1L);
+        message.setFrom(from);
+        message.setTo(to);
+        message.setContent("hello");
+        message.setType(to != null ? MessageType.SINGLE_CHAT.getCode() : MessageType.GROUP_CHAT.getCode());
+        return new ProtocolMessage(message.getType(), message);
+    }
+}
@@ -0,0 +1,111 @@
+package com.quwan.im.netty;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 出站flush合并测试
+ * 以EmbeddedChannel搭建flush合并处理器及两侧的统计处理器，验证读取期间与业务线程写出时的多次flush合并为一次，
+ * explicit-after-flushes 按flush次数（而非帧数）强制flush，以及统计计入合并前后的flush次数
+ */
+public class IMChannelInitializerTest {
+
+    @Test
+    void testFlushesDuringReadAreConsolidated() {
+        IMChannelInitializer initializer = initializer(true, 256, true);
+        EmbeddedChannel channel = channel(initializer, 10);
+
+        channel.writeInbound("request");
+
+        Map<String, Object> stats = initializer.getFlushStats();
+        assertEquals(10L, stats.get("frames"));
+        assertEquals(10L, stats.get("requestedFlushes"));
+        assertEquals(1L, stats.get("socketFlushes"), "读取期间的10次flush应在读取完成时合并为一次");
+        assertEquals(9L, stats.get("consolidatedFlushes"));
+        assertEquals(10, channel.outboundMessages().size());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testExplicitFlushCountsFlushesNotFrames() {
+        IMChannelInitializer initializer = initializer(true, 4, true);
+        EmbeddedChannel channel = channel(initializer, 10);
+
+        channel.writeInbound("request");
+        assertEquals(3L, initializer.getFlushStats().get("socketFlushes"), "第4、8次flush强制写出，读取完成时再写出剩余的2次");
+
+        // 只write不flush的帧不计入：写出20帧后flush一次，仍只算一次flush
+        for (int i = 0; i < 20; i++) {
+            channel.write("frame");
+        }
+        channel.flush();
+        channel.runPendingTasks();
+        Map<String, Object> stats = initializer.getFlushStats();
+        assertEquals(30L, stats.get("frames"));
+        assertEquals(11L, stats.get("requestedFlushes"));
+        assertEquals(4L, stats.get("socketFlushes"));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testFlushesOutsideReadAreConsolidated() {
+        IMChannelInitializer initializer = initializer(true, 256, true);
+        EmbeddedChannel channel = channel(initializer, 0);
+
+        // 业务线程写出：flush提交为EventLoop任务，任务执行前的flush都并入其中
+        for (int i = 0; i < 5; i++) {
+            channel.writeAndFlush("frame");
+        }
+        assertEquals(0L, initializer.getFlushStats().get("socketFlushes"));
+        channel.runPendingTasks();
+        assertEquals(1L, initializer.getFlushStats().get("socketFlushes"));
+        assertEquals(5L, initializer.getFlushStats().get("requestedFlushes"));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testDisabledFlushesEveryRequest() {
+        IMChannelInitializer initializer = initializer(false, 256, true);
+        EmbeddedChannel channel = channel(initializer, 10);
+
+        channel.writeInbound("request");
+
+        Map<String, Object> stats = initializer.getFlushStats();
+        assertEquals(10L, stats.get("socketFlushes"), "关闭合并时每次flush都到达Socket");
+        assertEquals(0L, stats.get("consolidatedFlushes"));
+        assertEquals(Boolean.FALSE, stats.get("consolidation"));
+        channel.finishAndReleaseAll();
+    }
+
+    private static IMChannelInitializer initializer(boolean enabled, int explicitAfterFlushes, boolean whenNoRead) {
+        IMChannelInitializer initializer = new IMChannelInitializer();
+        ReflectionTestUtils.setField(initializer, "flushConsolidationEnabled", enabled);
+        ReflectionTestUtils.setField(initializer, "explicitFlushAfterFlushes", explicitAfterFlushes);
+        ReflectionTestUtils.setField(initializer, "consolidateWhenNoReadInProgress", whenNoRead);
+        return initializer;
+    }
+
+    /**
+     * 业务处理器每读到一条消息就逐帧 writeAndFlush 指定数量的响应
+     */
+    private static EmbeddedChannel channel(IMChannelInitializer initializer, int responsesPerRead) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        initializer.addFlushHandlers(channel.pipeline());
+        channel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                for (int i = 0; i < responsesPerRead; i++) {
+                    ctx.writeAndFlush("response " + i);
+                }
+            }
+        });
+        return channel;
+    }
+}
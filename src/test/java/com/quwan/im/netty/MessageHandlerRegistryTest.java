@@ -0,0 +1,52 @@
+package com.quwan.im.netty;
+
+import com.quwan.im.model.MessageType;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 消息处理器注册表测试
+ * 验证按编码直接索引、扩展类型注册与编码冲突检查，以及MessageType编码查表
+ */
+public class MessageHandlerRegistryTest {
+
+    private static final MessageTypeHandler NOOP = (ctx, userId, message) -> { };
+
+    @Test
+    void testMessageTypeLookup() {
+        for (MessageType type : MessageType.values()) {
+            assertSame(type, MessageType.fromCode(type.getCode()), "编码查表结果不匹配: " + type);
+        }
+        assertNull(MessageType.findByCode((byte) 100));
+        assertNull(MessageType.findByCode((byte) -1), "负数编码按无符号索引，不应越界");
+        assertThrows(IllegalArgumentException.class, () -> MessageType.fromCode((byte) 100));
+    }
+
+    @Test
+    void testRegisterBuiltinAndExtension() {
+        MessageHandlerRegistry registry = new MessageHandlerRegistry();
+        registry.register(MessageType.PING, false, NOOP);
+        registry.register((byte) 200, "CUSTOM_PUSH", true, NOOP);
+
+        MessageHandlerRegistry.Registration ping = registry.get(MessageType.PING.getCode());
+        assertEquals("PING", ping.getName());
+        assertFalse(ping.isBlocking());
+
+        MessageHandlerRegistry.Registration custom = registry.get((byte) 200);
+        assertEquals("CUSTOM_PUSH", custom.getName());
+        assertTrue(custom.isBlocking());
+        assertNull(registry.get((byte) 201), "未注册的编码应返回null");
+        assertEquals(2, registry.getRegistrations().size());
+    }
+
+    @Test
+    void testRejectConflictingRegistration() {
+        MessageHandlerRegistry registry = new MessageHandlerRegistry();
+        registry.register(MessageType.LOGIN, true, NOOP);
+
+        assertThrows(IllegalStateException.class, () -> registry.register(MessageType.LOGIN, true, NOOP), "同一编码不能重复注册");
+        assertThrows(IllegalArgumentException.class, () -> registry.register(MessageType.PING.getCode(), "MY_PING", false, NOOP),
+                "扩展类型不能占用内置编码");
+    }
+}
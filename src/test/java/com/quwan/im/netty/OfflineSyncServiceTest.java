@@ -0,0 +1,236 @@
+package com.quwan.im.netty;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.quwan.im.entity.MessageEntity;
+import com.quwan.im.entity.ReadCursorEntity;
+import com.quwan.im.mapper.ReadCursorMapper;
+import com.quwan.im.model.MessageType;
+import com.quwan.im.model.ProtocolMessage;
+import com.quwan.im.persistence.ConversationSequencer;
+import com.quwan.im.persistence.ReadCursorWriteBehind;
+import com.quwan.im.service.FriendService;
+import com.quwan.im.service.GroupService;
+import com.quwan.im.service.MessageService;
+import com.quwan.im.service.impl.ReadCursorServiceImpl;
+import com.quwan.im.util.KeyedExecutor;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 离线增量同步测试
+ * 以EmbeddedChannel接收同步页，用户执行通道同步执行；验证已退出的群不再同步、按页大小分页与hasMore标记、
+ * 落后过多时只同步最近的部分，以及补同步与未完成的同步合并
+ */
+public class OfflineSyncServiceTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private MessageService messageService;
+    private GroupService groupService;
+    private FriendService friendService;
+    private ReadCursorMapper readCursorMapper;
+    private ConversationSequencer conversationSequencer;
+    private ReadCursorServiceImpl readCursorService;
+    private KeyedExecutor executor;
+    private OfflineSyncService syncService;
+
+    // 各会话的最新序号，会话中的消息为 1..最新序号
+    private final Map<String, Long> latestSeqs = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        messageService = mock(MessageService.class);
+        groupService = mock(GroupService.class);
+        friendService = mock(FriendService.class);
+        readCursorMapper = mock(ReadCursorMapper.class);
+        conversationSequencer = mock(ConversationSequencer.class);
+        when(friendService.getUserFriends(anyString())).thenReturn(Collections.emptyList());
+
+        when(conversationSequencer.current(anyCollection())).thenAnswer(invocation -> {
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (Object id : (Collection<?>) invocation.getArgument(0)) {
+                result.put((String) id, latestSeqs.getOrDefault(id, 0L));
+            }
+            return result;
+        });
+        when(messageService.getMessagesAfter(anyString(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            String conversationId = invocation.getArgument(0);
+            long afterSeq = invocation.getArgument(1);
+            int limit = invocation.getArgument(2);
+            List<MessageEntity> rows = new ArrayList<>();
+            for (long seq = afterSeq + 1; seq <= latestSeqs.getOrDefault(conversationId, 0L) && rows.size() < limit; seq++) {
+                rows.add(row(conversationId, seq));
+            }
+            return rows;
+        });
+
+        readCursorService = new ReadCursorServiceImpl();
+        ReflectionTestUtils.setField(readCursorService, "readCursorMapper", readCursorMapper);
+        ReflectionTestUtils.setField(readCursorService, "conversationSequencer", conversationSequencer);
+        ReflectionTestUtils.setField(readCursorService, "groupService", groupService);
+        ReflectionTestUtils.setField(readCursorService, "friendService", friendService);
+        ReflectionTestUtils.setField(readCursorService, "readCursorWriteBehind", mock(ReadCursorWriteBehind.class));
+
+        // 用户执行通道改为在提交线程上直接执行，便于按顺序检查写出的页
+        executor = mock(KeyedExecutor.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(executor).offer(any(), any(Runnable.class));
+
+        syncService = syncService(2, 1000);
+    }
+
+    @Test
+    void testQuitGroupIsNotSynced() throws Exception {
+        // 用户曾在group_1、group_2中读过消息，之后退出了group_1
+        when(groupService.getUserGroupIds("user_a")).thenReturn(Collections.singletonList("group_2"));
+        when(readCursorMapper.selectByUserId("user_a")).thenReturn(Arrays.asList(cursor("g:group_1", 5L), cursor("g:group_2", 3L)));
+        latestSeqs.put("g:group_1", 10L);
+        latestSeqs.put("g:group_2", 4L);
+
+        EmbeddedChannel channel = new EmbeddedChannel();
+        syncService.startSync(channel, "user_a", null);
+
+        List<Map<String, Object>> pages = pages(channel);
+        assertEquals(2, pages.size(), "应只有group_2的一页与结束页");
+        assertEquals("g:group_2", pages.get(0).get("conversationId"));
+        assertEquals(Boolean.TRUE, pages.get(1).get("done"));
+        verify(messageService, never()).getMessagesAfter(eq("g:group_1"), anyLong(), anyInt());
+    }
+
+    @Test
+    void testPagingAndHasMore() throws Exception {
+        when(groupService.getUserGroupIds("user_a")).thenReturn(Collections.singletonList("group_1"));
+        when(readCursorMapper.selectByUserId("user_a")).thenReturn(Collections.emptyList());
+        latestSeqs.put("g:group_1", 5L);
+
+        EmbeddedChannel channel = new EmbeddedChannel();
+        syncService.startSync(channel, "user_a", null);
+
+        List<Map<String, Object>> pages = pages(channel);
+        assertEquals(4, pages.size(), "5条消息按每页2条应分3页，另有结束页");
+        assertEquals(Arrays.asList(1, 2), seqs(pages.get(0)));
+        assertEquals(Arrays.asList(3, 4), seqs(pages.get(1)));
+        assertEquals(Collections.singletonList(5), seqs(pages.get(2)));
+        assertEquals(Boolean.TRUE, pages.get(0).get("hasMore"));
+        assertEquals(Boolean.TRUE, pages.get(1).get("hasMore"));
+        assertEquals(Boolean.FALSE, pages.get(2).get("hasMore"), "会话的最后一页hasMore应为false");
+        assertEquals(Boolean.FALSE, pages.get(0).get("truncated"));
+        assertEquals(Boolean.TRUE, pages.get(3).get("done"));
+        assertEquals(5, pages.get(3).get("messages"), "结束页应带上同步的总条数");
+        Object firstId = ((Map<?, ?>) ((List<?>) pages.get(0).get("messages")).get(0)).get("id");
+        assertEquals("1001", firstId, "消息ID超过2^53，JSON中应按字符串输出");
+        verify(conversationSequencer, never()).current(anyString());
+    }
+
+    @Test
+    void testTruncateToLatest() throws Exception {
+        OfflineSyncService truncating = syncService(2, 3);
+        when(groupService.isGroupMember("group_1", "user_a")).thenReturn(true);
+        when(groupService.getUserGroupIds("user_a")).thenReturn(Collections.emptyList());
+        when(readCursorMapper.selectByUserId("user_a")).thenReturn(Collections.emptyList());
+        latestSeqs.put("g:group_1", 10L);
+
+        EmbeddedChannel channel = new EmbeddedChannel();
+        truncating.startSync(channel, "user_a", Collections.<String, Number>singletonMap("g:group_1", 0));
+
+        List<Map<String, Object>> pages = pages(channel);
+        assertEquals(3, pages.size());
+        assertEquals(Arrays.asList(8, 9), seqs(pages.get(0)), "落后超过上限时只同步最近的3条");
+        assertEquals(Collections.singletonList(10), seqs(pages.get(1)));
+        assertEquals(Boolean.TRUE, pages.get(0).get("truncated"));
+        assertEquals(Boolean.TRUE, pages.get(2).get("done"));
+    }
+
+    @Test
+    void testResumeMergesPendingSync() throws Exception {
+        when(groupService.getUserGroupIds("user_a")).thenReturn(Arrays.asList("group_1", "group_2"));
+        when(readCursorMapper.selectByUserId("user_a")).thenReturn(Collections.emptyList());
+        latestSeqs.put("g:group_1", 4L);
+        latestSeqs.put("g:group_2", 2L);
+        latestSeqs.put("g:group_3", 1L);
+
+        // 不可写时写出第一页后暂停
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        syncService.startSync(channel, "user_a", null);
+        assertEquals(1, pages(channel).size(), "不可写时应在第一页后暂停");
+
+        // 补同步group_3，并与暂停的同步中未完成的会话合并
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        syncService.resume(channel, "user_a", Collections.singletonMap("g:group_3", 0L));
+
+        List<Map<String, Object>> pages = pages(channel);
+        assertEquals(4, pages.size());
+        assertEquals("g:group_3", pages.get(0).get("conversationId"));
+        assertEquals("g:group_1", pages.get(1).get("conversationId"));
+        assertEquals(Arrays.asList(3, 4), seqs(pages.get(1)), "group_1应从暂停时的位置继续");
+        assertEquals("g:group_2", pages.get(2).get("conversationId"));
+        assertEquals(Boolean.TRUE, pages.get(3).get("done"));
+        verify(messageService, times(1)).getMessagesAfter("g:group_1", 0L, 3);
+    }
+
+    private OfflineSyncService syncService(int pageSize, int maxPerConversation) {
+        OfflineSyncService service = new OfflineSyncService(pageSize, maxPerConversation);
+        ReflectionTestUtils.setField(service, "messageService", messageService);
+        ReflectionTestUtils.setField(service, "readCursorService", readCursorService);
+        ReflectionTestUtils.setField(service, "groupService", groupService);
+        ReflectionTestUtils.setField(service, "conversationSequencer", conversationSequencer);
+        ReflectionTestUtils.setField(service, "messageKeyedExecutor", executor);
+        return service;
+    }
+
+    private static List<Integer> seqs(Map<String, Object> page) {
+        List<Integer> seqs = new ArrayList<>();
+        for (Object message : (List<?>) page.get("messages")) {
+            seqs.add(((Number) ((Map<?, ?>) message).get("seq")).intValue());
+        }
+        return seqs;
+    }
+
+    private static List<Map<String, Object>> pages(EmbeddedChannel channel) throws Exception {
+        List<Map<String, Object>> pages = new ArrayList<>();
+        ProtocolMessage message;
+        while ((message = channel.readOutbound()) != null) {
+            assertEquals(MessageType.SYNC_RESPONSE.getCode(), message.getType());
+            pages.add(objectMapper.readValue(message.getData(), Map.class));
+        }
+        return pages;
+    }
+
+    private static ReadCursorEntity cursor(String conversationId, long seq) {
+        ReadCursorEntity cursor = new ReadCursorEntity();
+        cursor.setUserId("user_a");
+        cursor.setConversationId(conversationId);
+        cursor.setLastReadSeq(seq);
+        return cursor;
+    }
+
+    private static MessageEntity row(String conversationId, long seq) {
+        MessageEntity entity = new MessageEntity();
+        entity.setMessageId(1000L + seq);
+        entity.setFromUser("user_b");
+        entity.setGroupId(ConversationSequencer.groupIdOf(conversationId));
+        entity.setConversationId(conversationId);
+        entity.setContent("hello " + seq);
+        entity.setType(String.valueOf(MessageType.GROUP_CHAT.getCode()));
+        entity.setSeq(seq);
+        return entity;
+    }
+}
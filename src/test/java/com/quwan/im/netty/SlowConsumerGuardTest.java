@@ -0,0 +1,94 @@
+package com.quwan.im.netty;
+
+import com.quwan.im.model.IMMessage;
+import com.quwan.im.model.MessageType;
+import com.quwan.im.model.ProtocolMessage;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 慢连接保护测试
+ * 验证Channel不可写时聊天消息按策略丢弃或断开，其他帧（含文本帧）照常写出，积压超过上限时断开
+ */
+public class SlowConsumerGuardTest {
+
+    @Test
+    void testDropChatMessagesWhenUnwritable() {
+        SlowConsumerGuard guard = new SlowConsumerGuard("drop", 1024);
+        EmbeddedChannel channel = newChannel();
+
+        assertTrue(guard.admit(channel, chat(1)), "可写时应写出");
+        fillOutboundBuffer(channel, 200);
+        assertFalse(channel.isWritable());
+
+        assertFalse(guard.admit(channel, chat(2)), "不可写时聊天消息应丢弃");
+        assertTrue(guard.admit(channel, response()), "不可写时响应仍应写出");
+        assertTrue(channel.isActive());
+        assertEquals(1L, guard.getStats(10).get("dropped"));
+
+        // 积压超过上限后任何帧都断开连接
+        fillOutboundBuffer(channel, 2048);
+        assertFalse(guard.admit(channel, response()));
+        assertFalse(channel.isActive(), "积压超过上限应断开连接");
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testDisconnectPolicy() {
+        SlowConsumerGuard guard = new SlowConsumerGuard("disconnect", 1024 * 1024);
+        EmbeddedChannel channel = newChannel();
+        fillOutboundBuffer(channel, 200);
+
+        assertFalse(guard.admit(channel, chat(1)));
+        assertFalse(channel.isActive(), "disconnect策略下不可写时应断开连接");
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testTextFramesAreByteCapped() {
+        SlowConsumerGuard guard = new SlowConsumerGuard("drop", 1024);
+        EmbeddedChannel channel = newChannel();
+        ProtocolMessage notify = new ProtocolMessage(MessageType.SYSTEM_NOTIFY.getCode(), "user_b已将您从好友列表中删除");
+
+        fillOutboundBuffer(channel, 200);
+        assertTrue(guard.admit(channel, notify), "文本帧不可丢弃，未超过上限时应写出");
+        fillOutboundBuffer(channel, 2048);
+        assertFalse(guard.admit(channel, notify));
+        assertFalse(channel.isActive(), "文本帧同样受积压上限约束");
+        channel.finishAndReleaseAll();
+    }
+
+    private static EmbeddedChannel newChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(64, 128));
+        return channel;
+    }
+
+    /**
+     * 只写不flush，数据停留在出站缓冲中
+     */
+    private static void fillOutboundBuffer(EmbeddedChannel channel, int bytes) {
+        channel.write(Unpooled.wrappedBuffer(new byte[bytes]));
+    }
+
+    private static ProtocolMessage chat(long seq) {
+        IMMessage message = new IMMessage();
+        message.setId(seq);
+        message.setFrom("user_a");
+        message.setTo("user_b");
+        message.setSeq(seq);
+        message.setType(MessageType.SINGLE_CHAT.getCode());
+        return new ProtocolMessage(MessageType.SINGLE_CHAT.getCode(), message);
+    }
+
+    private static ProtocolMessage response() {
+        IMMessage message = new IMMessage();
+        message.setFrom("system");
+        message.setType(MessageType.SINGLE_CHAT_ACK.getCode());
+        return new ProtocolMessage(MessageType.SINGLE_CHAT_ACK.getCode(), message);
+    }
+}
@@ -0,0 +1,135 @@
+package com.quwan.im.persistence;
+
+import com.quwan.im.entity.MessageEntity;
+import com.quwan.im.mapper.MessageMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * JVM内会话序号存储测试
+ * 验证序号从库中最大序号继续分配，只读查询不创建计数器，批量查询未缓存的会话只查一次库，只淘汰空闲足够久的计数器，
+ * 并发淘汰时正在分配的计数器不会被淘汰（否则从落后的库中重新加载会分配出重复序号）
+ */
+public class LocalSequenceStoreTest {
+
+    @Test
+    void testNextContinuesFromDatabaseMax() {
+        MessageMapper mapper = mock(MessageMapper.class);
+        when(mapper.selectMaxSeq("g:group_1")).thenReturn(41L);
+        LocalSequenceStore store = new LocalSequenceStore(mapper, 100, 300);
+
+        assertEquals(42L, store.next("g:group_1"));
+        assertEquals(43L, store.next("g:group_1"));
+        assertEquals(43L, store.current("g:group_1"));
+        verify(mapper, times(1)).selectMaxSeq("g:group_1");
+    }
+
+    @Test
+    void testCurrentDoesNotCreateCounter() {
+        MessageMapper mapper = mock(MessageMapper.class);
+        when(mapper.selectMaxSeq(anyString())).thenReturn(null);
+        LocalSequenceStore store = new LocalSequenceStore(mapper, 100, 300);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0L, store.current("g:group_" + i));
+        }
+        assertEquals(0, store.size(), "只读查询不应创建计数器");
+    }
+
+    @Test
+    void testBatchCurrent() {
+        MessageMapper mapper = mock(MessageMapper.class);
+        MessageEntity row = new MessageEntity();
+        row.setConversationId("g:group_2");
+        row.setSeq(7L);
+        when(mapper.selectMaxSeqs(anyList())).thenReturn(Collections.singletonList(row));
+        LocalSequenceStore store = new LocalSequenceStore(mapper, 100, 300);
+        store.next("g:group_1");
+
+        Map<String, Long> current = store.current(Arrays.asList("g:group_1", "g:group_2", "g:group_3"));
+        assertEquals(1L, current.get("g:group_1"), "已缓存的会话取计数器的值");
+        assertEquals(7L, current.get("g:group_2"));
+        assertEquals(0L, current.get("g:group_3"), "没有消息的会话为0");
+        verify(mapper, times(1)).selectMaxSeqs(Arrays.asList("g:group_2", "g:group_3"));
+        verify(mapper, never()).selectMaxSeq("g:group_2");
+    }
+
+    @Test
+    void testConcurrentEvictionKeepsSeqsUnique() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        // 库中的最大序号始终落后（异步写入尚未刷盘）
+        when(mapper.selectMaxSeq(anyString())).thenReturn(0L);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 2; round++) {
+                LocalSequenceStore store = new LocalSequenceStore(mapper, 1, 1);
+                store.next("g:hot");
+                // 让g:hot空闲超过min-idle：第一次取出它的线程与放入其他会话的线程竞争淘汰
+                Thread.sleep(1100);
+
+                int perThread = 2000;
+                Set<Long> seqs = ConcurrentHashMap.newKeySet();
+                AtomicInteger allocated = new AtomicInteger(1);
+                AtomicInteger others = new AtomicInteger();
+                CountDownLatch start = new CountDownLatch(1);
+                CountDownLatch done = new CountDownLatch(8);
+                for (int t = 0; t < 8; t++) {
+                    boolean hot = t % 2 == 0;
+                    pool.execute(() -> {
+                        try {
+                            start.await();
+                            for (int i = 0; i < perThread; i++) {
+                                if (hot) {
+                                    seqs.add(store.next("g:hot"));
+                                    allocated.incrementAndGet();
+                                } else {
+                                    store.next("g:other_" + others.incrementAndGet());
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+                start.countDown();
+                assertTrue(done.await(30, TimeUnit.SECONDS));
+                seqs.add(1L);
+                assertEquals(allocated.get(), seqs.size(), "同一会话分配的序号不应重复");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testEvictOnlyIdleCounters() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        LocalSequenceStore busy = new LocalSequenceStore(mapper, 2, 300);
+        for (int i = 0; i < 5; i++) {
+            busy.next("g:group_" + i);
+        }
+        assertEquals(5, busy.size(), "刚分配过序号的计数器不应被淘汰");
+
+        LocalSequenceStore idle = new LocalSequenceStore(mapper, 2, 0);
+        for (int i = 0; i < 5; i++) {
+            idle.next("g:group_" + i);
+            Thread.sleep(1);
+        }
+        assertEquals(2, idle.size(), "空闲的计数器应按LRU淘汰");
+    }
+}
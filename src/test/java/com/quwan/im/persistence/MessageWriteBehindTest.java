@@ -0,0 +1,121 @@
+package com.quwan.im.persistence;
+
+import com.quwan.im.entity.MessageEntity;
+import com.quwan.im.mapper.MessageMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * 消息异步批量写入测试
+ * 验证同批消息合并为一次多行INSERT，本批消息的状态更新合并进INSERT，其余状态更新按最高状态合并后分组批量UPDATE；
+ * 队列满时状态更新等对应的INSERT刷盘后再执行
+ */
+public class MessageWriteBehindTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBatchInsertAndMergeStatus() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        // 时间阈值足够长，保证所有写操作落在同一批
+        MessageWriteBehind writeBehind = new MessageWriteBehind(mapper, 100, 100, 1000, 100);
+        writeBehind.start();
+
+        assertTrue(writeBehind.submitInsert(message(1L)));
+        assertTrue(writeBehind.submitInsert(message(2L)));
+        assertTrue(writeBehind.submitStatus(1L, "DELIVERED"));
+        assertTrue(writeBehind.submitStatus(100L, "READ"));
+        writeBehind.stop();
+
+        ArgumentCaptor<List<MessageEntity>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mapper, times(1)).batchInsert(captor.capture());
+        List<MessageEntity> inserted = captor.getValue();
+        assertEquals(2, inserted.size(), "应合并为一次批量写入");
+        assertEquals("DELIVERED", inserted.get(0).getStatus(), "本批消息的状态更新应合并进INSERT");
+        assertEquals("SENT", inserted.get(1).getStatus());
+
+        verify(mapper, times(1)).batchUpdateStatus(Collections.singletonList(100L), "READ");
+        verify(mapper, never()).updateStatus(anyLong(), anyString());
+        assertFalse(writeBehind.submitInsert(message(3L)), "停止后不再接收写操作");
+    }
+
+    @Test
+    void testCoalesceStatusUpdates() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        MessageWriteBehind writeBehind = new MessageWriteBehind(mapper, 100, 100, 1000, 100);
+        writeBehind.start();
+
+        // 同一消息多次更新只保留最高状态，回执乱序到达也不会回退
+        writeBehind.submitStatus(200L, "DELIVERED");
+        writeBehind.submitStatus(200L, "READ");
+        writeBehind.submitStatus(200L, "DELIVERED");
+        writeBehind.submitStatus(201L, "DELIVERED");
+        writeBehind.stop();
+
+        verify(mapper, times(1)).batchUpdateStatus(Collections.singletonList(200L), "READ");
+        verify(mapper, times(1)).batchUpdateStatus(Collections.singletonList(201L), "DELIVERED");
+        verify(mapper, times(2)).batchUpdateStatus(anyList(), anyString());
+        assertEquals(2L, writeBehind.getStats().get("coalescedStatusUpdates"));
+    }
+
+    @Test
+    void testFallbackToSingleInsert() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        when(mapper.batchInsert(anyList())).thenThrow(new RuntimeException("duplicate key"));
+        MessageWriteBehind writeBehind = new MessageWriteBehind(mapper, 100, 100, 1000, 100);
+        writeBehind.start();
+
+        writeBehind.submitInsert(message(1L));
+        writeBehind.submitInsert(message(2L));
+        writeBehind.stop();
+
+        verify(mapper, times(2)).insert(any(MessageEntity.class));
+    }
+
+    @Test
+    void testStatusOverflowWaitsForPendingInsert() throws Exception {
+        MessageMapper mapper = mock(MessageMapper.class);
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(mapper.batchInsert(anyList())).thenAnswer(invocation -> {
+            flushing.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return 1;
+        }).thenReturn(1);
+        // 队列容量为1，入队最多等待10ms
+        MessageWriteBehind writeBehind = new MessageWriteBehind(mapper, 1, 100, 10, 10);
+        writeBehind.start();
+
+        writeBehind.submitInsert(message(1L));
+        assertTrue(flushing.await(10, TimeUnit.SECONDS), "第一批未开始写入");
+        assertTrue(writeBehind.submitInsert(message(2L)), "队列应有空位");
+        // 队列已满：状态更新不能同步执行（消息2尚未写入），应等消息2刷盘后再执行
+        assertTrue(writeBehind.submitStatus(2L, "DELIVERED"));
+        assertEquals(1L, writeBehind.getStats().get("deferredStatusUpdates"));
+        release.countDown();
+        writeBehind.stop();
+
+        InOrder inOrder = inOrder(mapper);
+        inOrder.verify(mapper, times(2)).batchInsert(anyList());
+        inOrder.verify(mapper).batchUpdateStatus(Collections.singletonList(2L), "DELIVERED");
+        verify(mapper, never()).updateStatus(anyLong(), anyString());
+    }
+
+    private static MessageEntity message(long id) {
+        MessageEntity entity = new MessageEntity();
+        entity.setMessageId(id);
+        entity.setFromUser("user_a");
+        entity.setToUser("user_b");
+        entity.setStatus("SENT");
+        return entity;
+    }
+}
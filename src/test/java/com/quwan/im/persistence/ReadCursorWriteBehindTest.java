@@ -0,0 +1,55 @@
+package com.quwan.im.persistence;
+
+import com.quwan.im.entity.ReadCursorEntity;
+import com.quwan.im.mapper.ReadCursorMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * 已读游标异步批量写入测试
+ * 验证同一会话的多次推进在内存中合并为最大值、写入前可被读取，停止时合并为一次多行UPSERT
+ */
+public class ReadCursorWriteBehindTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCoalesceAndBatchUpsert() throws Exception {
+        ReadCursorMapper mapper = mock(ReadCursorMapper.class);
+        // 刷盘间隔足够长，保证在stop之前不写入
+        ReadCursorWriteBehind writeBehind = new ReadCursorWriteBehind(mapper, 60000, 500);
+        writeBehind.start();
+
+        for (long seq = 1; seq <= 100; seq++) {
+            writeBehind.submit("user_a", "g:group_1", seq);
+        }
+        writeBehind.submit("user_a", "g:group_1", 50);
+        writeBehind.submit("user_a", "p:user_a:user_b", 7);
+        assertEquals(100L, writeBehind.pendingSeq("user_a", "g:group_1"), "乱序到达的较小序号不应回退");
+        assertEquals(2, writeBehind.pendingSeqs("user_a").size());
+        verify(mapper, never()).batchUpsertCursors(anyList());
+
+        writeBehind.stop();
+        ArgumentCaptor<List<ReadCursorEntity>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mapper, times(1)).batchUpsertCursors(captor.capture());
+        assertEquals(2, captor.getValue().size(), "每个会话只写一行");
+        assertEquals(0L, writeBehind.pendingSeq("user_a", "g:group_1"), "写入后从待写表中移除");
+    }
+
+    @Test
+    void testKeepPendingOnFailure() throws Exception {
+        ReadCursorMapper mapper = mock(ReadCursorMapper.class);
+        when(mapper.batchUpsertCursors(anyList())).thenThrow(new RuntimeException("db down"));
+        ReadCursorWriteBehind writeBehind = new ReadCursorWriteBehind(mapper, 60000, 500);
+
+        writeBehind.submit("user_a", "g:group_1", 3);
+        writeBehind.stop();
+        assertEquals(3L, writeBehind.pendingSeq("user_a", "g:group_1"), "写入失败的游标应留在待写表中重试");
+        assertEquals(1L, writeBehind.getStats().get("failed"));
+    }
+}
@@ -0,0 +1,112 @@
+package com.quwan.im.presence;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 在线状态服务测试
+ * 验证多设备在线汇总与上下线通知、未写入的变更计入查询、心跳不产生多余写入且同一设备的变更合并写入、
+ * 租约被清理后心跳重新获得租约、设备换节点登录时交出租约不写入删除，以及订阅关系维护
+ */
+public class PresenceServiceTest {
+
+    @Test
+    void testDevicesAndListener() {
+        PresenceService service = new PresenceService(new LocalPresenceStore(), 60, 1000, 100);
+        List<String> changed = new ArrayList<>();
+        service.addListener(changed::add);
+
+        service.online("user_a", "phone");
+        service.online("user_a", "pc");
+        assertEquals(Collections.singletonList("user_a"), changed, "只有首个设备上线时通知");
+
+        Presence presence = service.query(Arrays.asList("user_a", "user_b")).get("user_a");
+        assertEquals(Presence.ONLINE, presence.getStatus());
+        assertEquals(Arrays.asList("pc", "phone"), presence.getDevices());
+        assertEquals(Presence.OFFLINE, service.query(Collections.singletonList("user_b")).get("user_b").getStatus());
+
+        service.offline("user_a", "phone");
+        assertEquals(1, changed.size(), "仍有设备在线时不通知");
+        service.offline("user_a", "pc");
+        assertEquals(2, changed.size(), "最后一个设备下线时通知");
+        assertEquals(Presence.OFFLINE, service.query(Collections.singletonList("user_a")).get("user_a").getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testHeartbeatAndCoalescedWrites() throws Exception {
+        PresenceStore store = mock(PresenceStore.class);
+        PresenceService service = new PresenceService(store, 60, 1000, 100);
+
+        service.online("user_a", "phone");
+        for (int i = 0; i < 10; i++) {
+            service.heartbeat("user_a", "phone");
+        }
+        assertEquals(10L, service.getStats().get("skippedHeartbeats"), "租约剩余超过一半时心跳不续期");
+        verify(store, never()).apply(anyCollection());
+
+        // 停止时删除本节点的租约，与未写入的上线合并为一次写入
+        service.stop();
+        ArgumentCaptor<Collection<PresenceLease>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(store, times(1)).apply(captor.capture());
+        assertEquals(1, captor.getValue().size(), "同一设备的变更应合并");
+        assertTrue(captor.getValue().iterator().next().isRemoval());
+    }
+
+    @Test
+    void testHeartbeatReacquiresWithoutNotifyingInline() {
+        PresenceService service = new PresenceService(new LocalPresenceStore(), 60, 1000, 100);
+        List<Thread> notifiedOn = new ArrayList<>();
+        service.online("user_a", "phone");
+        service.offline("user_a", "phone");
+        service.addListener(userId -> notifiedOn.add(Thread.currentThread()));
+
+        // 连接仍在线但租约已被清理（如到期后被清理）时，心跳重新获得租约
+        assertTrue(service.heartbeat("user_a", "phone"), "重新获得首个租约时应返回true");
+        assertEquals(Presence.ONLINE, service.query(Collections.singletonList("user_a")).get("user_a").getStatus());
+        assertEquals(1L, service.getStats().get("reacquired"));
+        assertFalse(notifiedOn.contains(Thread.currentThread()), "心跳可在EventLoop上调用，不应在调用线程上通知监听器");
+
+        assertFalse(service.heartbeat("user_a", "phone"), "租约仍有效时不算重新上线");
+    }
+
+    @Test
+    void testHandOverWritesNothing() throws Exception {
+        PresenceStore store = mock(PresenceStore.class);
+        PresenceService service = new PresenceService(store, 60, 1000, 100);
+        List<String> changed = new ArrayList<>();
+        service.addListener(changed::add);
+
+        service.online("user_a", "phone");
+        service.handOver("user_a", "phone");
+        assertEquals(0, service.getStats().get("onlineDevices"), "交出后本节点不再持有租约");
+        assertEquals(1, changed.size(), "用户仍在其他节点在线，交出时不通知");
+
+        // 存储中的租约已由新节点接管，停止时不应写入删除
+        service.stop();
+        verify(store, never()).apply(anyCollection());
+    }
+
+    @Test
+    void testWatch() {
+        PresenceService service = new PresenceService(new LocalPresenceStore(), 60, 1000, 2);
+
+        assertEquals(Arrays.asList("user_a", "user_b"), service.watch("watcher", Arrays.asList("user_a", "user_b", "user_c")), "超过上限的部分不订阅");
+        assertTrue(service.getWatchers("user_a").contains("watcher"));
+
+        service.watch("watcher", Collections.singletonList("user_b"));
+        assertTrue(service.getWatchers("user_a").isEmpty(), "重新订阅应替换之前的订阅");
+
+        service.unwatch("watcher");
+        assertTrue(service.getWatchers("user_b").isEmpty());
+    }
+}
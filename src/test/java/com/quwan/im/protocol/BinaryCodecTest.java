@@ -0,0 +1,182 @@
+package com.quwan.im.protocol;
+
+import com.quwan.im.model.IMMessage;
+import com.quwan.im.model.MessageType;
+import com.quwan.im.model.ProtocolMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 二进制编解码测试
+ * 验证版本2负载格式标识：文本负载与IMMessage负载均可直接按标识解析；版本3消息ID为8字节整数；
+ * 出站帧按对端第一帧的版本编码
+ */
+public class BinaryCodecTest {
+
+    private EmbeddedChannel encoderChannel;
+    private EmbeddedChannel decoderChannel;
+
+    @BeforeEach
+    void setUp() {
+        encoderChannel = new EmbeddedChannel(new BinaryMessageEncoder());
+        decoderChannel = new EmbeddedChannel(new BinaryMessageDecoder());
+    }
+
+    @AfterEach
+    void tearDown() {
+        encoderChannel.finishAndReleaseAll();
+        decoderChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testTextPayloadRoundTrip() {
+        String json = "{\"username\":\"Tom\",\"password\":\"123456\"}";
+        ProtocolMessage decoded = roundTrip(new ProtocolMessage(MessageType.LOGIN.getCode(), json));
+        try {
+            assertEquals(ProtocolMessage.VERSION_LONG_ID, decoded.getVersion(), "版本不匹配");
+            assertEquals(MessageType.LOGIN.getCode(), decoded.getType(), "消息类型不匹配");
+            assertTrue(decoded.hasPayload(), "文本负载应以ByteBuf切片携带");
+            assertNull(decoded.getImMessage(), "文本负载不应被解析为IMMessage");
+            assertEquals(json, decoded.getData(), "数据内容不匹配");
+        } finally {
+            ReferenceCountUtil.release(decoded);
+        }
+    }
+
+    @Test
+    void testIMMessagePayloadRoundTrip() {
+        IMMessage message = new IMMessage();
+        message.setId(7158476305518854144L);
+        message.setFrom("user_a");
+        message.setTo("user_b");
+        message.setContent("你好");
+        message.setType(MessageType.SINGLE_CHAT.getCode());
+        message.setTimestamp(1700000000000L);
+        message.setSeq(42L);
+
+        ProtocolMessage decoded = roundTrip(new ProtocolMessage(MessageType.SINGLE_CHAT.getCode(), message));
+        try {
+            assertFalse(decoded.hasPayload(), "IMMessage负载应直接解析为对象");
+            assertEquals(message, decoded.getImMessage(), "IMMessage内容不匹配");
+        } finally {
+            ReferenceCountUtil.release(decoded);
+        }
+    }
+
+    @Test
+    void testEmptyPayloadRoundTrip() {
+        ProtocolMessage decoded = roundTrip(new ProtocolMessage(MessageType.PING.getCode(), ""));
+        try {
+            assertEquals("", decoded.getData(), "空消息内容不匹配");
+        } finally {
+            ReferenceCountUtil.release(decoded);
+        }
+    }
+
+    @Test
+    void testLegacyVersionStillDecodes() {
+        String json = "{\"messageId\":\"msg_001\"}";
+        ProtocolMessage legacy = new ProtocolMessage(MessageType.SINGLE_CHAT_ACK.getCode(), json);
+        legacy.setVersion(ProtocolMessage.VERSION_LEGACY);
+
+        ProtocolMessage decoded = roundTrip(legacy);
+        try {
+            assertEquals(ProtocolMessage.VERSION_LEGACY, decoded.getVersion(), "版本不匹配");
+            assertEquals(json, decoded.getData(), "数据内容不匹配");
+        } finally {
+            ReferenceCountUtil.release(decoded);
+        }
+    }
+
+    @Test
+    void testStringIdVersionStillDecodes() {
+        IMMessage message = new IMMessage();
+        message.setId(7158476305518854144L);
+        message.setFrom("user_a");
+        message.setTo("user_b");
+        message.setContent("你好");
+        message.setType(MessageType.SINGLE_CHAT.getCode());
+        ProtocolMessage v2 = new ProtocolMessage(MessageType.SINGLE_CHAT.getCode(), message);
+        v2.setVersion(ProtocolMessage.VERSION_FORMAT_FLAG);
+
+        ProtocolMessage decoded = roundTrip(v2);
+        try {
+            assertEquals(ProtocolMessage.VERSION_FORMAT_FLAG, decoded.getVersion(), "版本不匹配");
+            assertEquals(message, decoded.getImMessage(), "版本2的十进制字符串ID应解析为同一数值");
+        } finally {
+            ReferenceCountUtil.release(decoded);
+        }
+    }
+
+    @Test
+    void testPreEncodedFrameSharedByChannels() {
+        IMMessage notify = new IMMessage();
+        notify.setId(7158476305518854145L);
+        notify.setFrom("system");
+        notify.setGroupId("group_001");
+        notify.setContent("user_a已加入群组");
+        notify.setType(MessageType.SYSTEM_NOTIFY.getCode());
+
+        ByteBuf frame = BinaryMessageEncoder.encodeFrame(ByteBufAllocator.DEFAULT,
+                new ProtocolMessage(MessageType.SYSTEM_NOTIFY.getCode(), notify));
+        try {
+            for (int i = 0; i < 3; i++) {
+                EmbeddedChannel member = new EmbeddedChannel(new BinaryMessageDecoder());
+                assertTrue(member.writeInbound(frame.retainedDuplicate()), "解码失败");
+                ProtocolMessage decoded = member.readInbound();
+                assertEquals(notify, decoded.getImMessage(), "第" + i + "个成员收到的内容不匹配");
+                member.finishAndReleaseAll();
+            }
+            assertEquals(1, frame.refCnt(), "共享帧引用计数不正确");
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Test
+    void testOutboundFramesFollowPeerVersion() {
+        EmbeddedChannel server = new EmbeddedChannel(new BinaryMessageDecoder(), new BinaryMessageEncoder());
+        try {
+            // 客户端第一帧为版本2
+            ProtocolMessage login = new ProtocolMessage(MessageType.LOGIN.getCode(), "{\"username\":\"Tom\"}");
+            login.setVersion(ProtocolMessage.VERSION_FORMAT_FLAG);
+            ByteBuf clientFrame = BinaryMessageEncoder.encodeFrame(ByteBufAllocator.DEFAULT, login);
+            assertTrue(server.writeInbound(clientFrame), "解码失败");
+            ReferenceCountUtil.release(server.readInbound());
+
+            IMMessage message = new IMMessage();
+            message.setId(7158476305518854144L);
+            message.setFrom("user_a");
+            message.setTo("user_b");
+            message.setContent("你好");
+            message.setType(MessageType.SINGLE_CHAT.getCode());
+            assertTrue(server.writeOutbound(new ProtocolMessage(MessageType.SINGLE_CHAT.getCode(), message)), "编码失败");
+            ByteBuf encoded = server.readOutbound();
+            try {
+                assertEquals(ProtocolMessage.VERSION_FORMAT_FLAG, encoded.getByte(4), "出站帧应按对端版本编码");
+            } finally {
+                encoded.release();
+            }
+        } finally {
+            server.finishAndReleaseAll();
+        }
+    }
+
+    private ProtocolMessage roundTrip(ProtocolMessage message) {
+        assertTrue(encoderChannel.writeOutbound(message), "编码失败");
+        ByteBuf encoded = encoderChannel.readOutbound();
+        assertNotNull(encoded, "编码结果为空");
+
+        assertTrue(decoderChannel.writeInbound(encoded), "解码失败");
+        ProtocolMessage decoded = decoderChannel.readInbound();
+        assertNotNull(decoded, "解码结果为空");
+        return decoded;
+    }
+}
@@ -0,0 +1,155 @@
+package com.quwan.im.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按键有序执行器测试
+ * 验证同一键的任务按提交顺序执行，暂存队列满时 offer 丢弃而 offerUnbounded 不丢弃，键到通道的映射固定
+ */
+public class KeyedExecutorTest {
+
+    private KeyedExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        executor = new KeyedExecutor("test", 4, 16);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testPerKeyOrder() throws Exception {
+        int tasks = 1000;
+        List<Integer> userA = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> userB = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(tasks * 2);
+
+        // 队列容量小于任务数，同时验证队列满时阻塞提交不会打乱顺序
+        for (int i = 0; i < tasks; i++) {
+            int seq = i;
+            executor.execute("user_a", () -> {
+                userA.add(seq);
+                done.countDown();
+            });
+            executor.execute("user_b", () -> {
+                userB.add(seq);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS), "任务未在规定时间内执行完");
+        for (int i = 0; i < tasks; i++) {
+            assertEquals(i, userA.get(i), "user_a任务顺序错乱");
+            assertEquals(i, userB.get(i), "user_b任务顺序错乱");
+        }
+    }
+
+    @Test
+    void testOfferNeverBlocksAndKeepsOrder() throws Exception {
+        KeyedExecutor small = new KeyedExecutor("small", 1, 8);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            small.execute("user_a", () -> awaitQuietly(release));
+
+            // 通道被占住，通道队列与暂存队列各8个，offer 仍应立即返回
+            int tasks = 16;
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(tasks);
+            long start = System.nanoTime();
+            for (int i = 0; i < tasks; i++) {
+                int seq = i;
+                small.offer("user_a", () -> {
+                    order.add(seq);
+                    done.countDown();
+                });
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "offer不应阻塞提交线程");
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS), "暂存任务未补入通道执行");
+            for (int i = 0; i < tasks; i++) {
+                assertEquals(i, order.get(i), "暂存任务顺序错乱");
+            }
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    void testOfferDropsWhenFullButUnboundedDoesNot() throws Exception {
+        KeyedExecutor small = new KeyedExecutor("small", 1, 2);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            small.execute("user_a", () -> awaitQuietly(release));
+            for (int i = 0; i < 4; i++) {
+                small.offer("user_a", () -> { });
+            }
+
+            // 通道队列与暂存队列都已满
+            List<String> ran = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(1);
+            small.offer("user_a", () -> ran.add("dropped"));
+            small.offerUnbounded("user_a", () -> {
+                ran.add("kept");
+                done.countDown();
+            });
+            assertEquals(1L, small.getStats().get("rejected"), "暂存队列满时offer应丢弃并计数");
+            assertEquals(1L, small.getStats().get("overCapacity"), "offerUnbounded超出容量时应计数");
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS), "offerUnbounded提交的任务未执行");
+            assertEquals(Collections.singletonList("kept"), ran);
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    void testResubmitToOwnLaneDoesNotDeadlock() throws Exception {
+        KeyedExecutor small = new KeyedExecutor("small", 1, 2);
+        try {
+            int tasks = 10;
+            CountDownLatch done = new CountDownLatch(tasks);
+            // 通道线程向自己的通道连续提交超过队列容量的任务
+            small.execute("user_a", () -> {
+                for (int i = 0; i < tasks; i++) {
+                    small.execute("user_a", done::countDown);
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS), "通道线程向自身提交时发生死锁");
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    @Test
+    void testLaneIndexStable() {
+        int lane = executor.laneIndex("group_1");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(lane, executor.laneIndex("group_1"), "同一键应映射到同一通道");
+        }
+        assertEquals(0, executor.laneIndex(null), "null键应映射到第0个通道");
+        assertTrue(lane >= 0 && lane < executor.getLaneCount(), "通道下标越界");
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.quwan.im.util;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 消息ID生成器测试
+ * 验证多线程下ID唯一且单线程内递增，时钟回拨与序号用尽时不重复，并与UUID做粗略的吞吐量对比
+ */
+public class SnowflakeIdGeneratorTest {
+
+    @Test
+    void testUniqueAndOrderedAcrossThreads() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5);
+        int threads = 8;
+        int perThread = 50000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    long[] ids = new long[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = generator.nextId();
+                    }
+                    return ids;
+                }));
+            }
+
+            Set<Long> all = new HashSet<>();
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get();
+                for (int i = 0; i < ids.length; i++) {
+                    assertTrue(ids[i] > 0, "ID应为正数");
+                    if (i > 0) {
+                        assertTrue(ids[i] > ids[i - 1], "同一线程内ID应递增");
+                    }
+                    all.add(ids[i]);
+                }
+            }
+            assertEquals(threads * perThread, all.size(), "ID不应重复");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testLayout() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1023);
+        long before = System.currentTimeMillis();
+        long id = generator.nextId();
+
+        assertEquals(1023, SnowflakeIdGenerator.workerIdOf(id), "工作节点ID不匹配");
+        assertTrue(SnowflakeIdGenerator.timestampOf(id) >= before, "ID中的时间不应早于生成时间");
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(1024));
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(-1));
+    }
+
+    @Test
+    void testClockRollbackAndSequenceOverflow() {
+        long[] now = {SnowflakeIdGenerator.EPOCH + 1000};
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1) {
+            @Override
+            protected long currentTimeMillis() {
+                return now[0];
+            }
+        };
+
+        // 同一毫秒内超过4096个ID时借用后续毫秒，仍保持递增
+        long previous = 0;
+        for (int i = 0; i < 10000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous, "序号用尽后ID应继续递增");
+            previous = id;
+        }
+
+        // 时钟回拨后沿用上次的时间继续递增
+        now[0] -= 500;
+        assertTrue(generator.nextId() > previous, "时钟回拨后ID不应回退");
+    }
+
+    /**
+     * 粗略的吞吐量对比（不做断言，只输出结果）
+     * 项目未引入JMH，这里只取预热后多轮中的最好结果；耗时较长，默认不运行，使用 mvn test -Pbenchmark
+     */
+    @Test
+    @Tag("benchmark")
+    void testThroughputComparedWithUuid() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+        int count = 1_000_000;
+
+        double snowflake = bestOpsPerSecond(count, () -> {
+            long sink = 0;
+            for (int i = 0; i < count; i++) {
+                sink ^= generator.nextId();
+            }
+            return sink;
+        });
+        double uuid = bestOpsPerSecond(count, () -> {
+            long sink = 0;
+            for (int i = 0; i < count; i++) {
+                sink ^= UUID.randomUUID().toString().hashCode();
+            }
+            return sink;
+        });
+
+        System.out.printf("SnowflakeIdGenerator: %.0f ops/s, UUID.randomUUID().toString(): %.0f ops/s%n", snowflake, uuid);
+    }
+
+    private static double bestOpsPerSecond(int count, Callable<Long> round) throws Exception {
+        double best = 0;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            round.call();
+            long elapsed = System.nanoTime() - start;
+            best = Math.max(best, count * 1e9 / elapsed);
+        }
+        return best;
+    }
+}